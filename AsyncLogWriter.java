@@ -0,0 +1,305 @@
+package com.redli.tmvpsimple.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous writer for {@link LogUtils}. Callers copy their log line into a
+ * preallocated slot of a bounded, lock-free ring buffer and return at once; a
+ * single background thread drains the slots in batches and performs the actual
+ * Log / System.out output.
+ * <p>
+ * The ring is a sequence-numbered array queue: every slot carries the position
+ * it is waiting for, so producers claim slots with one CAS and never lock.
+ */
+public final class AsyncLogWriter {
+
+    /**
+     * What to do when a record is offered while the ring is full.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Discard the oldest queued record to make room for the new one.
+         */
+        DROP_OLDEST,
+        /**
+         * Discard the record being offered.
+         */
+        DROP_NEWEST,
+        /**
+         * Wait until the consumer has made room.
+         */
+        BLOCK
+    }
+
+    /**
+     * One preallocated log line. Slots are reused, never reallocated.
+     */
+    static final class LogRecord {
+        long time;
+        int priority;
+        String tag;
+        String msg;
+        String callSite;
+        int stream;
+
+        void clear() {
+            tag = null;
+            msg = null;
+            callSite = null;
+        }
+    }
+
+    private static final long IDLE_PARK_NANOS = 10L * 1000 * 1000;
+    private static final long FULL_PARK_NANOS = 50L * 1000;
+
+    private final LogRecord[] slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong consumed = new AtomicLong();
+    private final AtomicLong droppedOldest = new AtomicLong();
+    private final AtomicLong droppedNewest = new AtomicLong();
+    private final OverflowPolicy policy;
+    private final LogRecord[] batch;
+    private final Thread consumer;
+
+    private volatile boolean running = true;
+    private volatile boolean parked;
+
+    /**
+     * @param capacity  Number of slots, rounded up to a power of two.
+     * @param batchSize Maximum number of records written per drain pass.
+     * @param policy    Behaviour when the ring is full.
+     */
+    public AsyncLogWriter(int capacity, int batchSize, OverflowPolicy policy) {
+        if (capacity < 2 || batchSize < 1 || policy == null) {
+            throw new IllegalArgumentException("capacity >= 2, batchSize >= 1 and policy are required");
+        }
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = size - 1;
+        this.slots = new LogRecord[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            slots[i] = new LogRecord();
+            sequences.set(i, i);
+        }
+        this.batch = new LogRecord[Math.min(batchSize, size)];
+        for (int i = 0; i < batch.length; i++) {
+            batch[i] = new LogRecord();
+        }
+        this.policy = policy;
+        this.consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drainLoop();
+            }
+        }, "LogUtils-async");
+        this.consumer.setDaemon(true);
+        this.consumer.start();
+    }
+
+    /**
+     * Queue one log line. Returns false only when the writer has been shut
+     * down, in which case the caller should write the line itself; a line
+     * discarded by {@link OverflowPolicy#DROP_NEWEST} counts as handled.
+     */
+    boolean offer(long time, int priority, String tag, String msg, String callSite, int stream) {
+        if (Thread.currentThread() == consumer) {
+            // A sink logging from the writer thread: queueing could wait on
+            // ourselves forever under BLOCK, so let the caller write directly.
+            return false;
+        }
+        while (running) {
+            if (tryOffer(time, priority, tag, msg, callSite, stream)) {
+                if (!running) {
+                    // Shutdown may have finished its final drain before this
+                    // record was published; make sure it is still written.
+                    drainRemaining();
+                } else if (parked) {
+                    LockSupport.unpark(consumer);
+                }
+                return true;
+            }
+            switch (policy) {
+                case DROP_NEWEST:
+                    droppedNewest.incrementAndGet();
+                    return true;
+                case DROP_OLDEST:
+                    if (tryPoll(null)) {
+                        droppedOldest.incrementAndGet();
+                        consumed.incrementAndGet();
+                    }
+                    break;
+                default:
+                    LockSupport.unpark(consumer);
+                    LockSupport.parkNanos(this, FULL_PARK_NANOS);
+                    break;
+            }
+        }
+        return false;
+    }
+
+    private boolean tryOffer(long time, int priority, String tag, String msg, String callSite, int stream) {
+        long pos = tail.get();
+        for (; ; ) {
+            int index = (int) (pos & mask);
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    LogRecord record = slots[index];
+                    record.time = time;
+                    record.priority = priority;
+                    record.tag = tag;
+                    record.msg = msg;
+                    record.callSite = callSite;
+                    record.stream = stream;
+                    sequences.lazySet(index, pos + 1);
+                    return true;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Take the oldest record, copying it into {@code target} when not null.
+     * Both the consumer thread and DROP_OLDEST producers call this.
+     */
+    private boolean tryPoll(LogRecord target) {
+        long pos = head.get();
+        for (; ; ) {
+            int index = (int) (pos & mask);
+            long diff = sequences.get(index) - (pos + 1);
+            if (diff == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    LogRecord record = slots[index];
+                    if (target != null) {
+                        target.time = record.time;
+                        target.priority = record.priority;
+                        target.tag = record.tag;
+                        target.msg = record.msg;
+                        target.callSite = record.callSite;
+                        target.stream = record.stream;
+                    }
+                    record.clear();
+                    sequences.lazySet(index, pos + mask + 1);
+                    return true;
+                }
+                pos = head.get();
+            } else if (diff < 0) {
+                return false;
+            } else {
+                pos = head.get();
+            }
+        }
+    }
+
+    private void drainLoop() {
+        while (running || head.get() != tail.get()) {
+            int count = 0;
+            while (count < batch.length && tryPoll(batch[count])) {
+                count++;
+            }
+            if (count == 0) {
+                parked = true;
+                if (running && head.get() == tail.get()) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                parked = false;
+                continue;
+            }
+            for (int i = 0; i < count; i++) {
+                write(batch[i]);
+            }
+            consumed.addAndGet(count);
+        }
+    }
+
+    private static void write(LogRecord record) {
+        try {
+            LogUtils.dispatch(record.time, record.priority, record.tag, record.msg, record.callSite, record.stream);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+        record.clear();
+    }
+
+    /**
+     * Write whatever is still queued on the calling thread. Used once the
+     * consumer has stopped; safe to run concurrently with other drainers.
+     */
+    private void drainRemaining() {
+        LogRecord record = new LogRecord();
+        while (tryPoll(record)) {
+            write(record);
+            consumed.incrementAndGet();
+        }
+    }
+
+    /**
+     * Block until every record queued before this call has been written or
+     * dropped.
+     */
+    public void flush() {
+        long target = tail.get();
+        while (consumed.get() < target && consumer.isAlive()) {
+            LockSupport.unpark(consumer);
+            LockSupport.parkNanos(this, FULL_PARK_NANOS);
+        }
+    }
+
+    /**
+     * Stop accepting records, write out whatever is still queued and stop the
+     * background thread.
+     */
+    public void shutdown() {
+        running = false;
+        LockSupport.unpark(consumer);
+        try {
+            consumer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        drainRemaining();
+    }
+
+    /**
+     * Number of queued records discarded by {@link OverflowPolicy#DROP_OLDEST}.
+     */
+    public long getDroppedOldestCount() {
+        return droppedOldest.get();
+    }
+
+    /**
+     * Number of offered records discarded by {@link OverflowPolicy#DROP_NEWEST}.
+     */
+    public long getDroppedNewestCount() {
+        return droppedNewest.get();
+    }
+
+    /**
+     * Total number of records dropped for lack of space.
+     */
+    public long getDroppedCount() {
+        return droppedOldest.get() + droppedNewest.get();
+    }
+
+    /**
+     * Number of records currently waiting in the ring.
+     */
+    public int size() {
+        return (int) Math.max(0, tail.get() - head.get());
+    }
+
+    public OverflowPolicy getPolicy() {
+        return policy;
+    }
+
+}
@@ -0,0 +1,221 @@
+package com.redli.tmvpsimple.util;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+/**
+ * Turns segments written by {@link BinaryLogEncoder} back into text. Pure
+ * Java, so it also runs on a desktop:
+ * <pre>
+ * java com.redli.tmvpsimple.util.BinaryLogDecoder file-or-dir...
+ * </pre>
+ */
+public class BinaryLogDecoder {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String LEVELS = "??VDIWEA";
+
+    private BinaryLogDecoder() {
+        throw new UnsupportedOperationException("cannot be instantiated");
+    }
+
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.err.println("usage: BinaryLogDecoder <segment file or directory>...");
+            System.exit(1);
+        }
+        boolean failed = false;
+        for (String arg : args) {
+            File file = new File(arg);
+            File[] files = file.isDirectory() ? file.listFiles(new FilenameFilter() {
+                @Override
+                public boolean accept(File dir, String name) {
+                    return name.endsWith(MappedFileLogSink.SEGMENT_SUFFIX);
+                }
+            }) : new File[]{file};
+            if (files == null) {
+                System.err.println(arg + ": cannot list directory");
+                failed = true;
+                continue;
+            }
+            Arrays.sort(files);
+            for (File segment : files) {
+                if (!segment.isFile()) {
+                    continue;
+                }
+                try {
+                    if (!decode(segment, System.out)) {
+                        // expected for the segment being written when the process died
+                        System.err.println(segment + ": stopped at a torn or corrupt entry");
+                    }
+                } catch (IOException e) {
+                    System.err.println(segment + ": " + e.getMessage());
+                    failed = true;
+                }
+            }
+        }
+        if (failed) {
+            System.exit(2);
+        }
+    }
+
+    /**
+     * Print every record of one segment file, one line each.
+     *
+     * @return false if decoding stopped at a torn or corrupt entry
+     */
+    public static boolean decode(File file, PrintStream out) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            return decode(raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length()), out);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Print every record of one segment, stopping at the zero fill or at the
+     * first entry whose length or checksum does not match, which is where a
+     * crash cut the segment short.
+     *
+     * @return false if decoding stopped at a torn or corrupt entry
+     */
+    public static boolean decode(ByteBuffer segment, PrintStream out) throws IOException {
+        byte[] magic = new byte[BinaryLogEncoder.MAGIC.length];
+        if (segment.remaining() < BinaryLogEncoder.HEADER_SIZE) {
+            throw new IOException("not a binary log segment");
+        }
+        segment.get(magic);
+        if (!Arrays.equals(magic, BinaryLogEncoder.MAGIC)) {
+            throw new IOException("not a binary log segment");
+        }
+        int version = segment.get() & 0xFF;
+        if (version != BinaryLogEncoder.VERSION) {
+            throw new IOException("unsupported binary log version " + version);
+        }
+        long time = segment.getLong();
+        ArrayList<String> strings = new ArrayList<String>();
+        SimpleDateFormat format = new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.US);
+        Date date = new Date();
+        StringBuilder line = new StringBuilder();
+        CRC32 crc = new CRC32();
+        byte[] entry = new byte[256];
+        while (segment.hasRemaining()) {
+            int entryStart = segment.position();
+            byte type = segment.get();
+            if (type == BinaryLogEncoder.TYPE_END) {
+                // zero fill after the last entry
+                return true;
+            }
+            long length;
+            try {
+                length = getVarint(segment);
+            } catch (BufferUnderflowException e) {
+                return false;
+            } catch (IOException e) {
+                return false;
+            }
+            if ((type != BinaryLogEncoder.TYPE_STRING && type != BinaryLogEncoder.TYPE_RECORD)
+                    || length > segment.remaining() - 4) {
+                return false;
+            }
+            int entryLength = segment.position() - entryStart + (int) length;
+            if (entry.length < entryLength) {
+                entry = new byte[Math.max(entryLength, 2 * entry.length)];
+            }
+            segment.position(entryStart);
+            segment.get(entry, 0, entryLength);
+            crc.reset();
+            crc.update(entry, 0, entryLength);
+            if ((int) crc.getValue() != segment.getInt()) {
+                return false;
+            }
+            // the checksum matched, so anything wrong from here on is a format error
+            ByteBuffer payload = ByteBuffer.wrap(entry, entryLength - (int) length, (int) length);
+            try {
+                if (type == BinaryLogEncoder.TYPE_STRING) {
+                    long id = getVarint(payload);
+                    String value = getUtf8(payload, (int) getVarint(payload));
+                    if (id < 0 || id > strings.size()) {
+                        // ids are assigned in order within a segment
+                        throw new IOException("unexpected string id " + id + " at offset " + entryStart);
+                    }
+                    if (id == strings.size()) {
+                        strings.add(value);
+                    } else {
+                        strings.set((int) id, value);
+                    }
+                } else {
+                    long delta = getVarint(payload);
+                    time += (delta >>> 1) ^ -(delta & 1);
+                    int priority = payload.get();
+                    String tag = string(strings, getVarint(payload), entryStart);
+                    int callSiteId = (int) getVarint(payload);
+                    int msgLength = (int) getVarint(payload);
+                    String msg = msgLength == 0 ? null : getUtf8(payload, msgLength - 1);
+                    date.setTime(time);
+                    line.setLength(0);
+                    line.append(format.format(date)).append(' ')
+                            .append(priority >= 0 && priority < LEVELS.length() ? LEVELS.charAt(priority) : '?')
+                            .append('/').append(tag).append(": ");
+                    if (msg != null) {
+                        line.append(msg);
+                    }
+                    if (callSiteId != 0) {
+                        line.append(msg != null ? "    " : "").append(string(strings, callSiteId - 1, entryStart));
+                    }
+                    out.println(line);
+                }
+            } catch (BufferUnderflowException e) {
+                throw new IOException("entry shorter than its fields at offset " + entryStart);
+            }
+        }
+        return true;
+    }
+
+    private static String string(ArrayList<String> strings, long id, int offset) throws IOException {
+        String value = id >= 0 && id < strings.size() ? strings.get((int) id) : null;
+        if (value == null) {
+            throw new IOException("unknown string id " + id + " at offset " + offset);
+        }
+        return value;
+    }
+
+    private static long getVarint(ByteBuffer buffer) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("malformed varint at offset " + buffer.position());
+    }
+
+    private static String getUtf8(ByteBuffer buffer, int length) throws IOException {
+        if (length < 0) {
+            throw new IOException("negative string length at offset " + buffer.position());
+        }
+        if (length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+}
@@ -0,0 +1,240 @@
+package com.redli.tmvpsimple.util;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Compact binary {@link MappedFileLogSink.Encoder}. Read the files back with
+ * {@link BinaryLogDecoder}.
+ * <p>
+ * Segment layout:
+ * <pre>
+ * header   "ALOG" version:u8 baseTime:i64
+ * entry    type:u8 payloadLength:varint payload crc32:i32 (over type, length and payload)
+ * string   type 0x01, payload id:varint length:varint utf8
+ * record   type 0x02, payload timeDelta:zigzag-varint priority:u8 tagId:varint
+ *               callSiteId+1:varint (0 = none) msgLength+1:varint (0 = null) utf8
+ * end      0x00 (the zero fill of an unused segment tail)
+ * </pre>
+ * Tags and call sites are written once per segment as string entries and
+ * referred to by id afterwards, timestamps are deltas against the previous
+ * record, and the message padding of the text output is not stored at all.
+ * The length and checksum let the decoder stop at an entry torn by a crash
+ * instead of reading the zero fill behind it as records.
+ */
+public class BinaryLogEncoder implements MappedFileLogSink.Encoder {
+
+    static final byte[] MAGIC = {'A', 'L', 'O', 'G'};
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = MAGIC.length + 1 + 8;
+
+    static final byte TYPE_END = 0;
+    static final byte TYPE_STRING = 1;
+    static final byte TYPE_RECORD = 2;
+
+    private final HashMap<String, Integer> ids = new HashMap<String, Integer>();
+    private final ArrayList<String> strings = new ArrayList<String>();
+    private long lastTime;
+    // entries are built here first so the checksum can be taken from a heap array
+    private ByteBuffer scratch = ByteBuffer.allocate(256);
+    private final CRC32 crc = new CRC32();
+
+    @Override
+    public boolean beginSegment(ByteBuffer segment, long timeMillis) {
+        ids.clear();
+        strings.clear();
+        lastTime = timeMillis;
+        if (segment.remaining() < HEADER_SIZE) {
+            return false;
+        }
+        segment.put(MAGIC).put((byte) VERSION).putLong(timeMillis);
+        return true;
+    }
+
+    @Override
+    public boolean encode(ByteBuffer segment, long timeMillis, int priority, String tag, String msg,
+                          String callSite) {
+        int knownStrings = strings.size();
+        String tagValue = tag != null ? tag : "";
+        int msgLength = msg != null ? utf8Length(msg) : -1;
+        if (msgLength > segment.remaining()) {
+            // cannot fit, and keeps an oversize message from growing the scratch buffer
+            return false;
+        }
+        ensureScratch(tagValue.length() + (callSite != null ? callSite.length() : 0)
+                + (msg != null ? msg.length() : 0));
+        scratch.clear();
+        int tagId = idOf(tagValue);
+        int callSiteId = callSite != null ? idOf(callSite) + 1 : 0;
+        long delta = zigzag(timeMillis - lastTime);
+        int entryStart = beginEntry(TYPE_RECORD, recordPayloadSize(delta, tagId, callSiteId, msgLength));
+        putVarint(scratch, delta);
+        scratch.put((byte) priority);
+        putVarint(scratch, tagId);
+        putVarint(scratch, callSiteId);
+        putVarint(scratch, msgLength + 1);
+        if (msg != null) {
+            putUtf8(scratch, msg);
+        }
+        endEntry(entryStart);
+        if (scratch.position() > segment.remaining()) {
+            // forget the strings so the sink can retry in a fresh segment
+            while (strings.size() > knownStrings) {
+                ids.remove(strings.remove(strings.size() - 1));
+            }
+            return false;
+        }
+        segment.put(scratch.array(), 0, scratch.position());
+        lastTime = timeMillis;
+        return true;
+    }
+
+    @Override
+    public boolean fitsEmptySegment(int segmentSize, long timeMillis, int priority, String tag, String msg,
+                                    String callSite) {
+        // a fresh segment starts with no strings and a time delta of zero
+        String tagValue = tag != null ? tag : "";
+        long size = HEADER_SIZE + entrySize(stringPayloadSize(0, utf8Length(tagValue)));
+        int callSiteId = 0;
+        if (callSite != null) {
+            callSiteId = callSite.equals(tagValue) ? 1 : 2;
+            if (callSiteId == 2) {
+                size += entrySize(stringPayloadSize(1, utf8Length(callSite)));
+            }
+        }
+        size += entrySize(recordPayloadSize(zigzag(0), 0, callSiteId, msg != null ? utf8Length(msg) : -1));
+        return size <= segmentSize;
+    }
+
+    private int idOf(String value) {
+        Integer id = ids.get(value);
+        if (id != null) {
+            return id;
+        }
+        int newId = strings.size();
+        ids.put(value, newId);
+        strings.add(value);
+        int length = utf8Length(value);
+        int entryStart = beginEntry(TYPE_STRING, stringPayloadSize(newId, length));
+        putVarint(scratch, newId);
+        putVarint(scratch, length);
+        putUtf8(scratch, value);
+        endEntry(entryStart);
+        return newId;
+    }
+
+    private int beginEntry(byte type, long payloadSize) {
+        int entryStart = scratch.position();
+        scratch.put(type);
+        putVarint(scratch, payloadSize);
+        return entryStart;
+    }
+
+    private void endEntry(int entryStart) {
+        crc.reset();
+        crc.update(scratch.array(), entryStart, scratch.position() - entryStart);
+        scratch.putInt((int) crc.getValue());
+    }
+
+    /**
+     * Grow the scratch buffer to hold the entries of one record: at most two
+     * strings and the message, three UTF-8 bytes per char, and well under 128
+     * bytes of framing and varints.
+     */
+    private void ensureScratch(int chars) {
+        long needed = 3L * chars + 128;
+        if (needed > scratch.capacity()) {
+            scratch = ByteBuffer.allocate((int) Math.min(Integer.MAX_VALUE, Math.max(needed, 2L * scratch.capacity())));
+        }
+    }
+
+    static long entrySize(long payloadSize) {
+        return 1 + varintSize(payloadSize) + payloadSize + 4;
+    }
+
+    static long stringPayloadSize(int id, int utf8Length) {
+        return varintSize(id) + varintSize(utf8Length) + utf8Length;
+    }
+
+    /**
+     * @param msgLength UTF-8 length of the message, -1 for null
+     */
+    static long recordPayloadSize(long zigzagDelta, int tagId, int callSiteId, int msgLength) {
+        return varintSize(zigzagDelta) + 1 + varintSize(tagId) + varintSize(callSiteId)
+                + varintSize(msgLength + 1) + Math.max(msgLength, 0);
+    }
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static int varintSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            size++;
+            value >>>= 7;
+        }
+        return size;
+    }
+
+    static void putVarint(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static int utf8Length(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * UTF-8 straight into the buffer, without an intermediate byte[]. Lone
+     * surrogates become U+FFFD, three bytes, matching {@link #utf8Length(String)}.
+     */
+    static void putUtf8(ByteBuffer buffer, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer.put((byte) (0xF0 | (codePoint >> 18)));
+                buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                buffer.put((byte) 0xEF);
+                buffer.put((byte) 0xBF);
+                buffer.put((byte) 0xBD);
+            } else {
+                buffer.put((byte) (0xE0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+}
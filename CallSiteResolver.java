@@ -0,0 +1,209 @@
+package com.redli.tmvpsimple.util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Finds the code that called {@link LogUtils} and caches the strings derived
+ * from it.
+ * <p>
+ * On runtimes that ship {@code java.lang.StackWalker} (JVM 9+, e.g. host-side
+ * unit tests) the stack is walked lazily and only the frames up to the caller
+ * are materialized. Android has no such API, so there the stack is captured
+ * once per log call instead of once per helper as before. Either way the tag
+ * and the "at Class.method(File:line)" string are built only the first time
+ * a call site is seen.
+ */
+final class CallSiteResolver {
+
+    /**
+     * One resolved call site. Instances are shared between threads.
+     */
+    static final class CallSite {
+        final String tag;
+        final String method;
+
+        CallSite(String tag, String method) {
+            this.tag = tag;
+            this.method = method;
+        }
+    }
+
+    private static final int MAX_CACHED_SITES = 4096;
+
+    private static final ConcurrentHashMap<StackTraceElement, CallSite> sSites =
+            new ConcurrentHashMap<StackTraceElement, CallSite>();
+    private static final ConcurrentHashMap<String, String> sTags =
+            new ConcurrentHashMap<String, String>();
+
+    private static final Walker sWalker = Walker.create();
+
+    private CallSiteResolver() {
+        throw new Error("Do not need instantiate!");
+    }
+
+    /**
+     * @return The first frame outside the logging classes, or a placeholder
+     * when the stack is not available.
+     */
+    static CallSite resolve() {
+        StackTraceElement element = sWalker != null ? sWalker.caller() : null;
+        if (element == null) {
+            element = callerOf(new Throwable().getStackTrace());
+        }
+        if (element == null) {
+            return new CallSite("unknown", "at unknown  ");
+        }
+        CallSite site = sSites.get(element);
+        if (site == null) {
+            if (sSites.size() >= MAX_CACHED_SITES) {
+                evict();
+            }
+            site = new CallSite(internTag(element.getClassName()), "at " + element.getClassName() + "."
+                    + element.getMethodName() + "(" + element.getFileName() + ":"
+                    + element.getLineNumber() + ")  ");
+            CallSite raced = sSites.putIfAbsent(element, site);
+            if (raced != null) {
+                site = raced;
+            }
+        }
+        return site;
+    }
+
+    /**
+     * Make room by dropping an arbitrary eighth of the cache rather than all
+     * of it, so the sites in use are mostly still cached afterwards.
+     */
+    private static void evict() {
+        int count = MAX_CACHED_SITES / 8;
+        for (Iterator<CallSite> it = sSites.values().iterator(); count > 0 && it.hasNext(); count--) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    /**
+     * @return Every frame from the caller down, one per line.
+     */
+    static String hierarchy() {
+        StackTraceElement[] trace = new Throwable().getStackTrace();
+        StringBuilder builder = new StringBuilder();
+        for (int i = indexOfCaller(trace); i >= 0 && i < trace.length; i++) {
+            builder.append("\r\t").append(trace[i].getClassName()).append('.')
+                    .append(trace[i].getMethodName()).append("():")
+                    .append(trace[i].getLineNumber());
+        }
+        return builder.toString();
+    }
+
+    private static String internTag(String className) {
+        String tag = sTags.get(className);
+        if (tag == null) {
+            String raced = sTags.putIfAbsent(className, className);
+            tag = raced != null ? raced : className;
+        }
+        return tag;
+    }
+
+    static boolean isLoggingFrame(String className) {
+        return isClassOrNested(className, LogUtils.class)
+                || isClassOrNested(className, CallSiteResolver.class)
+                || isClassOrNested(className, AsyncLogWriter.class);
+    }
+
+    private static boolean isClassOrNested(String className, Class<?> clazz) {
+        String name = clazz.getName();
+        return className.startsWith(name)
+                && (className.length() == name.length() || className.charAt(name.length()) == '$');
+    }
+
+    private static StackTraceElement callerOf(StackTraceElement[] trace) {
+        int index = indexOfCaller(trace);
+        return index >= 0 ? trace[index] : null;
+    }
+
+    private static int indexOfCaller(StackTraceElement[] trace) {
+        for (int i = 0; i < trace.length; i++) {
+            if (!isLoggingFrame(trace[i].getClassName())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Reflective bridge to {@code StackWalker}, so this class still compiles
+     * and loads against the Android SDK.
+     */
+    private static final class Walker implements InvocationHandler {
+
+        private final Object walker;
+        private final Method walk;
+        private final Method iterator;
+        private final Object function;
+        private final Method getClassName;
+        private final Method toStackTraceElement;
+
+        private Walker(Class<?> walkerClass, Class<?> functionClass, Class<?> frameClass) throws Exception {
+            walker = walkerClass.getMethod("getInstance").invoke(null);
+            walk = walkerClass.getMethod("walk", functionClass);
+            iterator = Class.forName("java.util.stream.BaseStream").getMethod("iterator");
+            getClassName = frameClass.getMethod("getClassName");
+            toStackTraceElement = frameClass.getMethod("toStackTraceElement");
+            function = Proxy.newProxyInstance(CallSiteResolver.class.getClassLoader(),
+                    new Class<?>[]{functionClass}, this);
+        }
+
+        static Walker create() {
+            try {
+                Class<?> walkerClass = Class.forName("java.lang.StackWalker");
+                return new Walker(walkerClass, Class.forName("java.util.function.Function"),
+                        Class.forName("java.lang.StackWalker$StackFrame"));
+            } catch (Throwable e) {
+                return null;
+            }
+        }
+
+        StackTraceElement caller() {
+            try {
+                return (StackTraceElement) walk.invoke(walker, function);
+            } catch (Exception e) {
+                return null;
+            }
+        }
+
+        /**
+         * The {@code Function<Stream<StackFrame>, StackTraceElement>} passed to
+         * {@code walk}: pulls frames lazily and stops at the first caller frame.
+         */
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (!"apply".equals(method.getName())) {
+                if ("equals".equals(method.getName())) {
+                    return proxy == args[0];
+                }
+                if ("hashCode".equals(method.getName())) {
+                    return System.identityHashCode(proxy);
+                }
+                return method.getName();
+            }
+            Iterator<?> frames = (Iterator<?>) iterator.invoke(args[0]);
+            while (frames.hasNext()) {
+                Object frame = frames.next();
+                String className = (String) getClassName.invoke(frame);
+                if (!isLoggingFrame(className) && !className.startsWith("java.lang.reflect.")
+                        && !className.startsWith("jdk.internal.") && !className.startsWith("sun.reflect.")
+                        && !className.startsWith("com.sun.proxy.") && !className.startsWith("jdk.proxy")
+                        && !className.startsWith("java.lang.StackWalker")
+                        && !className.startsWith("java.lang.StackStreamFactory")) {
+                    return toStackTraceElement.invoke(frame);
+                }
+            }
+            return null;
+        }
+    }
+
+}
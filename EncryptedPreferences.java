@@ -0,0 +1,588 @@
+/**
+ * Copyright 2016 smartbetter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.smartbetter.utilslibrary;
+
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Base64;
+
+import net.smartbetter.utilslibrary.encrypt.CipherEngine;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * AES-GCM 加密的 SharedPreferences，包装另一个 SharedPreferences（XML 或 {@link MappedKVStore}）.
+ * <p>
+ * 所有键值解密后保存在内存中，底层只存一个值：
+ * <pre>
+ * iv(12) || AES-GCM(打包后的全部键值) || tag(16)，Base64 编码
+ * </pre>
+ * 一次提交不论修改了多少个键，都只把打包后的记录整体加密一次，配合
+ * {@link SPStore#setCoalesceWindow(long)} 或 {@link SPUtils#batch(android.content.Context)}
+ * 可以把多次修改合并成一次加密。每次加密使用新的随机 IV，文件名作为附加认证数据，
+ * 密文不能被挪到其它文件中使用。Cipher 由 {@link CipherEngine} 按线程缓存。
+ * <p>
+ * commit() 在副本上应用修改，加密并写入成功后才替换内存中的数据，失败时内存不变；
+ * apply() 立即更新内存，打包、加密和写入交给后台线程，连续多次 apply() 只加密最新的一份。
+ * <p>
+ * 代价是每次提交都要重新打包并加密全部键值，耗时与文件总大小成正比，而不是与修改量成正比。
+ * 适合几十 KB 以内、写入不频繁的敏感配置；数据量大或频繁写入的内容应放到不加密的文件中，
+ * 或按用途拆分成多个加密文件。
+ * <p>
+ * 已有密文无法解密时（密钥不对、数据损坏），{@link #isUnreadable()} 返回 true，读取得到空数据，
+ * 并且拒绝一切不含 {@link Editor#clear()} 的提交，避免用空数据覆盖原有密文；确认要丢弃旧数据时
+ * 用 clear() 提交。
+ * <p>
+ * 注意 {@link SPUtils#putImage(android.content.Context, String, android.widget.ImageView)}
+ * 保存的图片文件本身不加密。
+ */
+public class EncryptedPreferences implements SharedPreferences {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final String DATA_KEY = "__encrypted_data";
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_BITS = 128;
+    private static final int FORMAT_VERSION = 1;
+
+    private static final byte TYPE_STRING = 1;
+    private static final byte TYPE_INT = 2;
+    private static final byte TYPE_LONG = 3;
+    private static final byte TYPE_FLOAT = 4;
+    private static final byte TYPE_BOOLEAN = 5;
+    private static final byte TYPE_STRING_SET = 6;
+
+    private static final Object CONTENT = new Object();
+
+    private static final CipherEngine ENGINE = CipherEngine.get(TRANSFORMATION, "AES");
+    private static final SecureRandom sRandom = new SecureRandom();
+    private static final Executor sWriter = createWriter();
+
+    private final SharedPreferences delegate;
+    private final byte[] key;
+    private final byte[] aad;
+    /**
+     * 当前数据，发布之后不再修改，提交时整体替换
+     */
+    private HashMap<String, Object> map = new HashMap<String, Object>();
+    private final WeakHashMap<OnSharedPreferenceChangeListener, Object> listeners =
+            new WeakHashMap<OnSharedPreferenceChangeListener, Object>();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * 已有密文无法解密，在显式 clear() 之前不允许写入
+     */
+    private boolean unreadable;
+
+    /**
+     * 每次替换 map 加一；writtenGeneration 是已交给底层存储的最新一代，后台线程据此跳过
+     * 已被 commit() 写入的更新数据覆盖的旧快照
+     */
+    private long generation;
+    private long writtenGeneration;
+    private boolean writeScheduled;
+
+    private final Runnable writeTask = new Runnable() {
+        @Override
+        public void run() {
+            writeLatest();
+        }
+    };
+
+    /**
+     * @param delegate 实际存储密文的 SharedPreferences
+     * @param key      16/24/32 字节的 AES 密钥
+     * @param name     文件名，作为附加认证数据
+     */
+    public EncryptedPreferences(SharedPreferences delegate, byte[] key, String name) {
+        this.delegate = delegate;
+        this.key = key.clone();
+        this.aad = name.getBytes(UTF_8);
+        load();
+    }
+
+    private void load() {
+        String stored = delegate.getString(DATA_KEY, null);
+        if (stored == null) {
+            return;
+        }
+        try {
+            byte[] sealed = Base64.decode(stored, Base64.NO_WRAP);
+            Cipher cipher = ENGINE.cipher(Cipher.DECRYPT_MODE, key,
+                    new GCMParameterSpec(TAG_BITS, sealed, 0, IV_LENGTH));
+            cipher.updateAAD(aad);
+            byte[] plain = cipher.doFinal(sealed, IV_LENGTH, sealed.length - IV_LENGTH);
+            unpack(plain, map);
+        } catch (GeneralSecurityException e) {
+            // 密钥不对或数据被篡改
+            e.printStackTrace();
+            unreadable = true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            unreadable = true;
+        } catch (IllegalArgumentException e) {
+            e.printStackTrace();
+            unreadable = true;
+        }
+        if (unreadable) {
+            map.clear();
+        }
+    }
+
+    /**
+     * @return 底层已有的密文是否无法解密。为 true 时只有包含 clear() 的提交会被写入
+     */
+    public boolean isUnreadable() {
+        synchronized (this) {
+            return unreadable;
+        }
+    }
+
+    private static Executor createWriter() {
+        ThreadPoolExecutor writer = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "EncryptedPreferences-writer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        writer.allowCoreThreadTimeOut(true);
+        return writer;
+    }
+
+    /**
+     * 把一组键值打包并加密成一个值
+     */
+    private String seal(Map<String, Object> values) throws GeneralSecurityException, IOException {
+        byte[] plain = pack(values);
+        byte[] iv = new byte[IV_LENGTH];
+        sRandom.nextBytes(iv);
+        Cipher cipher = ENGINE.cipher(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, iv));
+        cipher.updateAAD(aad);
+        byte[] sealed = new byte[IV_LENGTH + cipher.getOutputSize(plain.length)];
+        System.arraycopy(iv, 0, sealed, 0, IV_LENGTH);
+        cipher.doFinal(plain, 0, plain.length, sealed, IV_LENGTH);
+        return Base64.encodeToString(sealed, Base64.NO_WRAP);
+    }
+
+    private static byte[] pack(Map<String, Object> values) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + values.size() * 32);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(FORMAT_VERSION);
+        out.writeInt(values.size());
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            writeString(out, entry.getKey());
+            Object value = entry.getValue();
+            if (value instanceof String) {
+                out.writeByte(TYPE_STRING);
+                writeString(out, (String) value);
+            } else if (value instanceof Integer) {
+                out.writeByte(TYPE_INT);
+                out.writeInt((Integer) value);
+            } else if (value instanceof Long) {
+                out.writeByte(TYPE_LONG);
+                out.writeLong((Long) value);
+            } else if (value instanceof Float) {
+                out.writeByte(TYPE_FLOAT);
+                out.writeFloat((Float) value);
+            } else if (value instanceof Boolean) {
+                out.writeByte(TYPE_BOOLEAN);
+                out.writeBoolean((Boolean) value);
+            } else {
+                Set<?> set = (Set<?>) value;
+                out.writeByte(TYPE_STRING_SET);
+                out.writeInt(set.size());
+                for (Object item : set) {
+                    writeString(out, (String) item);
+                }
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void unpack(byte[] plain, Map<String, Object> values) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(plain));
+        int version = in.readByte();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("unsupported version " + version);
+        }
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            String key = readString(in);
+            byte type = in.readByte();
+            switch (type) {
+                case TYPE_STRING:
+                    values.put(key, readString(in));
+                    break;
+                case TYPE_INT:
+                    values.put(key, in.readInt());
+                    break;
+                case TYPE_LONG:
+                    values.put(key, in.readLong());
+                    break;
+                case TYPE_FLOAT:
+                    values.put(key, in.readFloat());
+                    break;
+                case TYPE_BOOLEAN:
+                    values.put(key, in.readBoolean());
+                    break;
+                case TYPE_STRING_SET:
+                    int size = in.readInt();
+                    Set<String> set = new LinkedHashSet<String>();
+                    for (int j = 0; j < size; j++) {
+                        set.add(readString(in));
+                    }
+                    values.put(key, set);
+                    break;
+                default:
+                    throw new IOException("unknown type " + type);
+            }
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    @Override
+    public Map<String, ?> getAll() {
+        synchronized (this) {
+            HashMap<String, Object> all = new HashMap<String, Object>(map);
+            for (Map.Entry<String, Object> entry : all.entrySet()) {
+                if (entry.getValue() instanceof Set) {
+                    entry.setValue(new HashSet<Object>((Set<?>) entry.getValue()));
+                }
+            }
+            return all;
+        }
+    }
+
+    @Override
+    public String getString(String key, String defValue) {
+        synchronized (this) {
+            String value = (String) map.get(key);
+            return value != null ? value : defValue;
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Set<String> getStringSet(String key, Set<String> defValues) {
+        synchronized (this) {
+            Set<String> value = (Set<String>) map.get(key);
+            return value != null ? new HashSet<String>(value) : defValues;
+        }
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        synchronized (this) {
+            Integer value = (Integer) map.get(key);
+            return value != null ? value : defValue;
+        }
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        synchronized (this) {
+            Long value = (Long) map.get(key);
+            return value != null ? value : defValue;
+        }
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        synchronized (this) {
+            Float value = (Float) map.get(key);
+            return value != null ? value : defValue;
+        }
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        synchronized (this) {
+            Boolean value = (Boolean) map.get(key);
+            return value != null ? value : defValue;
+        }
+    }
+
+    @Override
+    public boolean contains(String key) {
+        synchronized (this) {
+            return map.containsKey(key);
+        }
+    }
+
+    @Override
+    public Editor edit() {
+        return new EditorImpl();
+    }
+
+    @Override
+    public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        synchronized (this) {
+            listeners.put(listener, CONTENT);
+        }
+    }
+
+    @Override
+    public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        synchronized (this) {
+            listeners.remove(listener);
+        }
+    }
+
+    /**
+     * 提交一组修改，在副本上应用后整体加密一次写入底层存储
+     *
+     * @param sync true 时在当前线程加密并 commit()，成功后才替换内存；false 时立即替换内存，
+     *             由后台线程加密并 apply()
+     */
+    private boolean commit(boolean clear, Map<String, Object> changes, boolean sync) {
+        final List<String> changedKeys = new ArrayList<String>();
+        final List<OnSharedPreferenceChangeListener> toNotify;
+        synchronized (this) {
+            if (unreadable && !clear) {
+                new IllegalStateException("existing data cannot be decrypted, commit with clear() to discard it")
+                        .printStackTrace();
+                return false;
+            }
+            HashMap<String, Object> next = clear ? new HashMap<String, Object>() : new HashMap<String, Object>(map);
+            for (Map.Entry<String, Object> entry : changes.entrySet()) {
+                String key = entry.getKey();
+                Object value = entry.getValue();
+                if (value == this || value == null) {
+                    if (next.remove(key) == null) {
+                        continue;
+                    }
+                } else {
+                    next.put(key, value);
+                }
+                changedKeys.add(key);
+            }
+            if (!clear && changedKeys.isEmpty()) {
+                return true;
+            }
+            if (sync) {
+                String sealed;
+                try {
+                    sealed = seal(next);
+                } catch (GeneralSecurityException e) {
+                    e.printStackTrace();
+                    return false;
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    return false;
+                }
+                if (!delegate.edit().putString(DATA_KEY, sealed).commit()) {
+                    return false;
+                }
+                map = next;
+                writtenGeneration = ++generation;
+            } else {
+                map = next;
+                generation++;
+                if (!writeScheduled) {
+                    writeScheduled = true;
+                    sWriter.execute(writeTask);
+                }
+            }
+            unreadable = false;
+            toNotify = new ArrayList<OnSharedPreferenceChangeListener>(listeners.keySet());
+        }
+        if (!toNotify.isEmpty() && !changedKeys.isEmpty()) {
+            Runnable notify = new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = changedKeys.size() - 1; i >= 0; i--) {
+                        for (OnSharedPreferenceChangeListener listener : toNotify) {
+                            listener.onSharedPreferenceChanged(EncryptedPreferences.this, changedKeys.get(i));
+                        }
+                    }
+                }
+            };
+            if (Looper.myLooper() == Looper.getMainLooper()) {
+                notify.run();
+            } else {
+                mainHandler.post(notify);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 后台线程：加密最新的快照并交给底层存储。加密在锁外进行，不阻塞读取
+     */
+    private void writeLatest() {
+        HashMap<String, Object> snapshot;
+        long snapshotGeneration;
+        synchronized (this) {
+            writeScheduled = false;
+            if (writtenGeneration >= generation) {
+                return;
+            }
+            snapshot = map;
+            snapshotGeneration = generation;
+        }
+        String sealed;
+        try {
+            sealed = seal(snapshot);
+        } catch (GeneralSecurityException e) {
+            e.printStackTrace();
+            return;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        synchronized (this) {
+            // 期间 commit() 已经写入了更新的数据
+            if (snapshotGeneration <= writtenGeneration) {
+                return;
+            }
+            delegate.edit().putString(DATA_KEY, sealed).apply();
+            writtenGeneration = snapshotGeneration;
+        }
+    }
+
+    private final class EditorImpl implements Editor {
+
+        private final Map<String, Object> changes = new HashMap<String, Object>();
+        private boolean clear;
+
+        @Override
+        public Editor putString(String key, String value) {
+            synchronized (this) {
+                changes.put(key, value);
+                return this;
+            }
+        }
+
+        @Override
+        public Editor putStringSet(String key, Set<String> values) {
+            synchronized (this) {
+                changes.put(key, values == null ? null : new LinkedHashSet<String>(values));
+                return this;
+            }
+        }
+
+        @Override
+        public Editor putInt(String key, int value) {
+            synchronized (this) {
+                changes.put(key, value);
+                return this;
+            }
+        }
+
+        @Override
+        public Editor putLong(String key, long value) {
+            synchronized (this) {
+                changes.put(key, value);
+                return this;
+            }
+        }
+
+        @Override
+        public Editor putFloat(String key, float value) {
+            synchronized (this) {
+                changes.put(key, value);
+                return this;
+            }
+        }
+
+        @Override
+        public Editor putBoolean(String key, boolean value) {
+            synchronized (this) {
+                changes.put(key, value);
+                return this;
+            }
+        }
+
+        @Override
+        public Editor remove(String key) {
+            synchronized (this) {
+                // 以 store 本身作为删除标记
+                changes.put(key, EncryptedPreferences.this);
+                return this;
+            }
+        }
+
+        @Override
+        public Editor clear() {
+            synchronized (this) {
+                clear = true;
+                return this;
+            }
+        }
+
+        @Override
+        public boolean commit() {
+            return submit(true);
+        }
+
+        @Override
+        public void apply() {
+            submit(false);
+        }
+
+        private boolean submit(boolean sync) {
+            boolean clearFirst;
+            Map<String, Object> pending;
+            synchronized (this) {
+                clearFirst = clear;
+                pending = new HashMap<String, Object>(changes);
+                clear = false;
+                changes.clear();
+            }
+            return EncryptedPreferences.this.commit(clearFirst, pending, sync);
+        }
+    }
+
+}
@@ -0,0 +1,177 @@
+package com.redli.tmvpsimple.util;
+
+/**
+ * Fills "{}" placeholders of a {@link LogUtils} message template. Every thread
+ * formats into its own reused StringBuilder, and primitives are appended
+ * without boxing, so the only allocation per message is the final String.
+ * An argument whose toString() logs again gets a fresh builder for that
+ * nested message instead of clobbering the one in use.
+ * <p>
+ * Placeholders without an argument are kept as "{}", arguments without a
+ * placeholder are ignored.
+ */
+final class LogFormatter {
+
+    private static final String PLACEHOLDER = "{}";
+    private static final int MAX_RETAINED_CAPACITY = 4096;
+
+    private static final ThreadLocal<Buffer> sBuffer = new ThreadLocal<Buffer>() {
+        @Override
+        protected Buffer initialValue() {
+            return new Buffer();
+        }
+    };
+
+    private LogFormatter() {
+        throw new Error("Do not need instantiate!");
+    }
+
+    static String format(String format, long arg) {
+        StringBuilder builder = begin();
+        try {
+            int from = next(builder, format, 0);
+            if (from >= 0) {
+                builder.append(arg);
+            }
+            return end(builder, format, from);
+        } finally {
+            release(builder);
+        }
+    }
+
+    static String format(String format, double arg) {
+        StringBuilder builder = begin();
+        try {
+            int from = next(builder, format, 0);
+            if (from >= 0) {
+                builder.append(arg);
+            }
+            return end(builder, format, from);
+        } finally {
+            release(builder);
+        }
+    }
+
+    static String format(String format, boolean arg) {
+        StringBuilder builder = begin();
+        try {
+            int from = next(builder, format, 0);
+            if (from >= 0) {
+                builder.append(arg);
+            }
+            return end(builder, format, from);
+        } finally {
+            release(builder);
+        }
+    }
+
+    static String format(String format, long arg1, long arg2) {
+        StringBuilder builder = begin();
+        try {
+            int from = next(builder, format, 0);
+            if (from >= 0) {
+                builder.append(arg1);
+                from = next(builder, format, from);
+                if (from >= 0) {
+                    builder.append(arg2);
+                }
+            }
+            return end(builder, format, from);
+        } finally {
+            release(builder);
+        }
+    }
+
+    static String format(String format, Object arg1, Object arg2) {
+        StringBuilder builder = begin();
+        try {
+            int from = next(builder, format, 0);
+            if (from >= 0) {
+                builder.append(arg1);
+                from = next(builder, format, from);
+                if (from >= 0) {
+                    builder.append(arg2);
+                }
+            }
+            return end(builder, format, from);
+        } finally {
+            release(builder);
+        }
+    }
+
+    static String format(String format, Object arg1, Object arg2, Object arg3) {
+        StringBuilder builder = begin();
+        try {
+            int from = next(builder, format, 0);
+            if (from >= 0) {
+                builder.append(arg1);
+                from = next(builder, format, from);
+                if (from >= 0) {
+                    builder.append(arg2);
+                    from = next(builder, format, from);
+                    if (from >= 0) {
+                        builder.append(arg3);
+                    }
+                }
+            }
+            return end(builder, format, from);
+        } finally {
+            release(builder);
+        }
+    }
+
+    private static StringBuilder begin() {
+        Buffer buffer = sBuffer.get();
+        if (buffer.inUse) {
+            // formatting an argument logged again on this thread
+            return new StringBuilder(256);
+        }
+        buffer.inUse = true;
+        buffer.builder.setLength(0);
+        return buffer.builder;
+    }
+
+    private static void release(StringBuilder builder) {
+        Buffer buffer = sBuffer.get();
+        if (buffer.builder == builder) {
+            buffer.inUse = false;
+            if (builder.capacity() > MAX_RETAINED_CAPACITY) {
+                buffer.builder = new StringBuilder(256);
+            }
+        }
+    }
+
+    /**
+     * Copy the template up to the next placeholder.
+     *
+     * @return The index just past that placeholder, or -1 when there is none
+     * left, in which case the rest of the template has been copied.
+     */
+    private static int next(StringBuilder builder, String format, int from) {
+        if (format == null) {
+            return -1;
+        }
+        int index = format.indexOf(PLACEHOLDER, from);
+        if (index < 0) {
+            builder.append(format, from, format.length());
+            return -1;
+        }
+        builder.append(format, from, index);
+        return index + PLACEHOLDER.length();
+    }
+
+    private static String end(StringBuilder builder, String format, int from) {
+        if (from >= 0) {
+            builder.append(format, from, format.length());
+        } else if (format == null) {
+            builder.append("format == null");
+        }
+        return builder.toString();
+    }
+
+    private static final class Buffer {
+        StringBuilder builder = new StringBuilder(256);
+        boolean inUse;
+    }
+
+}
@@ -0,0 +1,145 @@
+package com.redli.tmvpsimple.util;
+
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Runtime log levels for {@link LogUtils}, per tag or tag prefix. Since the
+ * tags LogUtils derives are class names, a package name works as a prefix:
+ * {@code LogLevels.setLevel("com.example.net", Log.VERBOSE)}.
+ * <p>
+ * All levels are held in one immutable snapshot that setters replace
+ * copy-on-write, so the logging hot path only reads a volatile field and
+ * never locks. Changes apply to the next log call.
+ */
+public final class LogLevels {
+
+    /**
+     * A level above every priority: nothing is logged.
+     */
+    public static final int SUPPRESS = Log.ASSERT + 1;
+
+    private static final int MAX_CACHED_TAGS = 1024;
+
+    private static final class Snapshot {
+        final int defaultLevel;
+        final int minLevel;
+        final Map<String, Integer> levels;
+        final String[] prefixes;
+        final ConcurrentHashMap<String, Integer> resolved = new ConcurrentHashMap<String, Integer>();
+
+        Snapshot(int defaultLevel, Map<String, Integer> levels) {
+            this.defaultLevel = defaultLevel;
+            this.levels = levels;
+            this.prefixes = levels.keySet().toArray(new String[levels.size()]);
+            // longest prefix first, so the first match is the most specific one
+            Arrays.sort(prefixes, new Comparator<String>() {
+                @Override
+                public int compare(String lhs, String rhs) {
+                    return rhs.length() - lhs.length();
+                }
+            });
+            int min = defaultLevel;
+            for (Integer level : levels.values()) {
+                min = Math.min(min, level);
+            }
+            this.minLevel = min;
+        }
+
+        int levelOf(String tag) {
+            Integer level = resolved.get(tag);
+            if (level == null) {
+                level = defaultLevel;
+                for (String prefix : prefixes) {
+                    if (tag.startsWith(prefix)) {
+                        level = levels.get(prefix);
+                        break;
+                    }
+                }
+                if (resolved.size() >= MAX_CACHED_TAGS) {
+                    resolved.clear();
+                }
+                resolved.put(tag, level);
+            }
+            return level;
+        }
+    }
+
+    private static volatile Snapshot sSnapshot =
+            new Snapshot(LogUtils.DEBUG_LEVEL + 1, new HashMap<String, Integer>());
+
+    private LogLevels() {
+        throw new Error("Do not need instantiate!");
+    }
+
+    /**
+     * Set the lowest priority logged for tags without their own level.
+     *
+     * @param minPriority A {@link Log} priority, or {@link #SUPPRESS}.
+     */
+    public static synchronized void setDefaultLevel(int minPriority) {
+        sSnapshot = new Snapshot(minPriority, sSnapshot.levels);
+    }
+
+    public static int getDefaultLevel() {
+        return sSnapshot.defaultLevel;
+    }
+
+    /**
+     * Set the lowest priority logged for a tag and every tag that starts with it.
+     *
+     * @param tagPrefix   A tag, class name or package name.
+     * @param minPriority A {@link Log} priority, or {@link #SUPPRESS}.
+     */
+    public static synchronized void setLevel(String tagPrefix, int minPriority) {
+        Map<String, Integer> levels = new HashMap<String, Integer>(sSnapshot.levels);
+        levels.put(tagPrefix, minPriority);
+        sSnapshot = new Snapshot(sSnapshot.defaultLevel, levels);
+    }
+
+    /**
+     * Remove a level set with {@link #setLevel(String, int)}.
+     */
+    public static synchronized void clearLevel(String tagPrefix) {
+        Map<String, Integer> levels = new HashMap<String, Integer>(sSnapshot.levels);
+        if (levels.remove(tagPrefix) != null) {
+            sSnapshot = new Snapshot(sSnapshot.defaultLevel, levels);
+        }
+    }
+
+    /**
+     * Drop every per-tag level and restore the default derived from
+     * {@link LogUtils#DEBUG_LEVEL}.
+     */
+    public static synchronized void reset() {
+        sSnapshot = new Snapshot(LogUtils.DEBUG_LEVEL + 1, new HashMap<String, Integer>());
+    }
+
+    /**
+     * @return Whether a message of this priority could be logged for any tag.
+     * Cheap enough to call before the tag is even known.
+     */
+    public static boolean isEnabled(int priority) {
+        return priority >= sSnapshot.minLevel;
+    }
+
+    /**
+     * @return Whether a message of this priority is logged for the given tag.
+     */
+    public static boolean isLoggable(String tag, int priority) {
+        Snapshot snapshot = sSnapshot;
+        if (priority < snapshot.minLevel) {
+            return false;
+        }
+        if (snapshot.prefixes.length == 0 || tag == null) {
+            return priority >= snapshot.defaultLevel;
+        }
+        return priority >= snapshot.levelOf(tag);
+    }
+
+}
@@ -0,0 +1,29 @@
+package com.redli.tmvpsimple.util;
+
+/**
+ * An extra output target for {@link LogUtils}, next to logcat and the
+ * {@link LogUtils#DEBUG_SYSOUT} echo. Register one with
+ * {@link LogUtils#addSink(LogSink)}.
+ * <p>
+ * Sinks are called on the thread that performs the output: the logging
+ * thread in synchronous mode, the {@link AsyncLogWriter} thread otherwise.
+ */
+public interface LogSink {
+
+    /**
+     * Write one log line.
+     *
+     * @param timeMillis When the line was logged, in {@link System#currentTimeMillis()} time.
+     * @param priority   One of the {@link android.util.Log} priorities.
+     * @param tag        The log tag.
+     * @param msg        The message, or null for a bare call-site line.
+     * @param callSite   The "at Class.method(File:line)" string, or null.
+     */
+    void write(long timeMillis, int priority, String tag, String msg, String callSite);
+
+    /**
+     * Push buffered output towards durable storage.
+     */
+    void flush();
+
+}
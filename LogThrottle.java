@@ -0,0 +1,186 @@
+package com.redli.tmvpsimple.util;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rate limiting and sampling for {@link LogUtils}.
+ * <p>
+ * Every call site gets its own token bucket, implemented as a single
+ * "next permit" timestamp that admitted messages advance with one CAS.
+ * Messages logged without a call site (tag lookup switched off for their
+ * level) share one bucket per level instead. Buckets are kept here, keyed
+ * by the call site's string, so they survive eviction from the
+ * {@link CallSiteResolver} cache.
+ * <p>
+ * Sampling keeps one message out of N at random. It needs no call site, so
+ * LogUtils samples before walking the stack and a sampled-out message never
+ * pays for the capture; its count goes to the level's bucket. A suppressed
+ * message costs one atomic increment; the count is logged as a separate line
+ * the next time that site or level gets through.
+ * <p>
+ * Both are off by default.
+ */
+public final class LogThrottle {
+
+    /**
+     * Throttle state for one call site or level. Instances are shared
+     * between threads.
+     */
+    static final class Bucket {
+        final AtomicLong nextPermitNanos = new AtomicLong();
+        final AtomicLong suppressed = new AtomicLong();
+    }
+
+    private static final int MAX_SITE_BUCKETS = 4096;
+
+    private static final Bucket[] sLevelBuckets = new Bucket[8];
+    private static final ConcurrentHashMap<String, Bucket> sSiteBuckets =
+            new ConcurrentHashMap<String, Bucket>();
+    /**
+     * Shared by new call sites once {@link #MAX_SITE_BUCKETS} are busy.
+     */
+    private static final Bucket sOverflowBucket = new Bucket();
+
+    private static volatile long sPermitIntervalNanos;
+    private static volatile long sBurstNanos;
+    private static volatile int sSampleOneIn = 1;
+
+    static {
+        for (int i = 0; i < sLevelBuckets.length; i++) {
+            sLevelBuckets[i] = new Bucket();
+        }
+    }
+
+    private LogThrottle() {
+        throw new Error("Do not need instantiate!");
+    }
+
+    /**
+     * Limit every call site to a sustained rate, allowing short bursts.
+     *
+     * @param messagesPerSecond Sustained rate per call site; 0 or less turns limiting off.
+     * @param burst             Messages a quiet call site may log back to back.
+     */
+    public static synchronized void setRateLimit(double messagesPerSecond, int burst) {
+        if (messagesPerSecond <= 0) {
+            sPermitIntervalNanos = 0;
+            sBurstNanos = 0;
+            sSiteBuckets.clear();
+        } else {
+            long interval = Math.max(1L, (long) (1000000000L / messagesPerSecond));
+            sBurstNanos = interval * Math.max(0, burst - 1);
+            sPermitIntervalNanos = interval;
+        }
+    }
+
+    /**
+     * Keep about one message in {@code oneIn}.
+     *
+     * @param oneIn Sampling divisor; 1 or less keeps every message.
+     */
+    public static void setSampleRate(int oneIn) {
+        sSampleOneIn = Math.max(1, oneIn);
+    }
+
+    /**
+     * @return Whether a message of this priority survives sampling. Counts
+     * it as suppressed at that level when it does not.
+     */
+    static boolean sample(int priority) {
+        int oneIn = sSampleOneIn;
+        if (oneIn > 1 && ThreadLocalRandom.current().nextInt(oneIn) != 0) {
+            levelBucket(priority).suppressed.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return The bucket shared by messages of this priority that have no
+     * call site.
+     */
+    static Bucket levelBucket(int priority) {
+        return sLevelBuckets[priority & 7];
+    }
+
+    /**
+     * @return The bucket of a call site, or null while rate limiting is off.
+     */
+    static Bucket siteBucket(CallSiteResolver.CallSite site) {
+        if (sPermitIntervalNanos == 0) {
+            return null;
+        }
+        Bucket bucket = sSiteBuckets.get(site.method);
+        if (bucket == null) {
+            if (sSiteBuckets.size() >= MAX_SITE_BUCKETS && !evictIdle()) {
+                return sOverflowBucket;
+            }
+            bucket = new Bucket();
+            Bucket raced = sSiteBuckets.putIfAbsent(site.method, bucket);
+            if (raced != null) {
+                bucket = raced;
+            }
+        }
+        return bucket;
+    }
+
+    /**
+     * Drop the buckets whose state no longer matters: no pending count and
+     * a permit that has already come due.
+     *
+     * @return Whether anything was dropped.
+     */
+    private static boolean evictIdle() {
+        long now = System.nanoTime();
+        boolean evicted = false;
+        for (Iterator<Bucket> it = sSiteBuckets.values().iterator(); it.hasNext(); ) {
+            Bucket bucket = it.next();
+            if (bucket.suppressed.get() == 0 && bucket.nextPermitNanos.get() - now <= 0) {
+                it.remove();
+                evicted = true;
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * @return Whether the bucket may log now. Counts the message as
+     * suppressed when it may not.
+     */
+    static boolean allow(Bucket bucket) {
+        long interval = sPermitIntervalNanos;
+        if (interval == 0 || bucket == null) {
+            return true;
+        }
+        long burst = sBurstNanos;
+        long now = System.nanoTime();
+        AtomicLong nextPermit = bucket.nextPermitNanos;
+        for (; ; ) {
+            long permit = nextPermit.get();
+            long base = permit - now > 0 ? permit : now;
+            if (base - now > burst) {
+                bucket.suppressed.incrementAndGet();
+                return false;
+            }
+            if (nextPermit.compareAndSet(permit, base + interval)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return The messages suppressed in this bucket since the last call,
+     * resetting the count.
+     */
+    static long takeSuppressed(Bucket bucket) {
+        if (bucket == null) {
+            return 0;
+        }
+        // plain read first, so unthrottled buckets never write the counter
+        return bucket.suppressed.get() == 0 ? 0 : bucket.suppressed.getAndSet(0);
+    }
+
+}
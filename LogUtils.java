@@ -2,6 +2,8 @@ package com.redli.tmvpsimple.util;
 
 import android.util.Log;
 
+import java.util.concurrent.CopyOnWriteArrayList;
+
 /**
  * Created by redli on 2017/3/31.
  */
@@ -17,25 +19,47 @@ public final class LogUtils {
 
     /**
      * Master switch.To catch error info you need set this value below Log.WARN
+     * <p>
+     * This is only the initial value; change levels at runtime, per tag if
+     * needed, through {@link LogLevels}.
      */
     public static final int DEBUG_LEVEL = 0;
 
     /**
      * 'System.out' switch.When it is true, you can see the 'System.out' log.
      * Otherwise, you cannot.
+     * <p>
+     * This is only the initial value, see {@link #setSysoutEnabled(boolean)}.
      */
     public static final boolean DEBUG_SYSOUT = false;
 
+    static final int STREAM_NONE = 0;
+    static final int STREAM_OUT = 1;
+    static final int STREAM_ERR = 2;
+
+    private static final String CALL_SITE_SEPARATOR = "                    ----    ";
+
+    /**
+     * Tag used when caller lookup is switched off, see {@link #setTagLookupEnabled(int, boolean)}.
+     */
+    public static final String DEFAULT_TAG = "LogUtils";
+
+    private static final CopyOnWriteArrayList<LogSink> sSinks = new CopyOnWriteArrayList<LogSink>();
+
+    private static volatile AsyncLogWriter sAsyncWriter;
+    private static volatile int sTagLookupMask = ~0;
+    private static volatile boolean sSysout = DEBUG_SYSOUT;
+
     /**
      * Send a {@link Log#VERBOSE} log message.
      *
      * @param obj
      */
     public static void v(Object obj) {
-        if (Log.VERBOSE > DEBUG_LEVEL) {
-            String tag = getClassName();
+        String tag = enabledTag(Log.VERBOSE);
+        if (tag != null) {
             String msg = obj != null ? obj.toString() : "obj == null";
-            Log.v(tag, msg);
+            write(Log.VERBOSE, tag, msg, null, STREAM_NONE);
         }
     }
 
@@ -45,10 +69,10 @@ public final class LogUtils {
      * @param obj
      */
     public static void d(Object obj) {
-        if (Log.DEBUG > DEBUG_LEVEL) {
-            String tag = getClassName();
+        String tag = enabledTag(Log.DEBUG);
+        if (tag != null) {
             String msg = obj != null ? obj.toString() : "obj == null";
-            Log.d(tag, msg);
+            write(Log.DEBUG, tag, msg, null, STREAM_NONE);
         }
     }
 
@@ -58,10 +82,10 @@ public final class LogUtils {
      * @param obj
      */
     public static void i(Object obj) {
-        if (Log.INFO > DEBUG_LEVEL) {
-            String tag = getClassName();
+        String tag = enabledTag(Log.INFO);
+        if (tag != null) {
             String msg = obj != null ? obj.toString() : "obj == null";
-            Log.i(tag, msg);
+            write(Log.INFO, tag, msg, null, STREAM_NONE);
         }
     }
 
@@ -71,10 +95,10 @@ public final class LogUtils {
      * @param obj
      */
     public static void w(Object obj) {
-        if (Log.WARN > DEBUG_LEVEL) {
-            String tag = getClassName();
+        String tag = enabledTag(Log.WARN);
+        if (tag != null) {
             String msg = obj != null ? obj.toString() : "obj == null";
-            Log.w(tag, msg);
+            write(Log.WARN, tag, msg, null, STREAM_NONE);
         }
     }
 
@@ -84,10 +108,10 @@ public final class LogUtils {
      * @param obj
      */
     public static void e(Object obj) {
-        if (Log.ERROR > DEBUG_LEVEL) {
-            String tag = getClassName();
+        String tag = enabledTag(Log.ERROR);
+        if (tag != null) {
             String msg = obj != null ? obj.toString() : "obj == null";
-            Log.e(tag, msg);
+            write(Log.ERROR, tag, msg, null, STREAM_NONE);
         }
     }
 
@@ -101,10 +125,11 @@ public final class LogUtils {
      * @param obj
      */
     public static void wtf(Object obj) {
-        if (Log.ASSERT > DEBUG_LEVEL) {
-            String tag = getClassName();
+        String tag = enabledTag(Log.ASSERT);
+        if (tag != null) {
             String msg = obj != null ? obj.toString() : "obj == null";
             Log.wtf(tag, msg);
+            writeToSinks(System.currentTimeMillis(), Log.ASSERT, tag, msg, null);
         }
     }
 
@@ -116,8 +141,8 @@ public final class LogUtils {
      * @param msg The message you would like logged.
      */
     public static void v(String tag, String msg) {
-        if (Log.VERBOSE > DEBUG_LEVEL) {
-            Log.v(tag, msg);
+        if (LogLevels.isLoggable(tag, Log.VERBOSE)) {
+            write(Log.VERBOSE, tag, msg, null, STREAM_NONE);
         }
     }
 
@@ -129,8 +154,8 @@ public final class LogUtils {
      * @param msg The message you would like logged.
      */
     public static void d(String tag, String msg) {
-        if (Log.DEBUG > DEBUG_LEVEL) {
-            Log.d(tag, msg);
+        if (LogLevels.isLoggable(tag, Log.DEBUG)) {
+            write(Log.DEBUG, tag, msg, null, STREAM_NONE);
         }
     }
 
@@ -142,8 +167,8 @@ public final class LogUtils {
      * @param msg The message you would like logged.
      */
     public static void i(String tag, String msg) {
-        if (Log.INFO > DEBUG_LEVEL) {
-            Log.i(tag, msg);
+        if (LogLevels.isLoggable(tag, Log.INFO)) {
+            write(Log.INFO, tag, msg, null, STREAM_NONE);
         }
     }
 
@@ -155,8 +180,8 @@ public final class LogUtils {
      * @param msg The message you would like logged.
      */
     public static void w(String tag, String msg) {
-        if (Log.WARN > DEBUG_LEVEL) {
-            Log.w(tag, msg);
+        if (LogLevels.isLoggable(tag, Log.WARN)) {
+            write(Log.WARN, tag, msg, null, STREAM_NONE);
         }
     }
 
@@ -168,8 +193,8 @@ public final class LogUtils {
      * @param msg The message you would like logged.
      */
     public static void e(String tag, String msg) {
-        if (Log.ERROR > DEBUG_LEVEL) {
-            Log.e(tag, msg);
+        if (LogLevels.isLoggable(tag, Log.ERROR)) {
+            write(Log.ERROR, tag, msg, null, STREAM_NONE);
         }
     }
 
@@ -184,8 +209,354 @@ public final class LogUtils {
      * @param msg The message you would like logged.
      */
     public static void wtf(String tag, String msg) {
-        if (Log.ASSERT > DEBUG_LEVEL) {
+        if (LogLevels.isLoggable(tag, Log.ASSERT)) {
             Log.wtf(tag, msg);
+            writeToSinks(System.currentTimeMillis(), Log.ASSERT, tag, msg, null);
+        }
+    }
+
+    /**
+     * Send a {@link Log#VERBOSE} log message built from a template. Nothing is
+     * formatted unless the level is enabled.
+     * <p>
+     * Each "{}" in the template takes the next argument; missing arguments
+     * leave the placeholder as is, extra arguments are ignored. The overloads
+     * take one to three arguments; primitive ones are appended without boxing,
+     * narrower integer types widen to long and float to double.
+     *
+     * @param format Message with "{}" placeholders.
+     * @param arg Value for the placeholder.
+     */
+    public static void v(String format, long arg) {
+        String tag = enabledTag(Log.VERBOSE);
+        if (tag != null) {
+            write(Log.VERBOSE, tag, LogFormatter.format(format, arg), null, STREAM_NONE);
+        }
+    }
+
+    /**
+     * @see #v(String, long)
+     */
+    public static void v(String format, double arg) {
+        String tag = enabledTag(Log.VERBOSE);
+        if (tag != null) {
+            write(Log.VERBOSE, tag, LogFormatter.format(format, arg), null, STREAM_NONE);
+        }
+    }
+
+    /**
+     * @see #v(String, long)
+     */
+    public static void v(String format, boolean arg) {
+        String tag = enabledTag(Log.VERBOSE);
+        if (tag != null) {
+            write(Log.VERBOSE, tag, LogFormatter.format(format, arg), null, STREAM_NONE);
+        }
+    }
+
+    /**
+     * @see #v(String, long)
+     */
+    public static void v(String format, long arg1, long arg2) {
+        String tag = enabledTag(Log.VERBOSE);
+        if (tag != null) {
+            write(Log.VERBOSE, tag, LogFormatter.format(format, arg1, arg2), null, STREAM_NONE);
+        }
+    }
+
+    /**
+     * @see #v(String, long)
+     */
+    public static void v(String format, Object arg1, Object arg2) {
+        String tag = enabledTag(Log.VERBOSE);
+        if (tag != null) {
+            write(Log.VERBOSE, tag, LogFormatter.format(format, arg1, arg2), null, STREAM_NONE);
+        }
+    }
+
+    /**
+     * @see #v(String, long)
+     */
+    public static void v(String format, Object arg1, Object arg2, Object arg3) {
+        String tag = enabledTag(Log.VERBOSE);
+        if (tag != null) {
+            write(Log.VERBOSE, tag, LogFormatter.format(format, arg1, arg2, arg3), null, STREAM_NONE);
+        }
+    }
+
+    /**
+     * Send a {@link Log#DEBUG} log message built from a template. Nothing is
+     * formatted unless the level is enabled.
+     * <p>
+     * Each "{}" in the template takes the next argument; missing arguments
+     * leave the placeholder as is, extra arguments are ignored. The overloads
+     * take one to three arguments; primitive ones are appended without boxing,
+     * narrower integer types widen to long and float to double.
+     *
+     * @param format Message with "{}" placeholders.
+     * @param arg Value for the placeholder.
+     */
+    public static void d(String format, long arg) {
+        String tag = enabledTag(Log.DEBUG);
+        if (tag != null) {
+            write(Log.DEBUG, tag, LogFormatter.format(format, arg), null, STREAM_NONE);
+        }
+    }
+
+    /**
+     * @see #d(String, long)
+     */
+    public static void d(String format, double arg) {
+        String tag = enabledTag(Log.DEBUG);
+        if (tag != null) {
+            write(Log.DEBUG, tag, LogFormatter.format(format, arg), null, STREAM_NONE);
+        }
+    }
+
+    /**
+     * @see #d(String, long)
+     */
+    public static void d(String format, boolean arg) {
+        String tag = enabledTag(Log.DEBUG);
+        if (tag != null) {
+            write(Log.DEBUG, tag, LogFormatter.format(format, arg), null, STREAM_NONE);
+        }
+    }
+
+    /**
+     * @see #d(String, long)
+     */
+    public static void d(String format, long arg1, long arg2) {
+        String tag = enabledTag(Log.DEBUG);
+        if (tag != null) {
+            write(Log.DEBUG, tag, LogFormatter.format(format, arg1, arg2), null, STREAM_NONE);
+        }
+    }
+
+    /**
+     * @see #d(String, long)
+     */
+    public static void d(String format, Object arg1, Object arg2) {
+        String tag = enabledTag(Log.DEBUG);
+        if (tag != null) {
+            write(Log.DEBUG, tag, LogFormatter.format(format, arg1, arg2), null, STREAM_NONE);
+        }
+    }
+
+    /**
+     * @see #d(String, long)
+     */
+    public static void d(String format, Object arg1, Object arg2, Object arg3) {
+        String tag = enabledTag(Log.DEBUG);
+        if (tag != null) {
+            write(Log.DEBUG, tag, LogFormatter.format(format, arg1, arg2, arg3), null, STREAM_NONE);
+        }
+    }
+
+    /**
+     * Send an {@link Log#INFO} log message built from a template. Nothing is
+     * formatted unless the level is enabled.
+     * <p>
+     * Each "{}" in the template takes the next argument; missing arguments
+     * leave the placeholder as is, extra arguments are ignored. The overloads
+     * take one to three arguments; primitive ones are appended without boxing,
+     * narrower integer types widen to long and float to double.
+     *
+     * @param format Message with "{}" placeholders.
+     * @param arg Value for the placeholder.
+     */
+    public static void i(String format, long arg) {
+        String tag = enabledTag(Log.INFO);
+        if (tag != null) {
+            write(Log.INFO, tag, LogFormatter.format(format, arg), null, STREAM_NONE);
+        }
+    }
+
+    /**
+     * @see #i(String, long)
+     */
+    public static void i(String format, double arg) {
+        String tag = enabledTag(Log.INFO);
+        if (tag != null) {
+            write(Log.INFO, tag, LogFormatter.format(format, arg), null, STREAM_NONE);
+        }
+    }
+
+    /**
+     * @see #i(String, long)
+     */
+    public static void i(String format, boolean arg) {
+        String tag = enabledTag(Log.INFO);
+        if (tag != null) {
+            write(Log.INFO, tag, LogFormatter.format(format, arg), null, STREAM_NONE);
+        }
+    }
+
+    /**
+     * @see #i(String, long)
+     */
+    public static void i(String format, long arg1, long arg2) {
+        String tag = enabledTag(Log.INFO);
+        if (tag != null) {
+            write(Log.INFO, tag, LogFormatter.format(format, arg1, arg2), null, STREAM_NONE);
+        }
+    }
+
+    /**
+     * @see #i(String, long)
+     */
+    public static void i(String format, Object arg1, Object arg2) {
+        String tag = enabledTag(Log.INFO);
+        if (tag != null) {
+            write(Log.INFO, tag, LogFormatter.format(format, arg1, arg2), null, STREAM_NONE);
+        }
+    }
+
+    /**
+     * @see #i(String, long)
+     */
+    public static void i(String format, Object arg1, Object arg2, Object arg3) {
+        String tag = enabledTag(Log.INFO);
+        if (tag != null) {
+            write(Log.INFO, tag, LogFormatter.format(format, arg1, arg2, arg3), null, STREAM_NONE);
+        }
+    }
+
+    /**
+     * Send a {@link Log#WARN} log message built from a template. Nothing is
+     * formatted unless the level is enabled.
+     * <p>
+     * Each "{}" in the template takes the next argument; missing arguments
+     * leave the placeholder as is, extra arguments are ignored. The overloads
+     * take one to three arguments; primitive ones are appended without boxing,
+     * narrower integer types widen to long and float to double.
+     *
+     * @param format Message with "{}" placeholders.
+     * @param arg Value for the placeholder.
+     */
+    public static void w(String format, long arg) {
+        String tag = enabledTag(Log.WARN);
+        if (tag != null) {
+            write(Log.WARN, tag, LogFormatter.format(format, arg), null, STREAM_NONE);
+        }
+    }
+
+    /**
+     * @see #w(String, long)
+     */
+    public static void w(String format, double arg) {
+        String tag = enabledTag(Log.WARN);
+        if (tag != null) {
+            write(Log.WARN, tag, LogFormatter.format(format, arg), null, STREAM_NONE);
+        }
+    }
+
+    /**
+     * @see #w(String, long)
+     */
+    public static void w(String format, boolean arg) {
+        String tag = enabledTag(Log.WARN);
+        if (tag != null) {
+            write(Log.WARN, tag, LogFormatter.format(format, arg), null, STREAM_NONE);
+        }
+    }
+
+    /**
+     * @see #w(String, long)
+     */
+    public static void w(String format, long arg1, long arg2) {
+        String tag = enabledTag(Log.WARN);
+        if (tag != null) {
+            write(Log.WARN, tag, LogFormatter.format(format, arg1, arg2), null, STREAM_NONE);
+        }
+    }
+
+    /**
+     * @see #w(String, long)
+     */
+    public static void w(String format, Object arg1, Object arg2) {
+        String tag = enabledTag(Log.WARN);
+        if (tag != null) {
+            write(Log.WARN, tag, LogFormatter.format(format, arg1, arg2), null, STREAM_NONE);
+        }
+    }
+
+    /**
+     * @see #w(String, long)
+     */
+    public static void w(String format, Object arg1, Object arg2, Object arg3) {
+        String tag = enabledTag(Log.WARN);
+        if (tag != null) {
+            write(Log.WARN, tag, LogFormatter.format(format, arg1, arg2, arg3), null, STREAM_NONE);
+        }
+    }
+
+    /**
+     * Send an {@link Log#ERROR} log message built from a template. Nothing is
+     * formatted unless the level is enabled.
+     * <p>
+     * Each "{}" in the template takes the next argument; missing arguments
+     * leave the placeholder as is, extra arguments are ignored. The overloads
+     * take one to three arguments; primitive ones are appended without boxing,
+     * narrower integer types widen to long and float to double.
+     *
+     * @param format Message with "{}" placeholders.
+     * @param arg Value for the placeholder.
+     */
+    public static void e(String format, long arg) {
+        String tag = enabledTag(Log.ERROR);
+        if (tag != null) {
+            write(Log.ERROR, tag, LogFormatter.format(format, arg), null, STREAM_NONE);
+        }
+    }
+
+    /**
+     * @see #e(String, long)
+     */
+    public static void e(String format, double arg) {
+        String tag = enabledTag(Log.ERROR);
+        if (tag != null) {
+            write(Log.ERROR, tag, LogFormatter.format(format, arg), null, STREAM_NONE);
+        }
+    }
+
+    /**
+     * @see #e(String, long)
+     */
+    public static void e(String format, boolean arg) {
+        String tag = enabledTag(Log.ERROR);
+        if (tag != null) {
+            write(Log.ERROR, tag, LogFormatter.format(format, arg), null, STREAM_NONE);
+        }
+    }
+
+    /**
+     * @see #e(String, long)
+     */
+    public static void e(String format, long arg1, long arg2) {
+        String tag = enabledTag(Log.ERROR);
+        if (tag != null) {
+            write(Log.ERROR, tag, LogFormatter.format(format, arg1, arg2), null, STREAM_NONE);
+        }
+    }
+
+    /**
+     * @see #e(String, long)
+     */
+    public static void e(String format, Object arg1, Object arg2) {
+        String tag = enabledTag(Log.ERROR);
+        if (tag != null) {
+            write(Log.ERROR, tag, LogFormatter.format(format, arg1, arg2), null, STREAM_NONE);
+        }
+    }
+
+    /**
+     * @see #e(String, long)
+     */
+    public static void e(String format, Object arg1, Object arg2, Object arg3) {
+        String tag = enabledTag(Log.ERROR);
+        if (tag != null) {
+            write(Log.ERROR, tag, LogFormatter.format(format, arg1, arg2, arg3), null, STREAM_NONE);
         }
     }
 
@@ -194,13 +565,11 @@ public final class LogUtils {
      * position in black.
      */
     public static void print() {
-        if (Log.VERBOSE > DEBUG_LEVEL) {
-            String tag = getClassName();
-            String method = callMethodAndLine();
-            Log.v(tag, method);
-            if (DEBUG_SYSOUT) {
-                System.out.println(tag + "  " + method);
-            }
+        CallSiteResolver.CallSite site = enabledCallSite(Log.VERBOSE);
+        if (site != null) {
+            String tag = site.tag;
+            String method = site.method;
+            write(Log.VERBOSE, tag, null, method, sSysout ? STREAM_OUT : STREAM_NONE);
         }
     }
 
@@ -210,20 +579,12 @@ public final class LogUtils {
      * @param object The object to print.
      */
     public static void print(Object object) {
-        if (Log.DEBUG > DEBUG_LEVEL) {
-            String tag = getClassName();
-            String method = callMethodAndLine();
-            String content = "";
-            if (object != null) {
-                content = object.toString() + "                    ----    "
-                        + method;
-            } else {
-                content = " ## " + "                ----    " + method;
-            }
-            Log.d(tag, content);
-            if (DEBUG_SYSOUT) {
-                System.out.println(tag + "  " + content + "  " + method);
-            }
+        CallSiteResolver.CallSite site = enabledCallSite(Log.DEBUG);
+        if (site != null) {
+            String tag = site.tag;
+            String method = site.method;
+            String content = object != null ? object.toString() : " ## ";
+            write(Log.DEBUG, tag, content, method, sSysout ? STREAM_OUT : STREAM_NONE);
         }
     }
 
@@ -233,20 +594,12 @@ public final class LogUtils {
      * @param object The object to print.
      */
     public static void printError(Object object) {
-        if (Log.ERROR > DEBUG_LEVEL) {
-            String tag = getClassName();
-            String method = callMethodAndLine();
-            String content = "";
-            if (object != null) {
-                content = object.toString() + "                    ----    "
-                        + method;
-            } else {
-                content = " ## " + "                    ----    " + method;
-            }
-            Log.e(tag, content);
-            if (DEBUG_SYSOUT) {
-                System.err.println(tag + "  " + method + "  " + content);
-            }
+        CallSiteResolver.CallSite site = enabledCallSite(Log.ERROR);
+        if (site != null) {
+            String tag = site.tag;
+            String method = site.method;
+            String content = object != null ? object.toString() : " ## ";
+            write(Log.ERROR, tag, content, method, sSysout ? STREAM_ERR : STREAM_NONE);
         }
     }
 
@@ -256,14 +609,12 @@ public final class LogUtils {
      * @return
      */
     public static void printCallHierarchy() {
-        if (Log.VERBOSE > DEBUG_LEVEL) {
-            String tag = getClassName();
-            String method = callMethodAndLine();
-            String hierarchy = getCallHierarchy();
-            Log.v(tag, method + hierarchy);
-            if (DEBUG_SYSOUT) {
-                System.out.println(tag + "  " + method + hierarchy);
-            }
+        CallSiteResolver.CallSite site = enabledCallSite(Log.VERBOSE);
+        if (site != null) {
+            String tag = site.tag;
+            String method = site.method;
+            String hierarchy = CallSiteResolver.hierarchy();
+            write(Log.VERBOSE, tag, method + hierarchy, null, sSysout ? STREAM_OUT : STREAM_NONE);
         }
     }
 
@@ -273,54 +624,197 @@ public final class LogUtils {
      * @param object The object to print.
      */
     public static void printMyLog(Object object) {
-        if (Log.DEBUG > DEBUG_LEVEL) {
-            String tag = "MYLOG";
-            String method = callMethodAndLine();
-            String content = "";
-            if (object != null) {
-                content = object.toString() + "                    ----    "
-                        + method;
-            } else {
-                content = " ## " + "                ----    " + method;
+        String tag = "MYLOG";
+        // sampled-out messages are counted in the level's suppressed count
+        if (LogLevels.isLoggable(tag, Log.DEBUG) && LogThrottle.sample(Log.DEBUG)) {
+            CallSiteResolver.CallSite site = CallSiteResolver.resolve();
+            if (admit(Log.DEBUG, tag, site)) {
+                String content = object != null ? object.toString() : " ## ";
+                write(Log.DEBUG, tag, content, site.method, sSysout ? STREAM_OUT : STREAM_NONE);
             }
-            Log.d(tag, content);
-            if (DEBUG_SYSOUT) {
-                System.out.println(tag + "  " + content + "  " + method);
+        }
+    }
+
+    /**
+     * Route log lines through an {@link AsyncLogWriter}, or write them on the
+     * calling thread again when {@code writer} is null. The previous writer,
+     * if any, is flushed and shut down.
+     *
+     * @param writer The writer to use, or null for synchronous output.
+     */
+    public static void setAsyncWriter(AsyncLogWriter writer) {
+        AsyncLogWriter previous = sAsyncWriter;
+        sAsyncWriter = writer;
+        if (previous != null && previous != writer) {
+            previous.shutdown();
+        }
+    }
+
+    /**
+     * @return The current asynchronous writer, or null when logging is synchronous.
+     */
+    public static AsyncLogWriter getAsyncWriter() {
+        return sAsyncWriter;
+    }
+
+    private static void write(int priority, String tag, String msg, String callSite, int stream) {
+        long time = System.currentTimeMillis();
+        AsyncLogWriter writer = sAsyncWriter;
+        if (writer != null && writer.offer(time, priority, tag, msg, callSite, stream)) {
+            return;
+        }
+        dispatch(time, priority, tag, msg, callSite, stream);
+    }
+
+    /**
+     * Format and output one log line. Runs on the caller's thread in
+     * synchronous mode and on the writer thread in asynchronous mode, so the
+     * string concatenation below never touches the UI thread when async.
+     */
+    static void dispatch(long time, int priority, String tag, String msg, String callSite, int stream) {
+        String content;
+        if (callSite == null) {
+            content = msg;
+        } else if (msg == null) {
+            content = callSite;
+        } else {
+            content = msg + CALL_SITE_SEPARATOR + callSite;
+        }
+        Log.println(priority, tag, content);
+        if (stream == STREAM_OUT) {
+            System.out.println(tag + "  " + content);
+        } else if (stream == STREAM_ERR) {
+            System.err.println(tag + "  " + content);
+        }
+        writeToSinks(time, priority, tag, msg, callSite);
+    }
+
+    private static void writeToSinks(long time, int priority, String tag, String msg, String callSite) {
+        for (LogSink sink : sSinks) {
+            try {
+                sink.write(time, priority, tag, msg, callSite);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
             }
         }
     }
 
-    private static String getCallHierarchy() {
-        String result = "";
-        StackTraceElement[] trace = (new Exception()).getStackTrace();
-        for (int i = 2; i < trace.length; i++) {
-            result += "\r\t" + trace[i].getClassName() + "."
-                    + trace[i].getMethodName() + "():"
-                    + trace[i].getLineNumber();
+    /**
+     * Add an output target that receives every line written to logcat.
+     *
+     * @param sink The sink to add.
+     */
+    public static void addSink(LogSink sink) {
+        if (sink != null) {
+            sSinks.addIfAbsent(sink);
+        }
+    }
+
+    /**
+     * Stop sending lines to a sink added with {@link #addSink(LogSink)}. The
+     * sink is flushed first when asynchronous output is enabled.
+     *
+     * @param sink The sink to remove.
+     */
+    public static void removeSink(LogSink sink) {
+        AsyncLogWriter writer = sAsyncWriter;
+        if (writer != null) {
+            writer.flush();
+        }
+        if (sSinks.remove(sink)) {
+            sink.flush();
+        }
+    }
+
+    /**
+     * Wait for queued lines to be written and flush every sink.
+     */
+    public static void flush() {
+        AsyncLogWriter writer = sAsyncWriter;
+        if (writer != null) {
+            writer.flush();
+        }
+        for (LogSink sink : sSinks) {
+            sink.flush();
         }
-        return result;
     }
 
-    private static String getClassName() {
-        String result = "";
-        StackTraceElement thisMethodStack = (new Exception()).getStackTrace()[2];
-        result = thisMethodStack.getClassName();
-        return result;
+    /**
+     * Turn the 'System.out' echo of the print methods on or off at runtime.
+     *
+     * @param enabled Whether to echo to System.out / System.err.
+     */
+    public static void setSysoutEnabled(boolean enabled) {
+        sSysout = enabled;
     }
 
     /**
-     * Realization of double click jump events.
+     * Choose whether the {@code v/d/i/w/e/wtf(Object)} methods look up the
+     * calling class for their tag at the given priority. Looking it up means
+     * walking the stack; when switched off those messages are tagged
+     * {@link #DEFAULT_TAG} instead.
      *
-     * @return
+     * @param priority One of {@link Log#VERBOSE} .. {@link Log#ASSERT}.
+     * @param enabled  Whether to resolve the caller's class name.
      */
-    private static String callMethodAndLine() {
-        String result = "at ";
-        StackTraceElement thisMethodStack = (new Exception()).getStackTrace()[2];
-        result += thisMethodStack.getClassName() + ".";
-        result += thisMethodStack.getMethodName();
-        result += "(" + thisMethodStack.getFileName();
-        result += ":" + thisMethodStack.getLineNumber() + ")  ";
-        return result;
+    public static void setTagLookupEnabled(int priority, boolean enabled) {
+        synchronized (LogUtils.class) {
+            if (enabled) {
+                sTagLookupMask |= 1 << priority;
+            } else {
+                sTagLookupMask &= ~(1 << priority);
+            }
+        }
+    }
+
+    /**
+     * @return The tag for a message of this priority, or null when the
+     * level is disabled for it.
+     */
+    private static String enabledTag(int priority) {
+        if (!LogLevels.isEnabled(priority)) {
+            return null;
+        }
+        if ((sTagLookupMask & (1 << priority)) == 0) {
+            return LogLevels.isLoggable(DEFAULT_TAG, priority) && LogThrottle.sample(priority)
+                    && admit(priority, DEFAULT_TAG, null) ? DEFAULT_TAG : null;
+        }
+        if (!LogThrottle.sample(priority)) {
+            return null;
+        }
+        CallSiteResolver.CallSite site = CallSiteResolver.resolve();
+        return LogLevels.isLoggable(site.tag, priority) && admit(priority, site.tag, site) ? site.tag : null;
+    }
+
+    private static CallSiteResolver.CallSite enabledCallSite(int priority) {
+        if (!LogLevels.isEnabled(priority) || !LogThrottle.sample(priority)) {
+            return null;
+        }
+        CallSiteResolver.CallSite site = CallSiteResolver.resolve();
+        return LogLevels.isLoggable(site.tag, priority) && admit(priority, site.tag, site) ? site : null;
+    }
+
+    /**
+     * Apply the {@link LogThrottle} rate limit to a call site, or to the
+     * level when there is none, first reporting how many messages were
+     * suppressed since it last got through. Sampling has already been
+     * applied by then.
+     */
+    private static boolean admit(int priority, String tag, CallSiteResolver.CallSite site) {
+        LogThrottle.Bucket level = LogThrottle.levelBucket(priority);
+        LogThrottle.Bucket bucket = site != null ? LogThrottle.siteBucket(site) : level;
+        if (!LogThrottle.allow(bucket)) {
+            return false;
+        }
+        long suppressed = LogThrottle.takeSuppressed(bucket);
+        if (bucket != level) {
+            suppressed += LogThrottle.takeSuppressed(level);
+        }
+        if (suppressed > 0) {
+            write(priority, tag, suppressed + " messages suppressed", site != null ? site.method : null,
+                    STREAM_NONE);
+        }
+        return true;
     }
 
 }
@@ -0,0 +1,263 @@
+package com.redli.tmvpsimple.util;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * A {@link LogSink} that appends records to fixed-size, memory-mapped segment
+ * files in one directory.
+ * <p>
+ * Each record is copied straight into the mapped pages, which belong to the
+ * kernel page cache: they reach the disk even if the process crashes right
+ * after the write, so there is no fsync per line. {@link #flush()} forces the
+ * current segment for the rarer power-loss case. Segments are zero-filled when
+ * created and records never contain a zero byte at their start, so a reader
+ * stops at the first zero.
+ * <p>
+ * A new segment is started when the current one is full or older than the
+ * configured age; the oldest segments are deleted once the directory holds
+ * more than the configured number of bytes. A record too large for even an
+ * empty segment is dropped without rotating, so it cannot push out a partly
+ * filled segment.
+ * <p>
+ * Neither Android nor Java 7 can unmap a buffer explicitly. The sink drops its
+ * reference to a segment as soon as it rotates, and the mapping is released
+ * when the garbage collector reclaims that buffer; until then a rotated
+ * segment still takes address space, but no heap and no file descriptor.
+ */
+public class MappedFileLogSink implements LogSink {
+
+    /**
+     * Turns log lines into bytes inside a segment.
+     */
+    public interface Encoder {
+
+        /**
+         * Called once for every new, empty segment before any record is written.
+         *
+         * @return false when the segment is too small for the encoder's header.
+         */
+        boolean beginSegment(ByteBuffer segment, long timeMillis);
+
+        /**
+         * Append one record at the buffer's position.
+         *
+         * @return false, with the position unchanged, when the record does not fit.
+         */
+        boolean encode(ByteBuffer segment, long timeMillis, int priority, String tag, String msg, String callSite);
+
+        /**
+         * @return Whether the record fits in a new segment of this size,
+         * header included. Only asked after {@link #encode} failed, to decide
+         * whether rotating can help.
+         */
+        boolean fitsEmptySegment(int segmentSize, long timeMillis, int priority, String tag, String msg,
+                                 String callSite);
+    }
+
+    public static final String SEGMENT_SUFFIX = ".seg";
+
+    private final File dir;
+    private final int segmentSize;
+    private final long maxAgeMillis;
+    private final long maxTotalBytes;
+    private final Encoder encoder;
+
+    private MappedByteBuffer segment;
+    private long segmentCreated;
+    private long droppedRecords;
+
+    /**
+     * @param dir           Directory that holds the segment files, created if needed.
+     * @param segmentSize   Size of one segment file in bytes.
+     * @param maxAgeMillis  Start a new segment once the current one is this old; 0 for no limit.
+     * @param maxTotalBytes Delete the oldest segments once the directory holds more than this.
+     */
+    public MappedFileLogSink(File dir, int segmentSize, long maxAgeMillis, long maxTotalBytes) {
+        this(dir, segmentSize, maxAgeMillis, maxTotalBytes, new TextEncoder());
+    }
+
+    public MappedFileLogSink(File dir, int segmentSize, long maxAgeMillis, long maxTotalBytes, Encoder encoder) {
+        if (segmentSize <= 0 || maxTotalBytes < segmentSize || encoder == null) {
+            throw new IllegalArgumentException("segmentSize > 0, maxTotalBytes >= segmentSize and encoder are required");
+        }
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.maxAgeMillis = maxAgeMillis;
+        this.maxTotalBytes = maxTotalBytes;
+        this.encoder = encoder;
+    }
+
+    @Override
+    public synchronized void write(long timeMillis, int priority, String tag, String msg, String callSite) {
+        try {
+            if (segment == null || (maxAgeMillis > 0 && timeMillis - segmentCreated >= maxAgeMillis)) {
+                rotate(timeMillis);
+            }
+            if (!encoder.encode(segment, timeMillis, priority, tag, msg, callSite)) {
+                // keep the current segment when a fresh one would not help either
+                if (!encoder.fitsEmptySegment(segmentSize, timeMillis, priority, tag, msg, callSite)) {
+                    droppedRecords++;
+                    return;
+                }
+                rotate(timeMillis);
+                if (!encoder.encode(segment, timeMillis, priority, tag, msg, callSite)) {
+                    droppedRecords++;
+                }
+            }
+        } catch (IOException e) {
+            segment = null;
+            droppedRecords++;
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public synchronized void flush() {
+        if (segment != null) {
+            segment.force();
+        }
+    }
+
+    /**
+     * @return Records that were lost because they did not fit in an empty
+     * segment or the segment file could not be created.
+     */
+    public synchronized long getDroppedRecords() {
+        return droppedRecords;
+    }
+
+    /**
+     * @return The segment files, oldest first.
+     */
+    public File[] listSegments() {
+        File[] files = dir.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile() && file.getName().endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                return lhs.getName().compareTo(rhs.getName());
+            }
+        });
+        return files;
+    }
+
+    private void rotate(long timeMillis) throws IOException {
+        if (segment != null) {
+            segment.force();
+            // unmapped once collected; there is no portable way to unmap it now
+            segment = null;
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("cannot create " + dir);
+        }
+        File file = newSegmentFile(timeMillis);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(segmentSize);
+            // the mapping stays valid after the channel is closed
+            segment = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        } finally {
+            raf.close();
+        }
+        segmentCreated = timeMillis;
+        if (!encoder.beginSegment(segment, timeMillis)) {
+            segment = null;
+            throw new IOException("segment too small for header: " + segmentSize);
+        }
+        trim(file);
+    }
+
+    private File newSegmentFile(long timeMillis) {
+        // fixed-width names sort in creation order
+        long stamp = timeMillis;
+        File file;
+        do {
+            file = new File(dir, String.format(Locale.US, "%015d", stamp++) + SEGMENT_SUFFIX);
+        } while (file.exists());
+        return file;
+    }
+
+    private void trim(File current) {
+        File[] files = listSegments();
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        for (int i = 0; i < files.length && total > maxTotalBytes; i++) {
+            if (!files[i].equals(current)) {
+                long length = files[i].length();
+                if (files[i].delete()) {
+                    total -= length;
+                }
+            }
+        }
+    }
+
+    /**
+     * One UTF-8 text line per record, in logcat's "time level/tag: message" layout.
+     */
+    public static class TextEncoder implements Encoder {
+
+        private static final Charset UTF_8 = Charset.forName("UTF-8");
+        private static final String LEVELS = "??VDIWEA";
+
+        private final SimpleDateFormat format = new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.US);
+        private final Date date = new Date();
+
+        @Override
+        public boolean beginSegment(ByteBuffer segment, long timeMillis) {
+            return true;
+        }
+
+        @Override
+        public boolean encode(ByteBuffer segment, long timeMillis, int priority, String tag, String msg,
+                              String callSite) {
+            byte[] bytes = line(timeMillis, priority, tag, msg, callSite);
+            if (bytes.length > segment.remaining()) {
+                return false;
+            }
+            segment.put(bytes);
+            return true;
+        }
+
+        @Override
+        public boolean fitsEmptySegment(int segmentSize, long timeMillis, int priority, String tag, String msg,
+                                        String callSite) {
+            return line(timeMillis, priority, tag, msg, callSite).length <= segmentSize;
+        }
+
+        private byte[] line(long timeMillis, int priority, String tag, String msg, String callSite) {
+            date.setTime(timeMillis);
+            StringBuilder builder = new StringBuilder(format.format(date)).append(' ')
+                    .append(priority >= 0 && priority < LEVELS.length() ? LEVELS.charAt(priority) : '?')
+                    .append('/').append(tag).append(": ");
+            if (msg != null) {
+                builder.append(msg);
+            }
+            if (callSite != null) {
+                builder.append(msg != null ? "    " : "").append(callSite);
+            }
+            return builder.append('\n').toString().replace('\0', ' ').getBytes(UTF_8);
+        }
+    }
+
+}
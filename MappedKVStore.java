@@ -0,0 +1,804 @@
+/**
+ * Copyright 2016 smartbetter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.smartbetter.utilslibrary;
+
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * 基于 mmap 的键值存储，实现 SharedPreferences 接口，可替代 XML 实现.
+ * <p>
+ * 文件是只追加的日志，每次提交追加一条批量记录：
+ * <pre>
+ * 记录  type:u8 bodyLength:varint body crc32:u32
+ * 批量  (op:u8 [key:varint长度+utf8 [valueType:u8 value]])*
+ * </pre>
+ * 数值使用类似 protobuf 的 zigzag varint 编码。一次提交只有一个 CRC，
+ * 崩溃时要么整体生效要么整体丢弃，不会只重放一部分。写入只是一次内存拷贝到映射页，
+ * 进程崩溃后数据仍由内核写回磁盘，不需要每次 fsync；加载时逐条校验 CRC，
+ * 遇到写了一半的记录即停止。日志超过阈值且大部分已失效时重写为只含当前值的新文件。
+ * <p>
+ * commit() 写入成功后才更新内存；apply() 立即更新内存，写入（可能包括扩容和重写）
+ * 交给后台线程按提交顺序完成。
+ * <p>
+ * 不支持多进程访问。
+ */
+public class MappedKVStore implements SharedPreferences {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final byte[] MAGIC = {'M', 'K', 'V', '1'};
+    private static final int PAGE_SIZE = 4096;
+    private static final int COMPACT_THRESHOLD = 64 * 1024;
+
+    private static final byte OP_PUT = 1;
+    private static final byte OP_REMOVE = 2;
+    private static final byte OP_CLEAR = 3;
+    private static final byte OP_BATCH = 4;
+
+    private static final byte TYPE_STRING = 1;
+    private static final byte TYPE_INT = 2;
+    private static final byte TYPE_LONG = 3;
+    private static final byte TYPE_FLOAT = 4;
+    private static final byte TYPE_BOOLEAN = 5;
+    private static final byte TYPE_STRING_SET = 6;
+
+    private static final Object CONTENT = new Object();
+    private static final HashMap<String, MappedKVStore> sStores = new HashMap<String, MappedKVStore>();
+    private static final Executor sWriter = createWriter();
+
+    private final File file;
+    private final HashMap<String, Object> map = new HashMap<String, Object>();
+    private final WeakHashMap<OnSharedPreferenceChangeListener, Object> listeners =
+            new WeakHashMap<OnSharedPreferenceChangeListener, Object>();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Record record = new Record();
+    // apply() 已更新内存但尚未写入文件的记录
+    private final Record pending = new Record();
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (MappedKVStore.this) {
+                flushScheduled = false;
+                try {
+                    flushPending();
+                } catch (IOException e) {
+                    // 保留待写记录，下一次提交时重试
+                    e.printStackTrace();
+                }
+            }
+        }
+    };
+
+    private MappedByteBuffer buffer;
+    private int end;
+    private int records;
+    private int pendingCount;
+    private boolean flushScheduled;
+
+    private MappedKVStore(File file) throws IOException {
+        this.file = file;
+        load();
+    }
+
+    /**
+     * 打开（或创建）一个存储，同一文件只会打开一次
+     *
+     * @param dir  存放目录
+     * @param name 存储名，对应 dir 下的 name.kv
+     * @return
+     * @throws IOException 文件无法创建或映射时
+     */
+    public static MappedKVStore open(File dir, String name) throws IOException {
+        File file = new File(dir, name + ".kv");
+        String path = file.getAbsolutePath();
+        synchronized (sStores) {
+            MappedKVStore store = sStores.get(path);
+            if (store == null) {
+                if (!dir.isDirectory() && !dir.mkdirs()) {
+                    throw new IOException("cannot create " + dir);
+                }
+                store = new MappedKVStore(file);
+                sStores.put(path, store);
+            }
+            return store;
+        }
+    }
+
+    private static Executor createWriter() {
+        ThreadPoolExecutor writer = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "MappedKVStore-writer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        writer.allowCoreThreadTimeOut(true);
+        return writer;
+    }
+
+    private void load() throws IOException {
+        if (!file.exists() || file.length() < MAGIC.length) {
+            rewrite(new HashMap<String, Object>());
+            return;
+        }
+        map(Math.max(PAGE_SIZE, (int) file.length()));
+        byte[] magic = new byte[MAGIC.length];
+        buffer.position(0);
+        buffer.get(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("not a key-value file: " + file);
+        }
+        int position = MAGIC.length;
+        CRC32 crc = new CRC32();
+        while (position < buffer.capacity()) {
+            int op = buffer.get(position);
+            if (op != OP_PUT && op != OP_REMOVE && op != OP_CLEAR && op != OP_BATCH) {
+                break;
+            }
+            buffer.position(position + 1);
+            long bodyLength = readVarint();
+            int bodyStart = buffer.position();
+            if (bodyLength < 0 || bodyStart + bodyLength + 4 > buffer.capacity()) {
+                break;
+            }
+            byte[] bytes = new byte[bodyStart - position + (int) bodyLength];
+            buffer.position(position);
+            buffer.get(bytes);
+            crc.reset();
+            crc.update(bytes);
+            if ((int) crc.getValue() != buffer.getInt()) {
+                break;
+            }
+            replay(op, bytes, bodyStart - position);
+            position = buffer.position();
+            records++;
+        }
+        end = position;
+        // 清掉崩溃时写了一半的记录，避免与之后追加的记录混在一起
+        for (int i = end; i < buffer.capacity() && buffer.get(i) != 0; i++) {
+            buffer.put(i, (byte) 0);
+        }
+    }
+
+    private void replay(int op, byte[] bytes, int offset) {
+        if (op == OP_BATCH) {
+            Reader reader = new Reader(bytes, offset);
+            while (reader.position < bytes.length) {
+                int entryOp = reader.bytes[reader.position++];
+                if (entryOp == OP_CLEAR) {
+                    map.clear();
+                } else if (entryOp == OP_REMOVE) {
+                    map.remove(reader.readString());
+                } else {
+                    String key = reader.readString();
+                    map.put(key, reader.readValue());
+                }
+            }
+            return;
+        }
+        if (op == OP_CLEAR) {
+            map.clear();
+            return;
+        }
+        Reader reader = new Reader(bytes, offset);
+        String key = reader.readString();
+        if (op == OP_REMOVE) {
+            map.remove(key);
+        } else {
+            map.put(key, reader.readValue());
+        }
+    }
+
+    private void map(int size) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            if (raf.length() < size) {
+                raf.setLength(size);
+            }
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * 把当前值写成新文件并原子替换旧文件
+     */
+    private void rewrite(Map<String, Object> values) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        Record out = new Record();
+        out.write(MAGIC, 0, MAGIC.length);
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            encode(out, OP_PUT, entry.getKey(), entry.getValue());
+        }
+        int size = pageAlign(out.size() * 2);
+        RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+        try {
+            raf.setLength(0);
+            raf.setLength(size);
+            raf.write(out.bytes(), 0, out.size());
+            raf.getFD().sync();
+        } finally {
+            raf.close();
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("cannot replace " + file);
+        }
+        map(size);
+        end = out.size();
+        records = values.size();
+    }
+
+    private static int pageAlign(int size) {
+        return Math.max(PAGE_SIZE, (size + PAGE_SIZE - 1) / PAGE_SIZE * PAGE_SIZE);
+    }
+
+    /**
+     * 追加已编码好的记录，空间不足时扩容或压缩
+     *
+     * @param clear   同 changes
+     * @param changes 尚未应用到 map 的修改，压缩时要一并写入；记录已应用到 map 时为 null
+     */
+    private void append(Record out, int count, boolean clear, Map<String, Object> changes) throws IOException {
+        if (end + out.size() > buffer.capacity()) {
+            // 大部分记录已被覆盖或删除时压缩，否则扩容
+            if (end > COMPACT_THRESHOLD && records + count > map.size() * 2) {
+                HashMap<String, Object> values = new HashMap<String, Object>(map);
+                if (changes != null) {
+                    applyTo(values, clear, changes);
+                }
+                rewrite(values);
+                // map 已包含 apply() 尚未写入的修改，重写后它们都已落盘
+                pending.reset();
+                pendingCount = 0;
+                return;
+            }
+            map(pageAlign((end + out.size()) * 2));
+        }
+        buffer.position(end);
+        buffer.put(out.bytes(), 0, out.size());
+        end += out.size();
+        records += count;
+    }
+
+    /**
+     * 把一次提交编码为一条批量记录，追加到 out 末尾
+     *
+     * @return 记录包含的修改数，没有修改时为 0 且不写入任何内容
+     */
+    private int encodeBatch(Record out, boolean clear, Map<String, Object> changes, List<String> changedKeys) {
+        int start = out.size();
+        Record body = new Record();
+        int count = 0;
+        if (clear) {
+            body.write(OP_CLEAR);
+            count++;
+        }
+        for (Map.Entry<String, Object> entry : changes.entrySet()) {
+            String key = entry.getKey();
+            Object value = entry.getValue();
+            if (value == this || value == null) {
+                if (clear || !map.containsKey(key)) {
+                    continue;
+                }
+                body.write(OP_REMOVE);
+                body.writeString(key);
+            } else {
+                body.write(OP_PUT);
+                body.writeString(key);
+                body.writeValue(value);
+            }
+            changedKeys.add(key);
+            count++;
+        }
+        if (count == 0) {
+            return 0;
+        }
+        out.write(OP_BATCH);
+        out.writeVarint(body.size());
+        out.write(body.bytes(), 0, body.size());
+        CRC32 crc = new CRC32();
+        crc.update(out.bytes(), start, out.size() - start);
+        out.writeInt((int) crc.getValue());
+        return count;
+    }
+
+    private void applyTo(Map<String, Object> values, boolean clear, Map<String, Object> changes) {
+        if (clear) {
+            values.clear();
+        }
+        for (Map.Entry<String, Object> entry : changes.entrySet()) {
+            Object value = entry.getValue();
+            if (value == this || value == null) {
+                values.remove(entry.getKey());
+            } else {
+                values.put(entry.getKey(), value);
+            }
+        }
+    }
+
+    /**
+     * 写入 apply() 留下的记录，调用方需持有锁
+     */
+    private void flushPending() throws IOException {
+        if (pending.size() == 0) {
+            return;
+        }
+        append(pending, pendingCount, false, null);
+        pending.reset();
+        pendingCount = 0;
+    }
+
+    private static void encode(Record out, byte op, String key, Object value) {
+        int start = out.size();
+        out.write(op);
+        if (op == OP_CLEAR) {
+            out.writeVarint(0);
+        } else {
+            Record body = new Record();
+            body.writeString(key);
+            if (op == OP_PUT) {
+                body.writeValue(value);
+            }
+            out.writeVarint(body.size());
+            out.write(body.bytes(), 0, body.size());
+        }
+        CRC32 crc = new CRC32();
+        crc.update(out.bytes(), start, out.size() - start);
+        out.writeInt((int) crc.getValue());
+    }
+
+    private long readVarint() {
+        long value = 0;
+        for (int shift = 0; shift < 64 && buffer.hasRemaining(); shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public Map<String, ?> getAll() {
+        synchronized (this) {
+            HashMap<String, Object> all = new HashMap<String, Object>(map);
+            for (Map.Entry<String, Object> entry : all.entrySet()) {
+                if (entry.getValue() instanceof Set) {
+                    entry.setValue(new HashSet<Object>((Set<?>) entry.getValue()));
+                }
+            }
+            return all;
+        }
+    }
+
+    @Override
+    public String getString(String key, String defValue) {
+        synchronized (this) {
+            String value = (String) map.get(key);
+            return value != null ? value : defValue;
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Set<String> getStringSet(String key, Set<String> defValues) {
+        synchronized (this) {
+            Set<String> value = (Set<String>) map.get(key);
+            return value != null ? new HashSet<String>(value) : defValues;
+        }
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        synchronized (this) {
+            Integer value = (Integer) map.get(key);
+            return value != null ? value : defValue;
+        }
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        synchronized (this) {
+            Long value = (Long) map.get(key);
+            return value != null ? value : defValue;
+        }
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        synchronized (this) {
+            Float value = (Float) map.get(key);
+            return value != null ? value : defValue;
+        }
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        synchronized (this) {
+            Boolean value = (Boolean) map.get(key);
+            return value != null ? value : defValue;
+        }
+    }
+
+    @Override
+    public boolean contains(String key) {
+        synchronized (this) {
+            return map.containsKey(key);
+        }
+    }
+
+    @Override
+    public Editor edit() {
+        return new EditorImpl();
+    }
+
+    @Override
+    public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        synchronized (this) {
+            listeners.put(listener, CONTENT);
+        }
+    }
+
+    @Override
+    public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        synchronized (this) {
+            listeners.remove(listener);
+        }
+    }
+
+    /**
+     * 提交一组修改
+     *
+     * @param sync true 时在当前线程写入，成功后才更新内存；false 时立即更新内存，由后台线程写入
+     */
+    private boolean commit(boolean clear, Map<String, Object> changes, boolean sync) {
+        final List<String> changedKeys = new ArrayList<String>();
+        final List<OnSharedPreferenceChangeListener> toNotify;
+        synchronized (this) {
+            if (sync) {
+                record.reset();
+                int count = encodeBatch(record, clear, changes, changedKeys);
+                if (count == 0) {
+                    return true;
+                }
+                try {
+                    // 先写入之前 apply() 的记录，保持提交顺序
+                    flushPending();
+                    append(record, count, clear, changes);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    return false;
+                }
+            } else {
+                int count = encodeBatch(pending, clear, changes, changedKeys);
+                if (count == 0) {
+                    return true;
+                }
+                pendingCount += count;
+                if (!flushScheduled) {
+                    flushScheduled = true;
+                    sWriter.execute(flushTask);
+                }
+            }
+            applyTo(map, clear, changes);
+            toNotify = new ArrayList<OnSharedPreferenceChangeListener>(listeners.keySet());
+        }
+        if (!toNotify.isEmpty() && !changedKeys.isEmpty()) {
+            Runnable notify = new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = changedKeys.size() - 1; i >= 0; i--) {
+                        for (OnSharedPreferenceChangeListener listener : toNotify) {
+                            listener.onSharedPreferenceChanged(MappedKVStore.this, changedKeys.get(i));
+                        }
+                    }
+                }
+            };
+            if (Looper.myLooper() == Looper.getMainLooper()) {
+                notify.run();
+            } else {
+                mainHandler.post(notify);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * commit() 在当前线程写入；apply() 只更新内存，写入以及可能的扩容、重写都在后台线程完成
+     */
+    private final class EditorImpl implements Editor {
+
+        private final Map<String, Object> changes = new HashMap<String, Object>();
+        private boolean clear;
+
+        @Override
+        public Editor putString(String key, String value) {
+            synchronized (this) {
+                changes.put(key, value);
+                return this;
+            }
+        }
+
+        @Override
+        public Editor putStringSet(String key, Set<String> values) {
+            synchronized (this) {
+                changes.put(key, values == null ? null : new LinkedHashSet<String>(values));
+                return this;
+            }
+        }
+
+        @Override
+        public Editor putInt(String key, int value) {
+            synchronized (this) {
+                changes.put(key, value);
+                return this;
+            }
+        }
+
+        @Override
+        public Editor putLong(String key, long value) {
+            synchronized (this) {
+                changes.put(key, value);
+                return this;
+            }
+        }
+
+        @Override
+        public Editor putFloat(String key, float value) {
+            synchronized (this) {
+                changes.put(key, value);
+                return this;
+            }
+        }
+
+        @Override
+        public Editor putBoolean(String key, boolean value) {
+            synchronized (this) {
+                changes.put(key, value);
+                return this;
+            }
+        }
+
+        @Override
+        public Editor remove(String key) {
+            synchronized (this) {
+                // 以 store 本身作为删除标记
+                changes.put(key, MappedKVStore.this);
+                return this;
+            }
+        }
+
+        @Override
+        public Editor clear() {
+            synchronized (this) {
+                clear = true;
+                return this;
+            }
+        }
+
+        @Override
+        public boolean commit() {
+            boolean clearFirst;
+            Map<String, Object> pending;
+            synchronized (this) {
+                clearFirst = clear;
+                pending = new HashMap<String, Object>(changes);
+                clear = false;
+                changes.clear();
+            }
+            return MappedKVStore.this.commit(clearFirst, pending, true);
+        }
+
+        @Override
+        public void apply() {
+            boolean clearFirst;
+            Map<String, Object> pending;
+            synchronized (this) {
+                clearFirst = clear;
+                pending = new HashMap<String, Object>(changes);
+                clear = false;
+                changes.clear();
+            }
+            MappedKVStore.this.commit(clearFirst, pending, false);
+        }
+    }
+
+    /**
+     * 可增长的字节缓冲，用于编码记录
+     */
+    private static final class Record {
+
+        private byte[] bytes = new byte[256];
+        private int size;
+
+        void reset() {
+            size = 0;
+        }
+
+        int size() {
+            return size;
+        }
+
+        byte[] bytes() {
+            return bytes;
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+            }
+        }
+
+        void write(int b) {
+            ensure(1);
+            bytes[size++] = (byte) b;
+        }
+
+        void write(byte[] src, int offset, int length) {
+            ensure(length);
+            System.arraycopy(src, offset, bytes, size, length);
+            size += length;
+        }
+
+        void writeInt(int value) {
+            ensure(4);
+            bytes[size++] = (byte) (value >>> 24);
+            bytes[size++] = (byte) (value >>> 16);
+            bytes[size++] = (byte) (value >>> 8);
+            bytes[size++] = (byte) value;
+        }
+
+        void writeVarint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        void writeString(String value) {
+            byte[] utf8 = value.getBytes(UTF_8);
+            writeVarint(utf8.length);
+            write(utf8, 0, utf8.length);
+        }
+
+        void writeValue(Object value) {
+            if (value instanceof String) {
+                write(TYPE_STRING);
+                writeString((String) value);
+            } else if (value instanceof Integer) {
+                write(TYPE_INT);
+                int v = (Integer) value;
+                writeVarint(((v << 1) ^ (v >> 31)) & 0xFFFFFFFFL);
+            } else if (value instanceof Long) {
+                write(TYPE_LONG);
+                long v = (Long) value;
+                writeVarint((v << 1) ^ (v >> 63));
+            } else if (value instanceof Float) {
+                write(TYPE_FLOAT);
+                writeInt(Float.floatToIntBits((Float) value));
+            } else if (value instanceof Boolean) {
+                write(TYPE_BOOLEAN);
+                write((Boolean) value ? 1 : 0);
+            } else if (value instanceof Set) {
+                write(TYPE_STRING_SET);
+                Set<?> set = (Set<?>) value;
+                writeVarint(set.size());
+                for (Object item : set) {
+                    writeString((String) item);
+                }
+            } else {
+                throw new IllegalArgumentException("unsupported value type: " + value.getClass());
+            }
+        }
+    }
+
+    /**
+     * 解码记录 body
+     */
+    private static final class Reader {
+
+        private final byte[] bytes;
+        private int position;
+
+        Reader(byte[] bytes, int position) {
+            this.bytes = bytes;
+            this.position = position;
+        }
+
+        long readVarint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = bytes[position++];
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    break;
+                }
+            }
+            return value;
+        }
+
+        int readInt() {
+            return (bytes[position++] & 0xFF) << 24 | (bytes[position++] & 0xFF) << 16
+                    | (bytes[position++] & 0xFF) << 8 | (bytes[position++] & 0xFF);
+        }
+
+        String readString() {
+            int length = (int) readVarint();
+            String value = new String(bytes, position, length, UTF_8);
+            position += length;
+            return value;
+        }
+
+        Object readValue() {
+            byte type = bytes[position++];
+            switch (type) {
+                case TYPE_STRING:
+                    return readString();
+                case TYPE_INT: {
+                    int v = (int) readVarint();
+                    return (v >>> 1) ^ -(v & 1);
+                }
+                case TYPE_LONG: {
+                    long v = readVarint();
+                    return (v >>> 1) ^ -(v & 1);
+                }
+                case TYPE_FLOAT:
+                    return Float.intBitsToFloat(readInt());
+                case TYPE_BOOLEAN:
+                    return bytes[position++] != 0;
+                case TYPE_STRING_SET: {
+                    int count = (int) readVarint();
+                    Set<String> set = new LinkedHashSet<String>();
+                    for (int i = 0; i < count; i++) {
+                        set.add(readString());
+                    }
+                    return set;
+                }
+                default:
+                    throw new IllegalStateException("unknown value type " + type);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,319 @@
+/**
+ * Copyright 2016 smartbetter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.smartbetter.utilslibrary;
+
+import android.content.SharedPreferences;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * 类型化的偏好项，读取走内存快照.
+ * <pre>
+ * SPSchema schema = new SPSchema(SPUtils.store(context, "render"));
+ * SPSchema.BooleanKey SHOW_FPS = schema.booleanKey("show_fps", false);
+ * ...
+ * if (SHOW_FPS.get()) { ... }   // 每帧调用也没有 map 查找、装箱和锁
+ * </pre>
+ * 所有已声明的值保存在一个不可变快照里，按类型放在基本类型数组中。通过本类写入或
+ * 文件变化通知到达时，复制出新快照再整体替换，读取只是一次 volatile 读加数组下标访问。
+ * 写入与替换快照在同一把锁内，并发 set() 时快照与文件中最后写入的值一致。
+ */
+public class SPSchema implements SharedPreferences.OnSharedPreferenceChangeListener {
+
+    /**
+     * 不可变快照，发布后数组不再修改，修改时先复制
+     */
+    private static final class Snapshot {
+        final int[] ints;
+        final long[] longs;
+        final float[] floats;
+        final boolean[] booleans;
+        final String[] strings;
+
+        Snapshot(int[] ints, long[] longs, float[] floats, boolean[] booleans, String[] strings) {
+            this.ints = ints;
+            this.longs = longs;
+            this.floats = floats;
+            this.booleans = booleans;
+            this.strings = strings;
+        }
+
+        Snapshot copy() {
+            return new Snapshot(ints.clone(), longs.clone(), floats.clone(), booleans.clone(), strings.clone());
+        }
+    }
+
+    private abstract static class Key {
+        final SPSchema schema;
+        final String name;
+        final int index;
+
+        Key(SPSchema schema, String name, int index) {
+            this.schema = schema;
+            this.name = name;
+            this.index = index;
+        }
+
+        /**
+         * 从 SharedPreferences 读取当前值写入快照
+         */
+        abstract void load(Snapshot snapshot);
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    public static final class IntKey extends Key {
+        private final int defValue;
+
+        IntKey(SPSchema schema, String name, int index, int defValue) {
+            super(schema, name, index);
+            this.defValue = defValue;
+        }
+
+        public int get() {
+            return schema.snapshot.ints[index];
+        }
+
+        public void set(int value) {
+            synchronized (schema) {
+                schema.store.putInt(name, value);
+                Snapshot next = schema.snapshot.copy();
+                next.ints[index] = value;
+                schema.snapshot = next;
+            }
+        }
+
+        @Override
+        void load(Snapshot snapshot) {
+            snapshot.ints[index] = schema.store.getInt(name, defValue);
+        }
+    }
+
+    public static final class LongKey extends Key {
+        private final long defValue;
+
+        LongKey(SPSchema schema, String name, int index, long defValue) {
+            super(schema, name, index);
+            this.defValue = defValue;
+        }
+
+        public long get() {
+            return schema.snapshot.longs[index];
+        }
+
+        public void set(long value) {
+            synchronized (schema) {
+                schema.store.putLong(name, value);
+                Snapshot next = schema.snapshot.copy();
+                next.longs[index] = value;
+                schema.snapshot = next;
+            }
+        }
+
+        @Override
+        void load(Snapshot snapshot) {
+            snapshot.longs[index] = schema.store.getLong(name, defValue);
+        }
+    }
+
+    public static final class FloatKey extends Key {
+        private final float defValue;
+
+        FloatKey(SPSchema schema, String name, int index, float defValue) {
+            super(schema, name, index);
+            this.defValue = defValue;
+        }
+
+        public float get() {
+            return schema.snapshot.floats[index];
+        }
+
+        public void set(float value) {
+            synchronized (schema) {
+                schema.store.putFloat(name, value);
+                Snapshot next = schema.snapshot.copy();
+                next.floats[index] = value;
+                schema.snapshot = next;
+            }
+        }
+
+        @Override
+        void load(Snapshot snapshot) {
+            snapshot.floats[index] = schema.store.getFloat(name, defValue);
+        }
+    }
+
+    public static final class BooleanKey extends Key {
+        private final boolean defValue;
+
+        BooleanKey(SPSchema schema, String name, int index, boolean defValue) {
+            super(schema, name, index);
+            this.defValue = defValue;
+        }
+
+        public boolean get() {
+            return schema.snapshot.booleans[index];
+        }
+
+        public void set(boolean value) {
+            synchronized (schema) {
+                schema.store.putBoolean(name, value);
+                Snapshot next = schema.snapshot.copy();
+                next.booleans[index] = value;
+                schema.snapshot = next;
+            }
+        }
+
+        @Override
+        void load(Snapshot snapshot) {
+            snapshot.booleans[index] = schema.store.getBoolean(name, defValue);
+        }
+    }
+
+    public static final class StringKey extends Key {
+        private final String defValue;
+
+        StringKey(SPSchema schema, String name, int index, String defValue) {
+            super(schema, name, index);
+            this.defValue = defValue;
+        }
+
+        public String get() {
+            return schema.snapshot.strings[index];
+        }
+
+        public void set(String value) {
+            synchronized (schema) {
+                schema.store.putString(name, value);
+                Snapshot next = schema.snapshot.copy();
+                next.strings[index] = value != null ? value : defValue;
+                schema.snapshot = next;
+            }
+        }
+
+        @Override
+        void load(Snapshot snapshot) {
+            snapshot.strings[index] = schema.store.getString(name, defValue);
+        }
+    }
+
+    private final SPStore store;
+    private final HashMap<String, Key> keys = new HashMap<String, Key>();
+
+    private volatile Snapshot snapshot =
+            new Snapshot(new int[0], new long[0], new float[0], new boolean[0], new String[0]);
+
+    /**
+     * @param store 偏好项所在的文件，见 {@link SPUtils#store(android.content.Context, String)}
+     */
+    public SPSchema(SPStore store) {
+        this.store = store;
+        // SharedPreferences 只持有监听器的弱引用，由使用方持有 schema 即可
+        store.getPreferences().registerOnSharedPreferenceChangeListener(this);
+        // clear() 不一定有通知，由 store 主动刷新
+        store.addSchema(this);
+    }
+
+    public synchronized IntKey intKey(String name, int defValue) {
+        checkUnique(name);
+        Snapshot next = snapshot;
+        IntKey key = new IntKey(this, name, next.ints.length, defValue);
+        next = new Snapshot(Arrays.copyOf(next.ints, next.ints.length + 1), next.longs, next.floats,
+                next.booleans, next.strings);
+        return register(key, next);
+    }
+
+    public synchronized LongKey longKey(String name, long defValue) {
+        checkUnique(name);
+        Snapshot next = snapshot;
+        LongKey key = new LongKey(this, name, next.longs.length, defValue);
+        next = new Snapshot(next.ints, Arrays.copyOf(next.longs, next.longs.length + 1), next.floats,
+                next.booleans, next.strings);
+        return register(key, next);
+    }
+
+    public synchronized FloatKey floatKey(String name, float defValue) {
+        checkUnique(name);
+        Snapshot next = snapshot;
+        FloatKey key = new FloatKey(this, name, next.floats.length, defValue);
+        next = new Snapshot(next.ints, next.longs, Arrays.copyOf(next.floats, next.floats.length + 1),
+                next.booleans, next.strings);
+        return register(key, next);
+    }
+
+    public synchronized BooleanKey booleanKey(String name, boolean defValue) {
+        checkUnique(name);
+        Snapshot next = snapshot;
+        BooleanKey key = new BooleanKey(this, name, next.booleans.length, defValue);
+        next = new Snapshot(next.ints, next.longs, next.floats,
+                Arrays.copyOf(next.booleans, next.booleans.length + 1), next.strings);
+        return register(key, next);
+    }
+
+    public synchronized StringKey stringKey(String name, String defValue) {
+        checkUnique(name);
+        Snapshot next = snapshot;
+        StringKey key = new StringKey(this, name, next.strings.length, defValue);
+        next = new Snapshot(next.ints, next.longs, next.floats, next.booleans,
+                Arrays.copyOf(next.strings, next.strings.length + 1));
+        return register(key, next);
+    }
+
+    private void checkUnique(String name) {
+        if (keys.containsKey(name)) {
+            throw new IllegalArgumentException("key already declared: " + name);
+        }
+    }
+
+    private <K extends Key> K register(K key, Snapshot next) {
+        key.load(next);
+        keys.put(key.name, key);
+        snapshot = next;
+        return key;
+    }
+
+    /**
+     * 重新从文件读取所有已声明的值
+     */
+    public synchronized void reload() {
+        Snapshot next = snapshot.copy();
+        for (Key key : keys.values()) {
+            key.load(next);
+        }
+        snapshot = next;
+    }
+
+    @Override
+    public void onSharedPreferenceChanged(SharedPreferences sp, String name) {
+        if (name == null) {
+            // Android 11 起 clear() 会以 null 通知，更早的版本由 SPStore.clear() 刷新
+            reload();
+            return;
+        }
+        synchronized (this) {
+            Key key = keys.get(name);
+            if (key != null) {
+                Snapshot next = snapshot.copy();
+                key.load(next);
+                snapshot = next;
+            }
+        }
+    }
+
+}
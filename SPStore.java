@@ -0,0 +1,780 @@
+/**
+ * Copyright 2016 smartbetter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.smartbetter.utilslibrary;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+
+import net.smartbetter.utilslibrary.encrypt.MD5Utils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 一个命名的 SharedPreferences 文件的句柄，由 {@link SPUtils#store(Context, String)} 获取.
+ * <p>
+ * 句柄按文件名缓存，读写不再每次调用 getSharedPreferences。不同子系统可以把数据分到
+ * 不同文件，各自的锁、合并写入和磁盘写入互不影响，频繁读取的文件不会被其它文件的
+ * 大批量写入拖慢。打开 {@link #setStatsEnabled(boolean)} 后每个文件统计读写次数与耗时。
+ */
+public class SPStore {
+
+    /**
+     * MappedKVStore 文件所在目录，位于 getFilesDir() 下
+     */
+    private static final String MAPPED_DIR = "mkv";
+
+    /**
+     * 图片等大块数据所在目录，位于 getFilesDir() 下，每个文件名一个子目录
+     */
+    private static final String BLOB_DIR = "sp_blobs";
+
+    /**
+     * 值为此前缀加 blobFileName(key) 时表示引用 BLOB_DIR 中该 key 的文件。
+     * 文件名只由 key 决定，不信任值中的路径
+     */
+    private static final String BLOB_PREFIX = "blob:";
+
+    /**
+     * 合并写入中表示已删除的值
+     */
+    private static final Object REMOVED = new Object();
+
+    private static final ConcurrentHashMap<String, SPStore> sStores = new ConcurrentHashMap<String, SPStore>();
+    private static final Set<String> sMappedFiles = new CopyOnWriteArraySet<String>();
+    private static final ConcurrentHashMap<String, byte[]> sEncryptionKeys = new ConcurrentHashMap<String, byte[]>();
+
+    private static volatile long sDefaultCoalesceWindowMillis;
+    private static volatile boolean sStatsEnabled;
+
+    private final String name;
+    private final SharedPreferences preferences;
+    private final File blobDir;
+    /**
+     * 挂在本文件上的 SPSchema，clear() 时主动刷新，只持有弱引用
+     */
+    private final WeakHashMap<SPSchema, Object> schemas = new WeakHashMap<SPSchema, Object>();
+    private final AtomicLong reads = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicLong readNanos = new AtomicLong();
+    private final AtomicLong writeNanos = new AtomicLong();
+
+    /**
+     * 小于0表示使用 {@link #setDefaultCoalesceWindow(long)} 的值
+     */
+    private volatile long coalesceWindowMillis = -1;
+    private volatile Coalescer coalescer;
+
+    private SPStore(String name, SharedPreferences preferences, File blobDir) {
+        this.name = name;
+        this.preferences = preferences;
+        this.blobDir = blobDir;
+    }
+
+    /**
+     * 获取文件对应的句柄，同一文件名始终返回同一个对象
+     *
+     * @param context
+     * @param name    文件名
+     * @return
+     */
+    public static SPStore get(Context context, String name) {
+        SPStore store = sStores.get(name);
+        if (store == null) {
+            Context appContext = context.getApplicationContext();
+            store = new SPStore(name, open(appContext, name),
+                    new File(new File(appContext.getFilesDir(), BLOB_DIR), name));
+            SPStore raced = sStores.putIfAbsent(name, store);
+            if (raced != null) {
+                store = raced;
+            }
+        }
+        return store;
+    }
+
+    private static SharedPreferences open(Context context, String name) {
+        SharedPreferences preferences = null;
+        if (sMappedFiles.contains(name)) {
+            try {
+                preferences = MappedKVStore.open(new File(context.getFilesDir(), MAPPED_DIR), name);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (preferences == null) {
+            preferences = context.getSharedPreferences(name, Context.MODE_PRIVATE);
+        }
+        byte[] key = sEncryptionKeys.get(name);
+        return key != null ? new EncryptedPreferences(preferences, key, name) : preferences;
+    }
+
+    /**
+     * 指定某个文件使用 {@link MappedKVStore}（mmap 追加日志）代替 XML 实现。
+     * 需要在第一次读写该文件之前调用，两种实现之间不会迁移已有数据。
+     *
+     * @param name   文件名
+     * @param mapped true 使用 MappedKVStore，false 使用系统 SharedPreferences
+     */
+    public static void useMappedStore(String name, boolean mapped) {
+        if (mapped) {
+            sMappedFiles.add(name);
+        } else {
+            sMappedFiles.remove(name);
+        }
+    }
+
+    /**
+     * 指定某个文件使用 {@link EncryptedPreferences}（AES-GCM）加密保存，可与
+     * {@link #useMappedStore(String, boolean)} 同时使用。需要在第一次读写该文件之前调用，
+     * 不会迁移该文件中已有的明文数据。
+     *
+     * @param name 文件名
+     * @param key  16/24/32 字节的 AES 密钥，null 表示取消加密
+     */
+    public static void useEncryptedStore(String name, byte[] key) {
+        if (key != null) {
+            sEncryptionKeys.put(name, key.clone());
+        } else {
+            sEncryptionKeys.remove(name);
+        }
+    }
+
+    /**
+     * 设置所有文件默认的合并写入窗口，见 {@link #setCoalesceWindow(long)}
+     *
+     * @param millis 窗口长度，0 表示关闭合并
+     */
+    public static void setDefaultCoalesceWindow(long millis) {
+        sDefaultCoalesceWindowMillis = Math.max(0, millis);
+    }
+
+    /**
+     * 打开或关闭所有文件的读写次数与耗时统计，默认关闭。关闭时读写不调用 System.nanoTime()，
+     * 也不更新共享的计数器；打开后每次读写多两次 nanoTime 和两次原子加，只适合调试时使用
+     *
+     * @param enabled
+     */
+    public static void setStatsEnabled(boolean enabled) {
+        sStatsEnabled = enabled;
+    }
+
+    /**
+     * 立即提交所有文件合并窗口内尚未写入的修改，适合在 Activity.onPause 中调用
+     */
+    public static void flushAll() {
+        for (SPStore store : sStores.values()) {
+            store.flush();
+        }
+    }
+
+    /**
+     * @return 已打开的所有文件句柄
+     */
+    public static Map<String, SPStore> getOpenStores() {
+        return new HashMap<String, SPStore>(sStores);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return 底层的 SharedPreferences
+     */
+    public SharedPreferences getPreferences() {
+        return preferences;
+    }
+
+    /**
+     * 设置本文件的合并写入窗口。大于0时，putXxx/remove/clear 先记在内存里，窗口结束后
+     * 合并为一次 apply()；窗口内的 getXxx 能读到尚未提交的值。
+     *
+     * @param millis 窗口长度，0 表示关闭合并，小于0表示使用默认值
+     */
+    public void setCoalesceWindow(long millis) {
+        coalesceWindowMillis = millis;
+    }
+
+    private long coalesceWindowMillis() {
+        long millis = coalesceWindowMillis;
+        return millis >= 0 ? millis : sDefaultCoalesceWindowMillis;
+    }
+
+    public void putString(String key, String value) {
+        long start = startTiming();
+        if (coalesceWindowMillis() > 0) {
+            coalescer().put(key, value);
+        } else {
+            preferences.edit().putString(key, value).apply(); //commit同步的，apply异步的
+        }
+        wrote(start);
+    }
+
+    public void putInt(String key, int value) {
+        long start = startTiming();
+        if (coalesceWindowMillis() > 0) {
+            coalescer().put(key, value);
+        } else {
+            preferences.edit().putInt(key, value).apply();
+        }
+        wrote(start);
+    }
+
+    public void putBoolean(String key, boolean value) {
+        long start = startTiming();
+        if (coalesceWindowMillis() > 0) {
+            coalescer().put(key, value);
+        } else {
+            preferences.edit().putBoolean(key, value).apply();
+        }
+        wrote(start);
+    }
+
+    public void putFloat(String key, float value) {
+        long start = startTiming();
+        if (coalesceWindowMillis() > 0) {
+            coalescer().put(key, value);
+        } else {
+            preferences.edit().putFloat(key, value).apply();
+        }
+        wrote(start);
+    }
+
+    public void putLong(String key, long value) {
+        long start = startTiming();
+        if (coalesceWindowMillis() > 0) {
+            coalescer().put(key, value);
+        } else {
+            preferences.edit().putLong(key, value).apply();
+        }
+        wrote(start);
+    }
+
+    public String getString(String key, String defValue) {
+        long start = startTiming();
+        Object pending = pendingValue(key);
+        String value;
+        if (pending != null) {
+            value = pending == REMOVED ? defValue : (String) pending;
+        } else {
+            value = preferences.getString(key, defValue);
+        }
+        read(start);
+        return value;
+    }
+
+    public int getInt(String key, int defValue) {
+        long start = startTiming();
+        Object pending = pendingValue(key);
+        int value;
+        if (pending != null) {
+            value = pending == REMOVED ? defValue : (Integer) pending;
+        } else {
+            value = preferences.getInt(key, defValue);
+        }
+        read(start);
+        return value;
+    }
+
+    public boolean getBoolean(String key, boolean defValue) {
+        long start = startTiming();
+        Object pending = pendingValue(key);
+        boolean value;
+        if (pending != null) {
+            value = pending == REMOVED ? defValue : (Boolean) pending;
+        } else {
+            value = preferences.getBoolean(key, defValue);
+        }
+        read(start);
+        return value;
+    }
+
+    public float getFloat(String key, float defValue) {
+        long start = startTiming();
+        Object pending = pendingValue(key);
+        float value;
+        if (pending != null) {
+            value = pending == REMOVED ? defValue : (Float) pending;
+        } else {
+            value = preferences.getFloat(key, defValue);
+        }
+        read(start);
+        return value;
+    }
+
+    public long getLong(String key, long defValue) {
+        long start = startTiming();
+        Object pending = pendingValue(key);
+        long value;
+        if (pending != null) {
+            value = pending == REMOVED ? defValue : (Long) pending;
+        } else {
+            value = preferences.getLong(key, defValue);
+        }
+        read(start);
+        return value;
+    }
+
+    /**
+     * 移除某个key对应的值
+     *
+     * @param key
+     */
+    public void remove(String key) {
+        long start = startTiming();
+        deleteBlob(key);
+        if (coalesceWindowMillis() > 0) {
+            coalescer().put(key, REMOVED);
+        } else {
+            preferences.edit().remove(key).apply();
+        }
+        wrote(start);
+    }
+
+    /**
+     * 清除所有数据
+     */
+    public void clear() {
+        long start = startTiming();
+        File[] blobs = blobDir.listFiles();
+        if (blobs != null) {
+            for (File blob : blobs) {
+                blob.delete();
+            }
+        }
+        if (coalesceWindowMillis() > 0) {
+            coalescer().clear();
+        } else {
+            preferences.edit().clear().apply();
+        }
+        wrote(start);
+        notifyCleared();
+    }
+
+    void addSchema(SPSchema schema) {
+        synchronized (schemas) {
+            schemas.put(schema, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * MappedKVStore 以及 Android 11 之前的 SharedPreferences 在 clear() 时不通知监听器，
+     * 由这里刷新 SPSchema 的快照
+     */
+    void notifyCleared() {
+        List<SPSchema> toReload;
+        synchronized (schemas) {
+            toReload = new ArrayList<SPSchema>(schemas.keySet());
+        }
+        for (SPSchema schema : toReload) {
+            schema.reload();
+        }
+    }
+
+    /**
+     * 查询某个key是否已经存在
+     *
+     * @param key
+     * @return
+     */
+    public boolean contains(String key) {
+        long start = startTiming();
+        Object pending = pendingValue(key);
+        boolean contains = pending != null ? pending != REMOVED : preferences.contains(key);
+        read(start);
+        return contains;
+    }
+
+    /**
+     * 返回所有的键值对
+     *
+     * @return
+     */
+    public Map<String, ?> getAll() {
+        long start = startTiming();
+        Map<String, ?> all = currentValues();
+        read(start);
+        return all;
+    }
+
+    /**
+     * @return 包括合并窗口内尚未提交的修改在内的所有值，不计入统计
+     */
+    private Map<String, ?> currentValues() {
+        Coalescer pending = coalescer;
+        return pending != null ? pending.overlay(preferences.getAll()) : preferences.getAll();
+    }
+
+    /**
+     * 保存图片。PNG 数据直接压缩写入单独的文件，不经过 Base64，SharedPreferences 中只保存
+     * 文件引用，文件的加载时间和内存占用不再随图片增长。
+     *
+     * @param key
+     * @param bitmap
+     * @return 是否保存成功
+     */
+    public boolean putImage(String key, Bitmap bitmap) {
+        if (!blobDir.isDirectory() && !blobDir.mkdirs()) {
+            return false;
+        }
+        String fileName = blobFileName(key);
+        File file = new File(blobDir, fileName);
+        File tmp = new File(blobDir, fileName + ".tmp");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(tmp);
+            if (!bitmap.compress(Bitmap.CompressFormat.PNG, 80, out)) {
+                return false;
+            }
+            out.close();
+            out = null;
+            // 先写临时文件再改名，读取方不会看到写了一半的图片
+            if (!tmp.renameTo(file)) {
+                return false;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            tmp.delete();
+        }
+        putString(key, BLOB_PREFIX + fileName);
+        return true;
+    }
+
+    /**
+     * 读取 {@link #putImage(String, Bitmap)} 保存的图片，直接从文件流式解码
+     *
+     * @param key
+     * @return 图片，不存在时返回 null
+     */
+    public Bitmap getImage(String key) {
+        if (!isBlobReference(key, getString(key, null))) {
+            return null;
+        }
+        File file = blobFile(key);
+        return file != null && file.isFile() ? BitmapFactory.decodeFile(file.getPath()) : null;
+    }
+
+    /**
+     * @return 值是否是 {@link #putImage(String, Bitmap)} 为这个 key 写入的文件引用
+     */
+    static boolean isBlobReference(String key, String value) {
+        return value != null && value.equals(BLOB_PREFIX + blobFileName(key));
+    }
+
+    /**
+     * @return key 对应的图片文件，路径不在 blobDir 下时返回 null
+     */
+    private File blobFile(String key) {
+        File file = new File(blobDir, blobFileName(key));
+        try {
+            String dir = blobDir.getCanonicalPath() + File.separator;
+            return file.getCanonicalPath().startsWith(dir) ? file : null;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private static String blobFileName(String key) {
+        // 以 key 的摘要作文件名，任意 key 都能得到合法的文件名
+        String digest = MD5Utils.encryptMD5ForBuilder(key);
+        return (digest != null ? digest : "empty") + ".png";
+    }
+
+    private void deleteBlob(String key) {
+        Object value = pendingValue(key);
+        if (value == null) {
+            try {
+                value = preferences.getString(key, null);
+            } catch (ClassCastException e) {
+                return;
+            }
+        }
+        if (value instanceof String && isBlobReference(key, (String) value)) {
+            File file = blobFile(key);
+            if (file != null) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * 批量写入提交之后，删除不再被引用的图片文件。提交之后再删，提交失败时图片仍然可用；
+     * 同一批中移除后又写回的引用不受影响
+     *
+     * @param removedKeys 这一批中 remove 过的 key
+     * @param cleared     这一批中是否调用过 clear()
+     */
+    void deleteUnreferencedBlobs(Collection<String> removedKeys, boolean cleared) {
+        if (cleared) {
+            File[] blobs = blobDir.listFiles();
+            if (blobs == null) {
+                return;
+            }
+            Set<String> referenced = new HashSet<String>();
+            for (Map.Entry<String, ?> entry : currentValues().entrySet()) {
+                Object value = entry.getValue();
+                if (value instanceof String && isBlobReference(entry.getKey(), (String) value)) {
+                    referenced.add(blobFileName(entry.getKey()));
+                }
+            }
+            for (File blob : blobs) {
+                if (!referenced.contains(blob.getName())) {
+                    blob.delete();
+                }
+            }
+            return;
+        }
+        for (String key : removedKeys) {
+            Object value = pendingValue(key);
+            if (value == null) {
+                try {
+                    value = preferences.getString(key, null);
+                } catch (ClassCastException e) {
+                    value = null;
+                }
+            }
+            if (!(value instanceof String) || !isBlobReference(key, (String) value)) {
+                File file = blobFile(key);
+                if (file != null) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * 开始一次批量写入，见 {@link SPUtils#batch(Context)}
+     *
+     * @return
+     */
+    public SPUtils.Batch batch() {
+        flush();
+        return new SPUtils.Batch(this, preferences.edit());
+    }
+
+    /**
+     * 立即提交合并窗口内尚未写入的修改
+     */
+    public void flush() {
+        Coalescer pending = coalescer;
+        if (pending != null) {
+            pending.run();
+        }
+    }
+
+    /**
+     * @return 读取次数，只在 {@link #setStatsEnabled(boolean)} 打开期间累计，下同
+     */
+    public long getReadCount() {
+        return reads.get();
+    }
+
+    public long getWriteCount() {
+        return writes.get();
+    }
+
+    /**
+     * @return 所有读取累计耗时，纳秒
+     */
+    public long getReadNanos() {
+        return readNanos.get();
+    }
+
+    /**
+     * @return 所有写入累计耗时，纳秒。apply() 的磁盘写入在后台完成，不计入
+     */
+    public long getWriteNanos() {
+        return writeNanos.get();
+    }
+
+    public void resetStats() {
+        reads.set(0);
+        writes.set(0);
+        readNanos.set(0);
+        writeNanos.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "SPStore{" + name + ", reads=" + reads.get() + ", readNanos=" + readNanos.get()
+                + ", writes=" + writes.get() + ", writeNanos=" + writeNanos.get() + "}";
+    }
+
+    /**
+     * @return 统计打开时为当前 nanoTime，否则为0，表示不计时
+     */
+    static long startTiming() {
+        return sStatsEnabled ? System.nanoTime() : 0;
+    }
+
+    void wrote(long startNanos) {
+        if (startNanos != 0) {
+            writeNanos.addAndGet(System.nanoTime() - startNanos);
+            writes.incrementAndGet();
+        }
+    }
+
+    private void read(long startNanos) {
+        if (startNanos != 0) {
+            readNanos.addAndGet(System.nanoTime() - startNanos);
+            reads.incrementAndGet();
+        }
+    }
+
+    private Object pendingValue(String key) {
+        Coalescer pending = coalescer;
+        return pending != null ? pending.get(key) : null;
+    }
+
+    private Coalescer coalescer() {
+        Coalescer pending = coalescer;
+        if (pending == null) {
+            synchronized (this) {
+                pending = coalescer;
+                if (pending == null) {
+                    pending = new Coalescer();
+                    coalescer = pending;
+                }
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * 合并窗口内的待写入修改，窗口结束时在主线程一次性 apply()
+     */
+    private final class Coalescer implements Runnable {
+
+        private final Handler handler = new Handler(Looper.getMainLooper());
+        private HashMap<String, Object> pending = new HashMap<String, Object>();
+        private boolean clear;
+        private boolean scheduled;
+
+        synchronized void put(String key, Object value) {
+            // 与 Editor.putString(key, null) 一致，null 视为删除
+            pending.put(key, value != null ? value : REMOVED);
+            schedule();
+        }
+
+        synchronized void clear() {
+            pending.clear();
+            clear = true;
+            schedule();
+        }
+
+        /**
+         * @return 待写入的值，已删除时返回 REMOVED，没有待写入修改时返回 null
+         */
+        synchronized Object get(String key) {
+            Object value = pending.get(key);
+            if (value == null && clear) {
+                return REMOVED;
+            }
+            return value;
+        }
+
+        synchronized Map<String, ?> overlay(Map<String, ?> stored) {
+            HashMap<String, Object> all = new HashMap<String, Object>();
+            if (!clear) {
+                all.putAll(stored);
+            }
+            for (Map.Entry<String, Object> entry : pending.entrySet()) {
+                if (entry.getValue() == REMOVED) {
+                    all.remove(entry.getKey());
+                } else {
+                    all.put(entry.getKey(), entry.getValue());
+                }
+            }
+            return all;
+        }
+
+        private void schedule() {
+            long windowMillis = coalesceWindowMillis();
+            if (!scheduled) {
+                scheduled = true;
+                handler.postDelayed(this, windowMillis);
+            }
+        }
+
+        @Override
+        public void run() {
+            HashMap<String, Object> writes;
+            boolean clearFirst;
+            SharedPreferences.Editor editor;
+            synchronized (this) {
+                handler.removeCallbacks(this);
+                scheduled = false;
+                if (pending.isEmpty() && !clear) {
+                    return;
+                }
+                writes = pending;
+                clearFirst = clear;
+                pending = new HashMap<String, Object>();
+                clear = false;
+                // apply() 会先更新内存中的值，所以在锁内提交，读取不会出现空档
+                editor = preferences.edit();
+                if (clearFirst) {
+                    editor.clear();
+                }
+                for (Map.Entry<String, Object> entry : writes.entrySet()) {
+                    String key = entry.getKey();
+                    Object value = entry.getValue();
+                    if (value == REMOVED) {
+                        editor.remove(key);
+                    } else if (value instanceof String) {
+                        editor.putString(key, (String) value);
+                    } else if (value instanceof Integer) {
+                        editor.putInt(key, (Integer) value);
+                    } else if (value instanceof Boolean) {
+                        editor.putBoolean(key, (Boolean) value);
+                    } else if (value instanceof Float) {
+                        editor.putFloat(key, (Float) value);
+                    } else if (value instanceof Long) {
+                        editor.putLong(key, (Long) value);
+                    }
+                }
+                editor.apply();
+            }
+        }
+    }
+
+}
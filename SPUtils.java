@@ -24,7 +24,8 @@ import android.util.Base64;
 import android.widget.ImageView;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -50,32 +51,27 @@ public class SPUtils {
      * @param value
      */
     public static void putString(Context context, String key, String value) {
-        SharedPreferences sp = context.getSharedPreferences(FILE_NAME, Context.MODE_PRIVATE);
-        sp.edit().putString(key, value).apply(); //commit同步的，apply异步的
+        store(context).putString(key, value);
     }
 
     public static void putInt(Context context, String key, int value) {
-        SharedPreferences sp = context.getSharedPreferences(FILE_NAME, Context.MODE_PRIVATE);
-        sp.edit().putInt(key, value).apply();
+        store(context).putInt(key, value);
     }
 
     public static void putBoolean(Context context, String key, boolean value) {
-        SharedPreferences sp = context.getSharedPreferences(FILE_NAME, Context.MODE_PRIVATE);
-        sp.edit().putBoolean(key, value).apply();
+        store(context).putBoolean(key, value);
     }
 
     public static void putFloat(Context context, String key, float value) {
-        SharedPreferences sp = context.getSharedPreferences(FILE_NAME, Context.MODE_PRIVATE);
-        sp.edit().putFloat(key, value).apply();
+        store(context).putFloat(key, value);
     }
 
     public static void putLong(Context context, String key, long value) {
-        SharedPreferences sp = context.getSharedPreferences(FILE_NAME, Context.MODE_PRIVATE);
-        sp.edit().putLong(key, value).apply();
+        store(context).putLong(key, value);
     }
 
     /**
-     * 保存图片到SharedPreferences
+     * 保存图片，图片数据存为文件，SharedPreferences 中只保存引用
      *
      * @param mContext
      * @param key
@@ -84,14 +80,8 @@ public class SPUtils {
     public static void putImage(Context mContext, String key, ImageView imageView) {
         BitmapDrawable drawable = (BitmapDrawable) imageView.getDrawable();
         Bitmap bitmap = drawable.getBitmap();
-        // 将Bitmap压缩成字节数组输出流
-        ByteArrayOutputStream byStream = new ByteArrayOutputStream();
-        bitmap.compress(Bitmap.CompressFormat.PNG, 80, byStream);
-        // 利用Base64将我们的字节数组输出流转换成String
-        byte[] byteArray = byStream.toByteArray();
-        String imgString = new String(Base64.encodeToString(byteArray, Base64.DEFAULT));
-        // 将String保存shareUtils
-        SPUtils.putString(mContext, key, imgString);
+        // 图片写入单独的文件，SharedPreferences 中只保存文件引用
+        store(mContext).putImage(key, bitmap);
     }
 
     /**
@@ -103,32 +93,27 @@ public class SPUtils {
      * @return
      */
     public static String getString(Context context, String key, String defValue) {
-        SharedPreferences sp = context.getSharedPreferences(FILE_NAME, Context.MODE_PRIVATE);
-        return sp.getString(key, defValue);
+        return store(context).getString(key, defValue);
     }
 
     public static int getInt(Context context, String key, int defValue) {
-        SharedPreferences sp = context.getSharedPreferences(FILE_NAME, Context.MODE_PRIVATE);
-        return sp.getInt(key, defValue);
+        return store(context).getInt(key, defValue);
     }
 
     public static boolean getBoolean(Context context, String key, boolean defValue) {
-        SharedPreferences sp = context.getSharedPreferences(FILE_NAME, Context.MODE_PRIVATE);
-        return sp.getBoolean(key, defValue);
+        return store(context).getBoolean(key, defValue);
     }
 
     public static float getFloat(Context context, String key, float defValue) {
-        SharedPreferences sp = context.getSharedPreferences(FILE_NAME, Context.MODE_PRIVATE);
-        return sp.getFloat(key, defValue);
+        return store(context).getFloat(key, defValue);
     }
 
     public static long getLong(Context context, String key, long defValue) {
-        SharedPreferences sp = context.getSharedPreferences(FILE_NAME, Context.MODE_PRIVATE);
-        return sp.getLong(key, defValue);
+        return store(context).getLong(key, defValue);
     }
 
     /**
-     * 从SharedPreferences读取图片
+     * 读取 {@link #putImage(Context, String, ImageView)} 保存的图片
      *
      * @param mContext
      * @param key
@@ -136,7 +121,12 @@ public class SPUtils {
      * @return
      */
     public static Bitmap getImage(Context mContext, String key, ImageView imageView) {
-        String imgString = SPUtils.getString(mContext, key, "");
+        SPStore store = store(mContext);
+        String imgString = store.getString(key, "");
+        if (SPStore.isBlobReference(key, imgString)) {
+            return store.getImage(key);
+        }
+        // 兼容旧版本以 Base64 保存在 XML 中的图片
         if (!imgString.equals("")) {
             // 利用Base64将我们string转换
             byte[] byteArray = Base64.decode(imgString, Base64.DEFAULT);
@@ -154,8 +144,7 @@ public class SPUtils {
      * @param key
      */
     public static void remove(Context context, String key) {
-        SharedPreferences sp = context.getSharedPreferences(FILE_NAME, Context.MODE_PRIVATE);
-        sp.edit().remove(key).apply();
+        store(context).remove(key);
     }
 
     /**
@@ -164,8 +153,7 @@ public class SPUtils {
      * @param context
      */
     public static void clear(Context context) {
-        SharedPreferences sp = context.getSharedPreferences(FILE_NAME, Context.MODE_PRIVATE);
-        sp.edit().clear().apply();
+        store(context).clear();
     }
 
     /**
@@ -176,8 +164,7 @@ public class SPUtils {
      * @return
      */
     public static boolean contains(Context context, String key) {
-        SharedPreferences sp = context.getSharedPreferences(FILE_NAME, Context.MODE_PRIVATE);
-        return sp.contains(key);
+        return store(context).contains(key);
     }
 
     /**
@@ -187,8 +174,175 @@ public class SPUtils {
      * @return
      */
     public static Map<String, ?> getAll(Context context) {
-        SharedPreferences sp = context.getSharedPreferences(FILE_NAME, Context.MODE_PRIVATE);
-        return sp.getAll();
+        return store(context).getAll();
+    }
+
+    /**
+     * 指定某个文件使用 {@link MappedKVStore}（mmap 追加日志）代替 XML 实现。
+     * 需要在第一次读写该文件之前调用，两种实现之间不会迁移已有数据。
+     *
+     * @param fileName 文件名
+     * @param mapped   true 使用 MappedKVStore，false 使用系统 SharedPreferences
+     */
+    public static void useMappedStore(String fileName, boolean mapped) {
+        SPStore.useMappedStore(fileName, mapped);
+    }
+
+    /**
+     * 指定某个文件使用 AES-GCM 加密保存，见 {@link SPStore#useEncryptedStore(String, byte[])}
+     *
+     * @param fileName 文件名
+     * @param key      16/24/32 字节的 AES 密钥，null 表示取消加密
+     */
+    public static void useEncryptedStore(String fileName, byte[] key) {
+        SPStore.useEncryptedStore(fileName, key);
+    }
+
+    /**
+     * 获取某个文件的句柄，可以按子系统把数据分到不同文件
+     *
+     * @param context
+     * @param fileName 文件名
+     * @return
+     */
+    public static SPStore store(Context context, String fileName) {
+        return SPStore.get(context, fileName);
+    }
+
+    private static SPStore store(Context context) {
+        return SPStore.get(context, FILE_NAME);
+    }
+
+    /**
+     * 开始一次批量写入，所有修改在 apply()/commit() 时一次性提交，只触发一次磁盘写入
+     * <pre>
+     * SPUtils.batch(context).putInt("a", 1).putString("b", "x").apply();
+     * </pre>
+     *
+     * @param context
+     * @return
+     */
+    public static Batch batch(Context context) {
+        return store(context).batch();
+    }
+
+    /**
+     * 设置所有文件默认的合并写入时间窗口，单个文件可用 {@link SPStore#setCoalesceWindow(long)} 覆盖。大于0时，putXxx/remove/clear 先记在内存里，窗口结束后
+     * 合并为一次 apply()；窗口内的 getXxx 能读到尚未提交的值。
+     *
+     * @param millis 窗口长度，0 表示关闭合并，每次修改立即 apply()
+     */
+    public static void setCoalesceWindow(long millis) {
+        SPStore.setDefaultCoalesceWindow(millis);
+    }
+
+    /**
+     * 立即提交所有文件合并窗口内尚未写入的修改，适合在 Activity.onPause 中调用
+     */
+    public static void flush() {
+        SPStore.flushAll();
+    }
+
+    /**
+     * 打开或关闭读写次数与耗时统计，见 {@link SPStore#setStatsEnabled(boolean)}
+     *
+     * @param enabled
+     */
+    public static void setStatsEnabled(boolean enabled) {
+        SPStore.setStatsEnabled(enabled);
+    }
+
+    /**
+     * 批量写入，包装同一个 Editor。remove/clear 掉的图片引用，其文件在提交成功后删除
+     */
+    public static final class Batch {
+
+        private final SPStore store;
+        private final SharedPreferences.Editor editor;
+        /**
+         * 移除的 key，提交后删除它们不再被引用的图片文件
+         */
+        private final List<String> removedKeys = new ArrayList<String>();
+        private boolean cleared;
+
+        Batch(SPStore store, SharedPreferences.Editor editor) {
+            this.store = store;
+            this.editor = editor;
+        }
+
+        public Batch putString(String key, String value) {
+            editor.putString(key, value);
+            return this;
+        }
+
+        public Batch putInt(String key, int value) {
+            editor.putInt(key, value);
+            return this;
+        }
+
+        public Batch putBoolean(String key, boolean value) {
+            editor.putBoolean(key, value);
+            return this;
+        }
+
+        public Batch putFloat(String key, float value) {
+            editor.putFloat(key, value);
+            return this;
+        }
+
+        public Batch putLong(String key, long value) {
+            editor.putLong(key, value);
+            return this;
+        }
+
+        public Batch remove(String key) {
+            editor.remove(key);
+            removedKeys.add(key);
+            return this;
+        }
+
+        public Batch clear() {
+            editor.clear();
+            cleared = true;
+            return this;
+        }
+
+        /**
+         * 异步提交
+         */
+        public void apply() {
+            long start = SPStore.startTiming();
+            editor.apply();
+            store.wrote(start);
+            if (cleared) {
+                store.notifyCleared();
+            }
+            cleanUp(true);
+        }
+
+        /**
+         * 同步提交
+         *
+         * @return 是否写入成功
+         */
+        public boolean commit() {
+            long start = SPStore.startTiming();
+            boolean result = editor.commit();
+            store.wrote(start);
+            if (cleared) {
+                store.notifyCleared();
+            }
+            cleanUp(result);
+            return result;
+        }
+
+        private void cleanUp(boolean committed) {
+            if (committed && (cleared || !removedKeys.isEmpty())) {
+                store.deleteUnreferencedBlobs(removedKeys, cleared);
+            }
+            removedKeys.clear();
+            cleared = false;
+        }
     }
 
 }
@@ -15,8 +15,7 @@
  */
 package net.smartbetter.utilslibrary;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import net.smartbetter.utilslibrary.encrypt.HexCodec;
 
 /**
  * Created by gc on 2016/11/6.
@@ -26,10 +25,27 @@ public class StringUtils {
     private static final String TELREGEX = "^(13[0-9]|14[0-9]|15[0-9]|17[0-9]|18[0-9])\\d{8}$";
     private static final String EMAILREGEX = "\\w+([-.]\\w+)*@\\w+([-]\\w+)*\\.(\\w+([-]\\w+)*\\.)*[a-z]{2,3}$";
     private static final String URLREGEX = "^(http://|https://)?((?:[A-Za-z0-9]+-[A-Za-z0-9]+|[A-Za-z0-9]+)\\.)+([A-Za-z]+)[/\\?\\:]?.*$";
-    private static final String IPREGEX = "((?:(?:25[0-5]|2[0-4]\\\\d|[01]?\\\\d?\\\\d)\\\\.){3}(?:25[0-5]|2[0-4]\\\\d|[01]?\\\\d?\\\\d))";
+    private static final String IPREGEX = "((?:(?:25[0-5]|2[0-4]\\d|[01]?\\d?\\d)\\.){3}(?:25[0-5]|2[0-4]\\d|[01]?\\d?\\d))";
     private static final String CHINESEREGEX = "[\\u4E00-\\u9FA5\\uF900-\\uFA2D]";
     private static final String IDNUMREGEX = "^\\d{8,18}|[0-9x]{8,18}|[0-9X]{8,18}?$";
 
+    /**
+     * 18 位身份证号前 17 位的加权因子与校验码（GB 11643-1999）
+     */
+    private static final int[] ID_WEIGHTS = {7, 9, 10, 5, 8, 4, 2, 1, 6, 3, 7, 9, 10, 5, 8, 4, 2};
+    private static final String ID_CHECK_CODES = "10X98765432";
+    private static final int[] DAYS_IN_MONTH = {31, 29, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31};
+
+    /**
+     * 以下校验器的正则只编译一次，可用于批量校验，如 MOBILE_VALIDATOR.validateParallel(rows)
+     */
+    public static final StringValidator MOBILE_VALIDATOR = new StringValidator(TELREGEX);
+    public static final StringValidator EMAIL_VALIDATOR = new StringValidator(EMAILREGEX);
+    public static final StringValidator URL_VALIDATOR = new StringValidator(URLREGEX);
+    public static final StringValidator IP_VALIDATOR = new StringValidator(IPREGEX);
+    public static final StringValidator CHINESE_VALIDATOR = new StringValidator(CHINESEREGEX);
+    public static final StringValidator ID_NUMBER_VALIDATOR = new StringValidator(IDNUMREGEX);
+
     private StringUtils() {
         throw new UnsupportedOperationException("cannot be instantiated");
     }
@@ -56,13 +72,26 @@ public class StringUtils {
     }
 
     /**
-     * 手机号码验证
+     * 手机号码验证，规则与 TELREGEX 相同：1 开头，第二位为 3、4、5、7、8，共 11 位数字。
+     * 逐字符扫描，不使用正则
      *
      * @param mobiles
      * @return
      */
     public static boolean isMobile(String mobiles) {
-        return check(mobiles, TELREGEX);
+        if (mobiles == null || mobiles.length() != 11 || mobiles.charAt(0) != '1') {
+            return false;
+        }
+        char second = mobiles.charAt(1);
+        if (second != '3' && second != '4' && second != '5' && second != '7' && second != '8') {
+            return false;
+        }
+        for (int i = 2; i < 11; i++) {
+            if (!isDigit(mobiles.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
@@ -72,7 +101,7 @@ public class StringUtils {
      * @return
      */
     public static boolean isEmail(String email) {
-        return check(email, EMAILREGEX);
+        return EMAIL_VALIDATOR.matches(email);
     }
 
     /**
@@ -82,17 +111,127 @@ public class StringUtils {
      * @return
      */
     public static boolean isHttpUrl(String url) {
-        return check(url, URLREGEX);
+        return URL_VALIDATOR.matches(url);
     }
 
     /**
-     * ip 验证
+     * ip 验证，即 {@link #isIPv4(String)}
      *
      * @param ip
      * @return
      */
     public static boolean isIp(String ip) {
-        return check(ip, IPREGEX);
+        return isIPv4(ip);
+    }
+
+    /**
+     * IPv4 点分十进制验证，规则与 IPREGEX 相同：四段，每段 1~3 位数字且不大于 255，允许前导 0。
+     * 逐字符扫描，不使用正则
+     *
+     * @param ip
+     * @return
+     */
+    public static boolean isIPv4(String ip) {
+        return ip != null && ipv4End(ip, 0) == ip.length();
+    }
+
+    /**
+     * 从 start 开始解析一个 IPv4 地址
+     *
+     * @return 地址结束的位置，不是合法地址时返回 -1
+     */
+    private static int ipv4End(String ip, int start) {
+        int i = start;
+        int length = ip.length();
+        for (int part = 0; part < 4; part++) {
+            if (part > 0) {
+                if (i >= length || ip.charAt(i) != '.') {
+                    return -1;
+                }
+                i++;
+            }
+            int value = 0;
+            int digits = 0;
+            while (i < length && digits < 3 && isDigit(ip.charAt(i))) {
+                value = value * 10 + (ip.charAt(i) - '0');
+                digits++;
+                i++;
+            }
+            if (digits == 0 || value > 255) {
+                return -1;
+            }
+        }
+        return i;
+    }
+
+    /**
+     * IPv6 验证（RFC 4291 文本格式）：8 组 1~4 位十六进制数，可用一次 "::" 省略连续的 0 组，
+     * 末尾可以是点分十进制的 IPv4 地址（占两组）。不接受 "%" 区域标识和方括号。
+     * 逐字符扫描，不使用正则
+     *
+     * @param ip
+     * @return
+     */
+    public static boolean isIPv6(String ip) {
+        if (ip == null) {
+            return false;
+        }
+        int length = ip.length();
+        int groups = 0;
+        boolean compressed = false;
+        int i = 0;
+        if (length >= 2 && ip.charAt(0) == ':') {
+            if (ip.charAt(1) != ':') {
+                return false;
+            }
+            compressed = true;
+            i = 2;
+            if (i == length) {
+                return true;
+            }
+        }
+        while (i < length) {
+            int digits = 0;
+            int groupStart = i;
+            while (i < length && digits < 5 && isHexDigit(ip.charAt(i))) {
+                digits++;
+                i++;
+            }
+            if (i < length && ip.charAt(i) == '.') {
+                // 末尾的 IPv4 部分
+                if (groups > 6 || ipv4End(ip, groupStart) != length) {
+                    return false;
+                }
+                groups += 2;
+                i = length;
+                break;
+            }
+            if (digits == 0 || digits > 4) {
+                return false;
+            }
+            groups++;
+            if (i == length) {
+                break;
+            }
+            if (ip.charAt(i) != ':') {
+                return false;
+            }
+            i++;
+            if (i < length && ip.charAt(i) == ':') {
+                if (compressed) {
+                    return false;
+                }
+                compressed = true;
+                i++;
+                if (i == length) {
+                    break;
+                }
+            } else if (i == length) {
+                // 以单个 ':' 结尾
+                return false;
+            }
+        }
+        return compressed ? groups <= 7 : groups == 8;
     }
 
 
@@ -103,7 +242,7 @@ public class StringUtils {
      * @return
      */
     public static boolean isContainChinese(String sequence) {
-        return check(sequence, CHINESEREGEX);
+        return CHINESE_VALIDATOR.matches(sequence);
     }
 
     /**
@@ -113,33 +252,80 @@ public class StringUtils {
      * @return
      */
     public static boolean isIDNumber(String id) {
-        return check(id, IDNUMREGEX);
+        return ID_NUMBER_VALIDATOR.matches(id);
+    }
+
+    /**
+     * 18 位身份证号验证：前 17 位为数字，出生日期合法，最后一位校验码（0~9 或 X/x）正确。
+     * 逐字符扫描，不使用正则
+     *
+     * @param id
+     * @return
+     */
+    public static boolean isIDCard18(String id) {
+        if (id == null || id.length() != 18) {
+            return false;
+        }
+        int sum = 0;
+        for (int i = 0; i < 17; i++) {
+            char c = id.charAt(i);
+            if (!isDigit(c)) {
+                return false;
+            }
+            sum += (c - '0') * ID_WEIGHTS[i];
+        }
+        int year = digits(id, 6, 4);
+        int month = digits(id, 10, 2);
+        int day = digits(id, 12, 2);
+        if (month < 1 || month > 12 || day < 1 || day > DAYS_IN_MONTH[month - 1]) {
+            return false;
+        }
+        if (month == 2 && day == 29 && !(year % 4 == 0 && (year % 100 != 0 || year % 400 == 0))) {
+            return false;
+        }
+        char check = id.charAt(17);
+        if (check == 'x') {
+            check = 'X';
+        }
+        return check == ID_CHECK_CODES.charAt(sum % 11);
     }
 
-    private static boolean check(String content, String rule) {
-        Pattern p = Pattern.compile(rule);
-        Matcher m = p.matcher(content);
-        return m.matches();
+    private static int digits(String s, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            value = value * 10 + (s.charAt(i) - '0');
+        }
+        return value;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isHexDigit(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
     }
 
 
     /**
-     * 十六进制字符串转换为byte数组
+     * 十六进制字符串转换为byte数组，大小写均可，长度为奇数时忽略最后一个字符。
+     * 包含非十六进制字符时打印堆栈并返回 null；早期版本不检查字符，会把非法字符当作 -1
+     * 参与运算并返回错误的数据
      *
      * @param hexString
-     * @return
+     * @return 包含非十六进制字符时返回 null
      */
     public static byte[] hexString2Bytes(String hexString) {
         if (hexString == null || hexString.equals("")) {
             return null;
         }
-        hexString = hexString.toUpperCase();
         int length = hexString.length() / 2;
-        char[] hexChars = hexString.toCharArray();
         byte[] d = new byte[length];
-        for (int i = 0; i < length; i++) {
-            int pos = i * 2;
-            d[i] = (byte) (char2Byte(hexChars[pos]) << 4 | char2Byte(hexChars[pos + 1]));
+        try {
+            HexCodec.decode(hexString, 0, length * 2, d, 0);
+        } catch (IllegalArgumentException e) {
+            e.printStackTrace();
+            return null;
         }
         return d;
     }
@@ -159,17 +345,7 @@ public class StringUtils {
         if (b.length == 0) {
             return null;
         }
-        StringBuilder sb = new StringBuilder("");
-        for (int i = 0; i < b.length; i++) {
-            int value = b[i] & 0xFF;
-            String hv = Integer.toHexString(value);
-            if (hv.length() < 2) {
-                sb.append(0);
-            }
-
-            sb.append(hv);
-        }
-        return sb.toString();
+        return HexCodec.encode(b);
     }
 
     /**
@@ -0,0 +1,164 @@
+/**
+ * Copyright 2016 smartbetter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.smartbetter.utilslibrary;
+
+import java.util.Collection;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 预编译的正则校验器.
+ * <p>
+ * 正则只在构造时编译一次，每个线程复用自己的 Matcher（Matcher 不是线程安全的），
+ * 单次校验不再有编译和创建 Matcher 的开销。批量校验可以在 ForkJoinPool 上并行执行，
+ * 适合导入大量数据时使用。常用规则见 {@link StringUtils} 中的常量。
+ * <p>
+ * Matcher 按校验器实例缓存：每个用过某个校验器的线程都持有它的一个 Matcher（几百字节，随分组数增长），
+ * 直到线程结束，或校验器被回收后 ThreadLocal 清理过期条目。校验器应当像 StringUtils 中的常量那样
+ * 长期复用，不要每次校验都新建，否则每个线程池线程都会积累用不到的 Matcher。
+ */
+public final class StringValidator {
+
+    /**
+     * 并行校验时每个任务至少处理的条数
+     */
+    private static final int MIN_TASK_SIZE = 1024;
+
+    private final Pattern pattern;
+    private final ThreadLocal<Matcher> matchers = new ThreadLocal<Matcher>() {
+        @Override
+        protected Matcher initialValue() {
+            return pattern.matcher("");
+        }
+    };
+
+    /**
+     * @param regex 整个字符串需要匹配的正则
+     */
+    public StringValidator(String regex) {
+        this.pattern = Pattern.compile(regex);
+    }
+
+    public Pattern getPattern() {
+        return pattern;
+    }
+
+    /**
+     * @param content
+     * @return 整个字符串是否匹配，null 返回 false
+     */
+    public boolean matches(CharSequence content) {
+        if (content == null) {
+            return false;
+        }
+        Matcher matcher = matchers.get();
+        boolean matches = matcher.reset(content).matches();
+        // 不让线程里的 Matcher 一直引用输入
+        matcher.reset("");
+        return matches;
+    }
+
+    /**
+     * 批量校验
+     *
+     * @param contents
+     * @return 按遍历顺序的结果
+     */
+    public boolean[] validate(Collection<? extends CharSequence> contents) {
+        CharSequence[] items = contents.toArray(new CharSequence[contents.size()]);
+        boolean[] results = new boolean[items.length];
+        for (int i = 0; i < items.length; i++) {
+            results[i] = matches(items[i]);
+        }
+        return results;
+    }
+
+    /**
+     * 在内部的 ForkJoinPool 上并行批量校验
+     *
+     * @param contents
+     * @return 按遍历顺序的结果
+     */
+    public boolean[] validateParallel(Collection<? extends CharSequence> contents) {
+        return validateParallel(contents, DefaultPool.POOL);
+    }
+
+    /**
+     * 并行批量校验
+     *
+     * @param contents
+     * @param pool
+     * @return 按遍历顺序的结果
+     */
+    public boolean[] validateParallel(Collection<? extends CharSequence> contents, ForkJoinPool pool) {
+        CharSequence[] items = contents.toArray(new CharSequence[contents.size()]);
+        boolean[] results = new boolean[items.length];
+        pool.invoke(new ValidateTask(items, results, 0, items.length));
+        return results;
+    }
+
+    /**
+     * @return 匹配的条数
+     */
+    public static int count(boolean[] results) {
+        int count = 0;
+        for (boolean result : results) {
+            if (result) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 不指定线程池时使用，首次使用时才创建；ForkJoinPool.commonPool() 需要 API 24
+     */
+    private static final class DefaultPool {
+        static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    private final class ValidateTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final CharSequence[] items;
+        private final boolean[] results;
+        private final int from;
+        private final int to;
+
+        ValidateTask(CharSequence[] items, boolean[] results, int from, int to) {
+            this.items = items;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > MIN_TASK_SIZE) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ValidateTask(items, results, from, middle),
+                        new ValidateTask(items, results, middle, to));
+                return;
+            }
+            for (int i = from; i < to; i++) {
+                results[i] = matches(items[i]);
+            }
+        }
+    }
+
+}
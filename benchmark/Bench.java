@@ -0,0 +1,386 @@
+/**
+ * Copyright 2016 smartbetter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.smartbetter.utilslibrary.benchmark;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * 不依赖 JMH 的微基准框架，只用 JDK 自带的类，可以直接用 javac/java 编译运行.
+ * <p>
+ * 每项先预热再计时，按线程数分别测量，输出吞吐量、p50/p99 延迟和每次操作分配的字节数
+ * （HotSpot 的 com.sun.management.ThreadMXBean，不支持时为 -1），结束时可以导出 JSON，
+ * 便于不同版本之间对比。命令行参数：
+ * <pre>
+ * --time=毫秒       每项计时时长，默认 1000
+ * --warmup=毫秒     每项预热时长，默认 500
+ * --threads=1,4     线程数列表，默认 1 和 CPU 数
+ * --max-size=64m    数据量上限，支持 k/m 后缀
+ * --filter=文本     只运行名称包含该文本的项
+ * --json=路径       结果写成 JSON 数组
+ * </pre>
+ * 精度不如 JMH（没有 fork、没有防常量折叠以外的措施），适合比较同一台机器上新旧实现的量级差异。
+ */
+public final class Bench {
+
+    /**
+     * 被测量的操作，返回值会被消费以免被优化掉
+     */
+    public interface Op {
+        Object run() throws Exception;
+    }
+
+    /**
+     * 一项测量的结果
+     */
+    public static final class Result {
+        public final String name;
+        public final String param;
+        public final int threads;
+        public final long ops;
+        public final double opsPerSecond;
+        public final double bytesPerSecond;
+        public final long p50Nanos;
+        public final long p99Nanos;
+        public final double allocatedBytesPerOp;
+
+        Result(String name, String param, int threads, long ops, double opsPerSecond, double bytesPerSecond,
+               long p50Nanos, long p99Nanos, double allocatedBytesPerOp) {
+            this.name = name;
+            this.param = param;
+            this.threads = threads;
+            this.ops = ops;
+            this.opsPerSecond = opsPerSecond;
+            this.bytesPerSecond = bytesPerSecond;
+            this.p50Nanos = p50Nanos;
+            this.p99Nanos = p99Nanos;
+            this.allocatedBytesPerOp = allocatedBytesPerOp;
+        }
+    }
+
+    /**
+     * 每个线程最多保留的延迟样本数，超过后隔一个丢一个并加倍采样间隔
+     */
+    private static final int MAX_SAMPLES = 1 << 16;
+
+    private static volatile Object sSink;
+
+    private final long measureMillis;
+    private final long warmupMillis;
+    private final int[] threadCounts;
+    private final long maxSize;
+    private final String filter;
+    private final String jsonPath;
+    private final List<Result> results = new ArrayList<Result>();
+
+    private Bench(long measureMillis, long warmupMillis, int[] threadCounts, long maxSize, String filter,
+                  String jsonPath) {
+        this.measureMillis = measureMillis;
+        this.warmupMillis = warmupMillis;
+        this.threadCounts = threadCounts;
+        this.maxSize = maxSize;
+        this.filter = filter;
+        this.jsonPath = jsonPath;
+    }
+
+    /**
+     * @param args      命令行参数，见类说明
+     * @param maxSize   未指定 --max-size 时的数据量上限
+     */
+    public static Bench fromArgs(String[] args, long maxSize) {
+        long measureMillis = 1000;
+        long warmupMillis = 500;
+        int cpus = Runtime.getRuntime().availableProcessors();
+        int[] threadCounts = cpus > 1 ? new int[]{1, cpus} : new int[]{1};
+        String filter = null;
+        String jsonPath = null;
+        for (String arg : args) {
+            String value = arg.substring(arg.indexOf('=') + 1);
+            if (arg.startsWith("--time=")) {
+                measureMillis = Long.parseLong(value);
+            } else if (arg.startsWith("--warmup=")) {
+                warmupMillis = Long.parseLong(value);
+            } else if (arg.startsWith("--threads=")) {
+                String[] parts = value.split(",");
+                threadCounts = new int[parts.length];
+                for (int i = 0; i < parts.length; i++) {
+                    threadCounts[i] = Integer.parseInt(parts[i].trim());
+                }
+            } else if (arg.startsWith("--max-size=")) {
+                maxSize = parseSize(value);
+            } else if (arg.startsWith("--filter=")) {
+                filter = value;
+            } else if (arg.startsWith("--json=")) {
+                jsonPath = value;
+            } else {
+                throw new IllegalArgumentException("unknown argument: " + arg);
+            }
+        }
+        return new Bench(measureMillis, warmupMillis, threadCounts, maxSize, filter, jsonPath);
+    }
+
+    static long parseSize(String value) {
+        String lower = value.toLowerCase(Locale.US);
+        long unit = 1;
+        if (lower.endsWith("k")) {
+            unit = 1024;
+        } else if (lower.endsWith("m")) {
+            unit = 1024 * 1024;
+        }
+        if (unit != 1) {
+            lower = lower.substring(0, lower.length() - 1);
+        }
+        return Long.parseLong(lower) * unit;
+    }
+
+    /**
+     * @return 不超过 --max-size 的数据量
+     */
+    public int[] sizes(int... candidates) {
+        int count = 0;
+        int[] sizes = new int[candidates.length];
+        for (int size : candidates) {
+            if (size <= maxSize) {
+                sizes[count++] = size;
+            }
+        }
+        return Arrays.copyOf(sizes, count);
+    }
+
+    public int[] threadCounts() {
+        return threadCounts.clone();
+    }
+
+    /**
+     * 按 --threads 中的每个线程数各测量一次
+     */
+    public void runAllThreads(String name, String param, long bytesPerOp, Op op) throws Exception {
+        for (int threads : threadCounts) {
+            run(name, param, bytesPerOp, threads, op);
+        }
+    }
+
+    /**
+     * @param name       项目名，如 "AESUtils.encrypt"
+     * @param param      参数描述，如数据大小
+     * @param bytesPerOp 每次操作处理的字节数，用于计算 MB/s，不适用时为 0
+     * @param threads    并发执行 op 的线程数
+     */
+    public Result run(String name, String param, long bytesPerOp, int threads, final Op op) throws Exception {
+        if (filter != null && !(name + " " + param).contains(filter)) {
+            return null;
+        }
+        final Worker[] workers = new Worker[threads];
+        final CountDownLatch done = new CountDownLatch(threads);
+        final long start = System.nanoTime();
+        final long measureStart = start + warmupMillis * 1000000L;
+        final long measureEnd = measureStart + measureMillis * 1000000L;
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Worker(op, measureStart, measureEnd, done);
+            Thread thread = new Thread(workers[i], "bench-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        done.await();
+        long ops = 0;
+        long elapsed = 0;
+        long allocated = 0;
+        long[] samples = new long[0];
+        for (Worker worker : workers) {
+            if (worker.failure != null) {
+                throw worker.failure;
+            }
+            ops += worker.ops;
+            elapsed = Math.max(elapsed, worker.elapsedNanos);
+            allocated = allocated < 0 || worker.allocated < 0 ? -1 : allocated + worker.allocated;
+            samples = concat(samples, worker.samples, worker.sampleCount);
+        }
+        Arrays.sort(samples);
+        // 单次操作比计时区间还长时按实际耗时计算
+        double seconds = elapsed / 1e9;
+        double opsPerSecond = ops / seconds;
+        Result result = new Result(name, param, threads, ops, opsPerSecond, opsPerSecond * bytesPerOp,
+                percentile(samples, 0.50), percentile(samples, 0.99),
+                allocated < 0 || ops == 0 ? -1 : (double) allocated / ops);
+        results.add(result);
+        print(result);
+        return result;
+    }
+
+    private static long[] concat(long[] a, long[] b, int bLength) {
+        long[] all = Arrays.copyOf(a, a.length + bLength);
+        System.arraycopy(b, 0, all, a.length, bLength);
+        return all;
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))];
+    }
+
+    private static void print(Result r) {
+        System.out.println(String.format(Locale.US, "%-44s %-12s %2d thr %14.1f ops/s %10.1f MB/s  p50 %10s  p99 %10s  %12s B/op",
+                r.name, r.param, r.threads, r.opsPerSecond, r.bytesPerSecond / 1e6,
+                formatNanos(r.p50Nanos), formatNanos(r.p99Nanos),
+                r.allocatedBytesPerOp < 0 ? "n/a" : String.format(Locale.US, "%.1f", r.allocatedBytesPerOp)));
+    }
+
+    private static String formatNanos(long nanos) {
+        if (nanos < 10000) {
+            return nanos + " ns";
+        }
+        if (nanos < 10000000) {
+            return String.format(Locale.US, "%.1f us", nanos / 1e3);
+        }
+        return String.format(Locale.US, "%.1f ms", nanos / 1e6);
+    }
+
+    /**
+     * 写出 --json 指定的文件，没有指定时什么也不做
+     */
+    public void finish() throws IOException {
+        if (jsonPath == null) {
+            return;
+        }
+        StringBuilder json = new StringBuilder("[\n");
+        for (int i = 0; i < results.size(); i++) {
+            Result r = results.get(i);
+            json.append("  {\"name\": ").append(quote(r.name))
+                    .append(", \"param\": ").append(quote(r.param))
+                    .append(", \"threads\": ").append(r.threads)
+                    .append(", \"ops\": ").append(r.ops)
+                    .append(", \"opsPerSecond\": ").append(String.format(Locale.US, "%.3f", r.opsPerSecond))
+                    .append(", \"bytesPerSecond\": ").append(String.format(Locale.US, "%.3f", r.bytesPerSecond))
+                    .append(", \"p50Nanos\": ").append(r.p50Nanos)
+                    .append(", \"p99Nanos\": ").append(r.p99Nanos)
+                    .append(", \"allocatedBytesPerOp\": ")
+                    .append(String.format(Locale.US, "%.1f", r.allocatedBytesPerOp))
+                    .append(i + 1 < results.size() ? "},\n" : "}\n");
+        }
+        json.append("]\n");
+        Writer out = new OutputStreamWriter(new FileOutputStream(jsonPath), "UTF-8");
+        try {
+            out.write(json.toString());
+        } finally {
+            out.close();
+        }
+    }
+
+    private static String quote(String value) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format(Locale.US, "\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    /**
+     * 消费一个值，防止 JIT 把被测代码当作无用代码消除
+     */
+    public static void consume(Object value) {
+        sSink = value;
+    }
+
+    /**
+     * @return 当前线程累计分配的字节数，不支持时返回 -1
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static final class Worker implements Runnable {
+        private final Op op;
+        private final long measureStart;
+        private final long measureEnd;
+        private final CountDownLatch done;
+
+        long ops;
+        long elapsedNanos;
+        long allocated;
+        long[] samples = new long[MAX_SAMPLES];
+        int sampleCount;
+        Exception failure;
+
+        Worker(Op op, long measureStart, long measureEnd, CountDownLatch done) {
+            this.op = op;
+            this.measureStart = measureStart;
+            this.measureEnd = measureEnd;
+            this.done = done;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (System.nanoTime() < measureStart) {
+                    consume(op.run());
+                }
+                int stride = 1;
+                long before = allocatedBytes();
+                long begin = System.nanoTime();
+                long now = begin;
+                // 至少测量一次
+                do {
+                    Object value = op.run();
+                    long end = System.nanoTime();
+                    if (ops % stride == 0) {
+                        if (sampleCount == samples.length) {
+                            // 隔一个保留一个，之后的采样间隔加倍，样本仍均匀分布在整个计时区间
+                            for (int i = 0; i < sampleCount / 2; i++) {
+                                samples[i] = samples[i * 2];
+                            }
+                            sampleCount /= 2;
+                            stride *= 2;
+                        }
+                        samples[sampleCount++] = end - now;
+                    }
+                    ops++;
+                    now = end;
+                    consume(value);
+                } while (now < measureEnd);
+                elapsedNanos = now - begin;
+                long after = allocatedBytes();
+                allocated = before < 0 || after < 0 ? -1 : after - before;
+            } catch (Exception e) {
+                failure = e;
+            } finally {
+                done.countDown();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,89 @@
+package com.redli.tmvpsimple.util;
+
+import net.smartbetter.utilslibrary.benchmark.Bench;
+
+/**
+ * Cost of finding the caller of a log call, at several stack depths:
+ * <ul>
+ * <li>legacy: the helpers LogUtils used before, two exception captures and
+ * string concatenation per message</li>
+ * <li>Throwable: one {@code new Throwable().getStackTrace()}, the capture
+ * {@link CallSiteResolver} falls back to on Android</li>
+ * <li>resolve: {@link CallSiteResolver#resolve()}, which walks lazily with
+ * StackWalker on JVM 9+ and caches the strings per call site</li>
+ * </ul>
+ * Lives in the util package for package-private access. On a desktop JVM it
+ * needs a working stub of android.util.Log on the classpath, because the
+ * SDK's android.jar only throws "Stub!"; best run on a device:
+ * <pre>
+ * java -cp out com.redli.tmvpsimple.util.CallSiteBenchmark --threads=1
+ * </pre>
+ */
+public class CallSiteBenchmark {
+
+    private static final int[] DEPTHS = {8, 32, 128};
+
+    public static void main(String[] args) throws Exception {
+        Bench bench = Bench.fromArgs(args, 0);
+        for (final int depth : DEPTHS) {
+            String param = "depth " + depth;
+            bench.runAllThreads("callsite.legacy 2x Exception", param, 0, new Bench.Op() {
+                @Override
+                public Object run() {
+                    return atDepth(depth, 0);
+                }
+            });
+            bench.runAllThreads("callsite.Throwable once", param, 0, new Bench.Op() {
+                @Override
+                public Object run() {
+                    return atDepth(depth, 1);
+                }
+            });
+            bench.runAllThreads("callsite.CallSiteResolver", param, 0, new Bench.Op() {
+                @Override
+                public Object run() {
+                    return atDepth(depth, 2);
+                }
+            });
+        }
+        bench.finish();
+    }
+
+    private static Object atDepth(int depth, int mode) {
+        if (depth > 0) {
+            return atDepth(depth - 1, mode);
+        }
+        switch (mode) {
+            case 0:
+                return legacyClassName() + legacyCallMethodAndLine();
+            case 1:
+                return new Throwable().getStackTrace()[1];
+            default:
+                return CallSiteResolver.resolve();
+        }
+    }
+
+    /**
+     * LogUtils.getClassName() before the change.
+     */
+    private static String legacyClassName() {
+        String result = "";
+        StackTraceElement thisMethodStack = (new Exception()).getStackTrace()[2];
+        result = thisMethodStack.getClassName();
+        return result;
+    }
+
+    /**
+     * LogUtils.callMethodAndLine() before the change.
+     */
+    private static String legacyCallMethodAndLine() {
+        String result = "at ";
+        StackTraceElement thisMethodStack = (new Exception()).getStackTrace()[2];
+        result += thisMethodStack.getClassName() + ".";
+        result += thisMethodStack.getMethodName();
+        result += "(" + thisMethodStack.getFileName();
+        result += ":" + thisMethodStack.getLineNumber() + ")  ";
+        return result;
+    }
+
+}
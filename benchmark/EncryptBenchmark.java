@@ -0,0 +1,116 @@
+/**
+ * Copyright 2016 smartbetter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.smartbetter.utilslibrary.benchmark;
+
+import net.smartbetter.utilslibrary.encrypt.AESUtils;
+import net.smartbetter.utilslibrary.encrypt.DESUtils;
+import net.smartbetter.utilslibrary.encrypt.MD5Utils;
+import net.smartbetter.utilslibrary.encrypt.SHA512Utils;
+import net.smartbetter.utilslibrary.encrypt.TripleDESUtils;
+
+import java.util.Random;
+
+/**
+ * encrypt 包对外 API 的吞吐量矩阵：AES/DES/3DES 加解密与 MD5/SHA-512 摘要，
+ * 数据量 16B 到 64MB，单线程与多线程各测一次.
+ * <pre>
+ * java -Xmx2g -cp out net.smartbetter.utilslibrary.benchmark.EncryptBenchmark --json=encrypt.json
+ * </pre>
+ */
+public class EncryptBenchmark {
+
+    static final int[] SIZES = {16, 256, 4 * 1024, 64 * 1024, 1024 * 1024, 16 * 1024 * 1024, 64 * 1024 * 1024};
+
+    public static void main(String[] args) throws Exception {
+        Bench bench = Bench.fromArgs(args, 64L * 1024 * 1024);
+        final byte[] aesKey = AESUtils.initKey(128);
+        final byte[] desKey = DESUtils.initKey56();
+        final byte[] tripleDesKey = TripleDESUtils.initKey168();
+        for (int size : bench.sizes(SIZES)) {
+            final byte[] data = randomBytes(size);
+            final byte[] aesSealed = AESUtils.encrypt(data, aesKey);
+            final byte[] desSealed = DESUtils.encrypt(data, desKey);
+            final byte[] tripleDesSealed = TripleDESUtils.encrypt(data, tripleDesKey);
+            String param = sizeName(size);
+            bench.runAllThreads("AESUtils.encrypt", param, size, new Bench.Op() {
+                @Override
+                public Object run() {
+                    return AESUtils.encrypt(data, aesKey);
+                }
+            });
+            bench.runAllThreads("AESUtils.decrypt", param, size, new Bench.Op() {
+                @Override
+                public Object run() {
+                    return AESUtils.decrypt(aesSealed, aesKey);
+                }
+            });
+            bench.runAllThreads("DESUtils.encrypt", param, size, new Bench.Op() {
+                @Override
+                public Object run() {
+                    return DESUtils.encrypt(data, desKey);
+                }
+            });
+            bench.runAllThreads("DESUtils.decrypt", param, size, new Bench.Op() {
+                @Override
+                public Object run() {
+                    return DESUtils.decrypt(desSealed, desKey);
+                }
+            });
+            bench.runAllThreads("TripleDESUtils.encrypt", param, size, new Bench.Op() {
+                @Override
+                public Object run() {
+                    return TripleDESUtils.encrypt(data, tripleDesKey);
+                }
+            });
+            bench.runAllThreads("TripleDESUtils.decrypt", param, size, new Bench.Op() {
+                @Override
+                public Object run() {
+                    return TripleDESUtils.decrypt(tripleDesSealed, tripleDesKey);
+                }
+            });
+            bench.runAllThreads("MD5Utils.digest", param, size, new Bench.Op() {
+                @Override
+                public Object run() {
+                    return MD5Utils.digest(data);
+                }
+            });
+            bench.runAllThreads("SHA512Utils.digest", param, size, new Bench.Op() {
+                @Override
+                public Object run() {
+                    return SHA512Utils.digest(data);
+                }
+            });
+        }
+        bench.finish();
+    }
+
+    static byte[] randomBytes(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    static String sizeName(long size) {
+        if (size >= 1024 * 1024 && size % (1024 * 1024) == 0) {
+            return size / (1024 * 1024) + "MB";
+        }
+        if (size >= 1024 && size % 1024 == 0) {
+            return size / 1024 + "KB";
+        }
+        return size + "B";
+    }
+
+}
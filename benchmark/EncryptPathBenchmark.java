@@ -0,0 +1,292 @@
+/**
+ * Copyright 2016 smartbetter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.smartbetter.utilslibrary.benchmark;
+
+import net.smartbetter.utilslibrary.encrypt.AESUtils;
+import net.smartbetter.utilslibrary.encrypt.ChunkedAESUtils;
+import net.smartbetter.utilslibrary.encrypt.HexCodec;
+import net.smartbetter.utilslibrary.encrypt.MD5Utils;
+import net.smartbetter.utilslibrary.encrypt.MerkleDigest;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * encrypt 包中各项优化与原实现的对比，原实现按改动前的代码照搬在本类中（legacy 开头的方法）：
+ * <ul>
+ * <li>Cipher 按线程复用 与 每次 Cipher.getInstance + init</li>
+ * <li>分块并行 AES-GCM 与 单次 AES-GCM</li>
+ * <li>内存映射的文件摘要 与 FileInputStream 逐块读取；查表十六进制 与 Integer.toHexString 拼接</li>
+ * <li>HexCodec 编解码（16B、64B、1MB）与 Integer.toHexString / String.indexOf</li>
+ * <li>Merkle 树只更新修改过的块 与 重新计算整个文件</li>
+ * </ul>
+ */
+public class EncryptPathBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        Bench bench = Bench.fromArgs(args, 64L * 1024 * 1024);
+        cipherReuse(bench);
+        chunkedGcm(bench);
+        fileDigest(bench);
+        hexCodec(bench);
+        merkle(bench);
+        bench.finish();
+    }
+
+    private static void cipherReuse(Bench bench) throws Exception {
+        final byte[] key = AESUtils.initKey(128);
+        for (int size : bench.sizes(16, 256, 4 * 1024)) {
+            final byte[] data = EncryptBenchmark.randomBytes(size);
+            String param = EncryptBenchmark.sizeName(size);
+            bench.runAllThreads("cipher.legacy getInstance+init", param, size, new Bench.Op() {
+                @Override
+                public Object run() throws Exception {
+                    Cipher cipher = Cipher.getInstance("AES");
+                    cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"));
+                    return cipher.doFinal(data);
+                }
+            });
+            bench.runAllThreads("cipher.AESUtils per-thread", param, size, new Bench.Op() {
+                @Override
+                public Object run() {
+                    return AESUtils.encrypt(data, key);
+                }
+            });
+        }
+    }
+
+    private static void chunkedGcm(Bench bench) throws Exception {
+        final byte[] key = AESUtils.initKey(128);
+        final SecureRandom random = new SecureRandom();
+        for (int size : bench.sizes(1024 * 1024, 16 * 1024 * 1024, 64 * 1024 * 1024)) {
+            final byte[] data = EncryptBenchmark.randomBytes(size);
+            String param = EncryptBenchmark.sizeName(size);
+            // 两者内部各自决定并行度，只用一个调用线程
+            bench.run("gcm.single-shot", param, size, 1, new Bench.Op() {
+                @Override
+                public Object run() throws Exception {
+                    byte[] iv = new byte[12];
+                    random.nextBytes(iv);
+                    Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+                    cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"), new GCMParameterSpec(128, iv));
+                    return cipher.doFinal(data);
+                }
+            });
+            bench.run("gcm.ChunkedAESUtils", param, size, 1, new Bench.Op() {
+                @Override
+                public Object run() {
+                    return ChunkedAESUtils.encrypt(data, key);
+                }
+            });
+        }
+    }
+
+    private static void fileDigest(Bench bench) throws Exception {
+        for (int size : bench.sizes(64 * 1024, 16 * 1024 * 1024)) {
+            final File file = tempFile(size);
+            String param = EncryptBenchmark.sizeName(size);
+            bench.runAllThreads("digest.legacy FileInputStream", param, size, new Bench.Op() {
+                @Override
+                public Object run() throws Exception {
+                    return legacyDigest(file);
+                }
+            });
+            bench.runAllThreads("digest.MD5Utils mapped", param, size, new Bench.Op() {
+                @Override
+                public Object run() {
+                    return MD5Utils.digest(file);
+                }
+            });
+            file.delete();
+        }
+        final String text = "13800138000@example.com";
+        bench.runAllThreads("md5hex.legacy toHexString", "23 chars", 0, new Bench.Op() {
+            @Override
+            public Object run() throws Exception {
+                return legacyMD5Hex(text);
+            }
+        });
+        bench.runAllThreads("md5hex.MD5Utils", "23 chars", 0, new Bench.Op() {
+            @Override
+            public Object run() {
+                return MD5Utils.encryptMD5ForBuilder(text);
+            }
+        });
+    }
+
+    private static void hexCodec(Bench bench) throws Exception {
+        for (int size : bench.sizes(16, 64, 1024 * 1024)) {
+            final byte[] data = EncryptBenchmark.randomBytes(size);
+            final String hex = HexCodec.encode(data);
+            final char[] chars = new char[size * 2];
+            final byte[] bytes = new byte[size];
+            String param = EncryptBenchmark.sizeName(size);
+            bench.run("hex.encode legacy", param, size, 1, new Bench.Op() {
+                @Override
+                public Object run() {
+                    return legacyEncode(data);
+                }
+            });
+            bench.run("hex.encode HexCodec", param, size, 1, new Bench.Op() {
+                @Override
+                public Object run() {
+                    return HexCodec.encode(data);
+                }
+            });
+            bench.run("hex.encode HexCodec char[]", param, size, 1, new Bench.Op() {
+                @Override
+                public Object run() {
+                    return HexCodec.encode(data, 0, data.length, chars, 0, false);
+                }
+            });
+            bench.run("hex.decode legacy", param, size, 1, new Bench.Op() {
+                @Override
+                public Object run() {
+                    return legacyDecode(hex);
+                }
+            });
+            bench.run("hex.decode HexCodec", param, size, 1, new Bench.Op() {
+                @Override
+                public Object run() {
+                    return HexCodec.decode(hex);
+                }
+            });
+            bench.run("hex.decode HexCodec byte[]", param, size, 1, new Bench.Op() {
+                @Override
+                public Object run() {
+                    return HexCodec.decode(hex, 0, hex.length(), bytes, 0);
+                }
+            });
+        }
+    }
+
+    private static void merkle(Bench bench) throws Exception {
+        final int blockSize = 1024 * 1024;
+        for (int size : bench.sizes(16 * 1024 * 1024, 64 * 1024 * 1024)) {
+            final File file = tempFile(size);
+            final MerkleDigest tree = MerkleDigest.build(file, "SHA-256", blockSize);
+            final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            String param = EncryptBenchmark.sizeName(size);
+            bench.run("merkle.legacy full SHA-256", param, size, 1, new Bench.Op() {
+                @Override
+                public Object run() throws Exception {
+                    return legacyDigest(file, "SHA-256");
+                }
+            });
+            bench.run("merkle.update one block", param, size, 1, new Bench.Op() {
+                private long offset;
+
+                @Override
+                public Object run() throws Exception {
+                    offset = (offset + blockSize) % raf.length();
+                    raf.seek(offset);
+                    raf.write((int) offset);
+                    tree.update(raf.getChannel(), offset, 1);
+                    return tree.getRoot();
+                }
+            });
+            raf.close();
+            file.delete();
+        }
+    }
+
+    private static File tempFile(int size) throws Exception {
+        File file = File.createTempFile("bench", ".bin");
+        file.deleteOnExit();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            byte[] chunk = EncryptBenchmark.randomBytes(Math.min(size, 1024 * 1024));
+            for (int written = 0; written < size; written += chunk.length) {
+                raf.write(chunk, 0, Math.min(chunk.length, size - written));
+            }
+        } finally {
+            raf.close();
+        }
+        return file;
+    }
+
+    private static byte[] legacyDigest(File file) throws Exception {
+        return legacyDigest(file, "MD5");
+    }
+
+    private static byte[] legacyDigest(File file, String algorithm) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance(algorithm);
+        FileInputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        return digest.digest();
+    }
+
+    /**
+     * 改动前的 MD5Utils.encryptMD5ForBuilder
+     */
+    private static String legacyMD5Hex(String str) throws Exception {
+        StringBuilder builder = new StringBuilder();
+        MessageDigest digest = MessageDigest.getInstance("MD5");
+        digest.update(str.getBytes());
+        for (byte b : digest.digest()) {
+            String hexStr = Integer.toHexString(b & 0xff);
+            builder.append(hexStr.length() == 1 ? "0" + hexStr : hexStr);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 改动前的 StringUtils.bytes2HexString
+     */
+    private static String legacyEncode(byte[] b) {
+        StringBuilder sb = new StringBuilder("");
+        for (int i = 0; i < b.length; i++) {
+            String hv = Integer.toHexString(b[i] & 0xFF);
+            if (hv.length() < 2) {
+                sb.append(0);
+            }
+            sb.append(hv);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 改动前的 StringUtils.hexString2Bytes
+     */
+    private static byte[] legacyDecode(String hexString) {
+        hexString = hexString.toUpperCase();
+        int length = hexString.length() / 2;
+        char[] hexChars = hexString.toCharArray();
+        byte[] d = new byte[length];
+        for (int i = 0; i < length; i++) {
+            int pos = i * 2;
+            d[i] = (byte) ("0123456789ABCDEF".indexOf(hexChars[pos]) << 4
+                    | "0123456789ABCDEF".indexOf(hexChars[pos + 1]));
+        }
+        return d;
+    }
+
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright 2016 smartbetter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.smartbetter.utilslibrary.benchmark;
+
+import android.content.SharedPreferences;
+
+import net.smartbetter.utilslibrary.MappedKVStore;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Properties;
+
+/**
+ * 修改一个键并提交的开销：{@link MappedKVStore} 与 XML 整文件重写对比，文件中预先有 100/1000 个键.
+ * <p>
+ * 系统的 SharedPreferencesImpl 只能在设备上运行，这里用 Properties.storeToXML 加 fsync
+ * 模拟它每次提交的行为（整个 map 序列化为 XML、写入并 sync）。MappedKVStore 用到
+ * android.os.Handler/Looper，主机上运行需要实现了这几个方法的桩类（SDK 的 android.jar
+ * 只能用于编译）：
+ * <pre>
+ * java -cp out net.smartbetter.utilslibrary.benchmark.MappedKVBenchmark --threads=1
+ * </pre>
+ * 在设备上可以把 legacy 一项换成 Context.getSharedPreferences 的 commit() 得到真实的对比。
+ */
+public class MappedKVBenchmark {
+
+    private static final int[] KEY_COUNTS = {100, 1000};
+
+    public static void main(String[] args) throws Exception {
+        Bench bench = Bench.fromArgs(args, 0);
+        File dir = File.createTempFile("kvbench", "");
+        dir.delete();
+        dir.mkdirs();
+        for (int keys : KEY_COUNTS) {
+            String param = keys + " keys";
+            final File xml = new File(dir, "legacy" + keys + ".xml");
+            final Properties properties = new Properties();
+            final SharedPreferences store = MappedKVStore.open(dir, "mapped" + keys);
+            SharedPreferences.Editor editor = store.edit();
+            for (int i = 0; i < keys; i++) {
+                properties.setProperty("key" + i, "value " + i);
+                editor.putString("key" + i, "value " + i);
+            }
+            editor.commit();
+            bench.run("kv.legacy xml rewrite+fsync commit", param, 0, 1, new Bench.Op() {
+                private int i;
+
+                @Override
+                public Object run() throws Exception {
+                    properties.setProperty("key0", "value " + i++);
+                    FileOutputStream out = new FileOutputStream(xml);
+                    try {
+                        properties.storeToXML(out, null, "UTF-8");
+                        out.getFD().sync();
+                    } finally {
+                        out.close();
+                    }
+                    return properties;
+                }
+            });
+            bench.run("kv.MappedKVStore commit", param, 0, 1, new Bench.Op() {
+                private int i;
+
+                @Override
+                public Object run() {
+                    return store.edit().putString("key0", "value " + i++).commit();
+                }
+            });
+            bench.run("kv.MappedKVStore apply", param, 0, 1, new Bench.Op() {
+                private int i;
+
+                @Override
+                public Object run() {
+                    store.edit().putString("key0", "value " + i++).apply();
+                    return store;
+                }
+            });
+            bench.run("kv.MappedKVStore getString", param, 0, 1, new Bench.Op() {
+                @Override
+                public Object run() {
+                    return store.getString("key1", null);
+                }
+            });
+        }
+        bench.finish();
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+}
@@ -0,0 +1,142 @@
+/**
+ * Copyright 2016 smartbetter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.smartbetter.utilslibrary.benchmark;
+
+import net.smartbetter.utilslibrary.StringUtils;
+import net.smartbetter.utilslibrary.StringValidator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+/**
+ * StringUtils 校验与原实现的对比。原实现每次调用 Pattern.compile(rule).matcher(content).matches()，
+ * 在本类的 legacyCheck 中照搬：
+ * <ul>
+ * <li>单次校验：每次编译正则 与 StringValidator 预编译并复用 Matcher 与 逐字符扫描</li>
+ * <li>批量校验手机号（--max-size 限制行数）：逐条编译、validate、validateParallel</li>
+ * </ul>
+ * <pre>
+ * java -cp out net.smartbetter.utilslibrary.benchmark.StringValidatorBenchmark --threads=1,4
+ * </pre>
+ */
+public class StringValidatorBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        Bench bench = Bench.fromArgs(args, 100000);
+        single(bench, "mobile", StringUtils.MOBILE_VALIDATOR, "13800138000", new Bench.Op() {
+            @Override
+            public Object run() {
+                return StringUtils.isMobile("13800138000");
+            }
+        });
+        single(bench, "ipv4", StringUtils.IP_VALIDATOR, "192.168.100.254", new Bench.Op() {
+            @Override
+            public Object run() {
+                return StringUtils.isIPv4("192.168.100.254");
+            }
+        });
+        single(bench, "email", StringUtils.EMAIL_VALIDATOR, "someone.name@example.com", null);
+        single(bench, "url", StringUtils.URL_VALIDATOR, "https://www.example.com/path?q=1", null);
+        bulk(bench);
+        bench.finish();
+    }
+
+    /**
+     * @param scanner 对应的逐字符扫描实现，没有时为 null
+     */
+    private static void single(Bench bench, String param, final StringValidator validator, final String content,
+                               Bench.Op scanner) throws Exception {
+        final String rule = validator.getPattern().pattern();
+        bench.runAllThreads("validate.legacy compile per call", param, 0, new Bench.Op() {
+            @Override
+            public Object run() {
+                return legacyCheck(content, rule);
+            }
+        });
+        bench.runAllThreads("validate.StringValidator", param, 0, new Bench.Op() {
+            @Override
+            public Object run() {
+                return validator.matches(content);
+            }
+        });
+        if (scanner != null) {
+            bench.runAllThreads("validate.scanner", param, 0, scanner);
+        }
+    }
+
+    private static void bulk(Bench bench) throws Exception {
+        final String rule = StringUtils.MOBILE_VALIDATOR.getPattern().pattern();
+        for (int size : bench.sizes(1000, 100000)) {
+            final List<String> rows = mobileRows(size);
+            String param = size + " rows";
+            // 批量接口内部决定并行度，只用一个调用线程
+            bench.run("bulk.legacy compile per row", param, 0, 1, new Bench.Op() {
+                @Override
+                public Object run() {
+                    int count = 0;
+                    for (String row : rows) {
+                        if (legacyCheck(row, rule)) {
+                            count++;
+                        }
+                    }
+                    return count;
+                }
+            });
+            bench.run("bulk.validate", param, 0, 1, new Bench.Op() {
+                @Override
+                public Object run() {
+                    return StringValidator.count(StringUtils.MOBILE_VALIDATOR.validate(rows));
+                }
+            });
+            bench.run("bulk.validateParallel", param, 0, 1, new Bench.Op() {
+                @Override
+                public Object run() {
+                    return StringValidator.count(StringUtils.MOBILE_VALIDATOR.validateParallel(rows));
+                }
+            });
+        }
+    }
+
+    /**
+     * 手机号，约四成不合法（第二位为 6、9 或少一位）
+     */
+    private static List<String> mobileRows(int size) {
+        Random random = new Random(size);
+        List<String> rows = new ArrayList<String>(size);
+        for (int i = 0; i < size; i++) {
+            StringBuilder row = new StringBuilder("1");
+            row.append("3456789".charAt(random.nextInt(7)));
+            for (int j = 0; j < 9; j++) {
+                row.append((char) ('0' + random.nextInt(10)));
+            }
+            if (random.nextInt(4) == 0) {
+                row.setLength(10);
+            }
+            rows.add(row.toString());
+        }
+        return rows;
+    }
+
+    /**
+     * 改动前的 StringUtils.check
+     */
+    private static boolean legacyCheck(String content, String rule) {
+        return Pattern.compile(rule).matcher(content).matches();
+    }
+
+}
@@ -15,15 +15,19 @@
  */
 package net.smartbetter.utilslibrary.encrypt;
 
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.security.GeneralSecurityException;
 
-import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
-import javax.crypto.IllegalBlockSizeException;
-import javax.crypto.KeyGenerator;
-import javax.crypto.NoSuchPaddingException;
-import javax.crypto.SecretKey;
+import javax.crypto.CipherInputStream;
+import javax.crypto.CipherOutputStream;
 import javax.crypto.spec.SecretKeySpec;
 
 /**
@@ -32,6 +36,12 @@ import javax.crypto.spec.SecretKeySpec;
  */
 public class AESUtils {
 
+    private static final String TRANSFORMATION = "AES";
+    /**
+     * 按线程复用 Cipher，见 {@link CipherEngine}
+     */
+    private static final CipherEngine ENGINE = CipherEngine.get(TRANSFORMATION, "AES");
+
     private AESUtils() {
         throw new UnsupportedOperationException("cannot be instantiated");
     }
@@ -42,15 +52,7 @@ public class AESUtils {
      * @return
      */
     public static byte[] initKey256() {
-        KeyGenerator keyGen = null;
-        try {
-            keyGen = KeyGenerator.getInstance("AES");
-            keyGen.init(256);  //192 256
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
-        }
-        SecretKey secretKey = keyGen.generateKey();
-        return secretKey.getEncoded();
+        return KeyUtils.generateKey("AES", 256);  //192 256
     }
 
     /**
@@ -60,15 +62,7 @@ public class AESUtils {
      * @return
      */
     public static byte[] initKey(int keysize) {
-        KeyGenerator keyGen = null;
-        try {
-            keyGen = KeyGenerator.getInstance("AES");
-            keyGen.init(keysize);  //192 256
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
-        }
-        SecretKey secretKey = keyGen.generateKey();
-        return secretKey.getEncoded();
+        return KeyUtils.generateKey("AES", keysize);  //192 256
     }
 
     /**
@@ -79,21 +73,9 @@ public class AESUtils {
      * @return
      */
     public static byte[] encrypt(byte[] data, byte[] key) {
-        SecretKey secretKey = new SecretKeySpec(key, "AES");
         try {
-            Cipher cipher = Cipher.getInstance("AES");
-            cipher.init(Cipher.ENCRYPT_MODE, secretKey);
-            byte[] cipherBytes = cipher.doFinal(data);
-            return cipherBytes;
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
-        } catch (NoSuchPaddingException e) {
-            e.printStackTrace();
-        } catch (InvalidKeyException e) {
-            e.printStackTrace();
-        } catch (IllegalBlockSizeException e) {
-            e.printStackTrace();
-        } catch (BadPaddingException e) {
+            return ENGINE.doFinal(Cipher.ENCRYPT_MODE, key, data);
+        } catch (GeneralSecurityException e) {
             e.printStackTrace();
         }
         return null;
@@ -107,24 +89,143 @@ public class AESUtils {
      * @return
      */
     public static byte[] decrypt(byte[] data, byte[] key) {
-        SecretKey secretKey = new SecretKeySpec(key, "AES");
         try {
-            Cipher cipher = Cipher.getInstance("AES");
-            cipher.init(Cipher.DECRYPT_MODE, secretKey);
-            byte[] plainBytes = cipher.doFinal(data);
-            return plainBytes;
-        } catch (NoSuchAlgorithmException e) {
+            return ENGINE.doFinal(Cipher.DECRYPT_MODE, key, data);
+        } catch (GeneralSecurityException e) {
             e.printStackTrace();
-        } catch (NoSuchPaddingException e) {
+        }
+        return null;
+    }
+
+    /**
+     * AES 流式加密，分段处理，内存占用与数据大小无关，结果与 {@link #encrypt(byte[], byte[])} 相同。
+     * 不关闭两个流
+     *
+     * @param in
+     * @param out
+     * @param key
+     * @return 写入的字节数，失败时返回 -1
+     */
+    public static long encrypt(InputStream in, OutputStream out, byte[] key) {
+        return transform(Cipher.ENCRYPT_MODE, in, out, key);
+    }
+
+    /**
+     * AES 流式解密，见 {@link #encrypt(InputStream, OutputStream, byte[])}
+     *
+     * @param in
+     * @param out
+     * @param key
+     * @return 写入的字节数，失败时返回 -1
+     */
+    public static long decrypt(InputStream in, OutputStream out, byte[] key) {
+        return transform(Cipher.DECRYPT_MODE, in, out, key);
+    }
+
+    private static long transform(int mode, InputStream in, OutputStream out, byte[] key) {
+        try {
+            return ENGINE.transform(mode, key, null, in, out);
+        } catch (GeneralSecurityException e) {
+            e.printStackTrace();
+        } catch (IOException e) {
             e.printStackTrace();
-        } catch (InvalidKeyException e) {
+        }
+        return -1;
+    }
+
+    /**
+     * AES 加密文件，通过 FileChannel 和直接缓冲区分段处理，适合大文件
+     *
+     * @param src  明文文件
+     * @param dest 密文文件，已存在时覆盖
+     * @param key
+     * @return 是否成功
+     */
+    public static boolean encryptFile(File src, File dest, byte[] key) {
+        return transformFile(Cipher.ENCRYPT_MODE, src, dest, key);
+    }
+
+    /**
+     * AES 解密文件，见 {@link #encryptFile(File, File, byte[])}
+     *
+     * @param src  密文文件
+     * @param dest 明文文件，已存在时覆盖
+     * @param key
+     * @return 是否成功
+     */
+    public static boolean decryptFile(File src, File dest, byte[] key) {
+        return transformFile(Cipher.DECRYPT_MODE, src, dest, key);
+    }
+
+    private static boolean transformFile(int mode, File src, File dest, byte[] key) {
+        FileInputStream in = null;
+        FileOutputStream out = null;
+        try {
+            in = new FileInputStream(src);
+            out = new FileOutputStream(dest);
+            FileChannel inChannel = in.getChannel();
+            FileChannel outChannel = out.getChannel();
+            ENGINE.transform(mode, key, null, inChannel, outChannel);
+            // 关闭时才能确认数据已写出，关闭失败同样视为失败
+            out.close();
+            out = null;
+            return true;
+        } catch (GeneralSecurityException e) {
             e.printStackTrace();
-        } catch (IllegalBlockSizeException e) {
+        } catch (IOException e) {
             e.printStackTrace();
-        } catch (BadPaddingException e) {
+        } finally {
+            closeQuietly(in);
+            closeQuietly(out);
+        }
+        // 不留下只写了一半的结果
+        dest.delete();
+        return false;
+    }
+
+    /**
+     * 包装为边写边加密的输出流，关闭时写入最后一块。返回的流使用独立的 Cipher，可以在任意线程使用
+     *
+     * @param out
+     * @param key
+     * @return 失败时返回 null
+     */
+    public static OutputStream encryptingStream(OutputStream out, byte[] key) {
+        Cipher cipher = newCipher(Cipher.ENCRYPT_MODE, key);
+        return cipher != null ? new CipherOutputStream(out, cipher) : null;
+    }
+
+    /**
+     * 包装为边读边解密的输入流，见 {@link #encryptingStream(OutputStream, byte[])}
+     *
+     * @param in
+     * @param key
+     * @return 失败时返回 null
+     */
+    public static InputStream decryptingStream(InputStream in, byte[] key) {
+        Cipher cipher = newCipher(Cipher.DECRYPT_MODE, key);
+        return cipher != null ? new CipherInputStream(in, cipher) : null;
+    }
+
+    private static Cipher newCipher(int mode, byte[] key) {
+        try {
+            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            cipher.init(mode, new SecretKeySpec(key, "AES"));
+            return cipher;
+        } catch (GeneralSecurityException e) {
             e.printStackTrace();
         }
         return null;
     }
 
-}
\ No newline at end of file
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,370 @@
+/**
+ * Copyright 2016 smartbetter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.smartbetter.utilslibrary.encrypt;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * 分块并行的 AES-GCM 加密.
+ * <p>
+ * 数据按固定大小分块，每块独立加密并带有自己的认证标签，在 ForkJoinPool 上并行处理；
+ * 解密时也可以只解出其中一块。容器格式：
+ * <pre>
+ * 头部  magic "ACG1" | version:u8 | chunkSize:u32 | length:u64 | nonce:12字节
+ * 块 i  AES-GCM(明文第 i 块) || tag(16)，从 HEADER_LENGTH + i * (chunkSize + 16) 开始
+ * </pre>
+ * nonce 是每次加密随机生成的 96 位数，每个容器用 HKDF-SHA256(key, salt = nonce) 派生
+ * 自己的子密钥，第 i 块的 IV 为 8 个 0 字节 || i（大端 32 位），块不能调换顺序。
+ * 只有两个容器的 nonce 完全相同时才会出现（子密钥, IV）重复，同一密钥加密 2^32 个容器时
+ * 这一概率约为 2^-33。整个头部作为每一块的附加认证数据，改动块大小或总长度（截断）
+ * 都会导致认证失败。
+ */
+public class ChunkedAESUtils {
+
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+    private static final byte[] MAGIC = {'A', 'C', 'G', '1'};
+    /**
+     * 版本 1 的 nonce 只有 64 位且直接用主密钥加密，不再支持
+     */
+    private static final int VERSION = 2;
+    private static final int NONCE_LENGTH = 12;
+    private static final int HEADER_LENGTH = MAGIC.length + 1 + 4 + 8 + NONCE_LENGTH;
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_LENGTH = 16;
+    private static final byte[] SUBKEY_INFO = {'A', 'C', 'G', ' ', 'c', 'h', 'u', 'n', 'k', ' ', 'k', 'e', 'y'};
+    /**
+     * 每个任务至少处理的字节数，过小的任务调度开销比加密还大
+     */
+    private static final int MIN_TASK_BYTES = 256 * 1024;
+
+    private static final CipherEngine ENGINE = CipherEngine.get("AES/GCM/NoPadding", "AES");
+    private static final SecureRandom sRandom = new SecureRandom();
+
+    private ChunkedAESUtils() {
+        throw new UnsupportedOperationException("cannot be instantiated");
+    }
+
+    /**
+     * 不指定线程池时使用，首次使用时才创建；ForkJoinPool.commonPool() 需要 API 24
+     */
+    private static final class DefaultPool {
+        static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * 以默认块大小在内部的 ForkJoinPool 上加密
+     *
+     * @param data
+     * @param key  16/24/32 字节
+     * @return 容器，失败时返回 null
+     */
+    public static byte[] encrypt(byte[] data, byte[] key) {
+        return encrypt(data, key, DEFAULT_CHUNK_SIZE, DefaultPool.POOL);
+    }
+
+    /**
+     * @param data
+     * @param key
+     * @param chunkSize 每块明文的字节数
+     * @param pool      执行加密的线程池
+     * @return 容器，失败时返回 null
+     */
+    public static byte[] encrypt(byte[] data, byte[] key, int chunkSize, ForkJoinPool pool) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize must be positive");
+        }
+        int chunks = chunkCount(data.length, chunkSize);
+        long size = HEADER_LENGTH + (long) data.length + (long) chunks * TAG_LENGTH;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("data too large for a byte array container");
+        }
+        byte[] container = new byte[(int) size];
+        ByteBuffer header = ByteBuffer.wrap(container, 0, HEADER_LENGTH);
+        header.put(MAGIC).put((byte) VERSION).putInt(chunkSize).putLong(data.length);
+        byte[] nonce = new byte[NONCE_LENGTH];
+        sRandom.nextBytes(nonce);
+        header.put(nonce);
+        Header parsed = new Header(container);
+        byte[] subkey = parsed.subkey(key);
+        if (subkey == null
+                || !run(pool, new ChunkTask(Cipher.ENCRYPT_MODE, subkey, parsed, data, container, 0, chunks))) {
+            return null;
+        }
+        return container;
+    }
+
+    /**
+     * 在内部的 ForkJoinPool 上解密整个容器
+     *
+     * @param container
+     * @param key
+     * @return 明文，密钥错误或数据被篡改时返回 null
+     */
+    public static byte[] decrypt(byte[] container, byte[] key) {
+        return decrypt(container, key, DefaultPool.POOL);
+    }
+
+    public static byte[] decrypt(byte[] container, byte[] key, ForkJoinPool pool) {
+        Header header = Header.parse(container);
+        if (header == null) {
+            return null;
+        }
+        byte[] subkey = header.subkey(key);
+        if (subkey == null) {
+            return null;
+        }
+        byte[] plain = new byte[(int) header.length];
+        if (!run(pool, new ChunkTask(Cipher.DECRYPT_MODE, subkey, header, container, plain, 0, header.chunks))) {
+            return null;
+        }
+        return plain;
+    }
+
+    /**
+     * 只解密其中一块，不需要处理其它数据
+     *
+     * @param container 完整的容器
+     * @param key
+     * @param index     块序号，从 0 开始
+     * @return 该块明文，失败时返回 null
+     */
+    public static byte[] decryptChunk(byte[] container, byte[] key, int index) {
+        return decryptChunk(ByteBuffer.wrap(container), key, index);
+    }
+
+    /**
+     * 只解密其中一块。container 可以是映射到内存的文件，只会读取头部和这一块；
+     * 其 position 到 limit 为完整容器，调用后 position 不变
+     *
+     * @return 该块明文，失败时返回 null
+     */
+    public static byte[] decryptChunk(ByteBuffer container, byte[] key, int index) {
+        ByteBuffer view = container.duplicate();
+        if (view.remaining() < HEADER_LENGTH) {
+            return null;
+        }
+        byte[] headerBytes = new byte[HEADER_LENGTH];
+        view.get(headerBytes);
+        Header header = Header.parse(headerBytes);
+        if (header == null || index < 0 || index >= header.chunks) {
+            return null;
+        }
+        int plainLength = header.chunkLength(index);
+        long offset = header.chunkOffset(index);
+        if (view.remaining() < offset - HEADER_LENGTH + plainLength + TAG_LENGTH) {
+            return null;
+        }
+        view.position(container.position() + (int) offset);
+        view.limit(view.position() + plainLength + TAG_LENGTH);
+        byte[] plain = new byte[plainLength];
+        try {
+            byte[] subkey = KeyUtils.deriveHkdf(key, header.nonce(), SUBKEY_INFO, key.length);
+            Cipher cipher = ENGINE.cipher(Cipher.DECRYPT_MODE, subkey,
+                    new GCMParameterSpec(TAG_LENGTH * 8, header.iv(index)));
+            cipher.updateAAD(header.bytes, 0, HEADER_LENGTH);
+            cipher.doFinal(view, ByteBuffer.wrap(plain));
+            return plain;
+        } catch (GeneralSecurityException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * @return 容器中的块数，格式不对时返回 -1
+     */
+    public static int getChunkCount(byte[] container) {
+        Header header = Header.parse(container);
+        return header != null ? header.chunks : -1;
+    }
+
+    /**
+     * @return 容器解密后的长度，格式不对时返回 -1
+     */
+    public static long getPlainLength(byte[] container) {
+        Header header = Header.parse(container);
+        return header != null ? header.length : -1;
+    }
+
+    private static int chunkCount(long length, int chunkSize) {
+        // 空数据也有一块，保证有认证标签
+        return length == 0 ? 1 : (int) ((length + chunkSize - 1) / chunkSize);
+    }
+
+    private static boolean run(ForkJoinPool pool, ChunkTask task) {
+        try {
+            pool.invoke(task);
+            return true;
+        } catch (ChunkException e) {
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    /**
+     * 解析后的头部
+     */
+    private static final class Header {
+        final byte[] bytes;
+        final int chunkSize;
+        final long length;
+        final int chunks;
+
+        Header(byte[] bytes) {
+            this.bytes = bytes;
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, MAGIC.length + 1, 12);
+            this.chunkSize = buffer.getInt();
+            this.length = buffer.getLong();
+            this.chunks = chunkCount(length, chunkSize);
+        }
+
+        static Header parse(byte[] bytes) {
+            if (bytes.length < HEADER_LENGTH) {
+                return null;
+            }
+            for (int i = 0; i < MAGIC.length; i++) {
+                if (bytes[i] != MAGIC[i]) {
+                    return null;
+                }
+            }
+            if (bytes[MAGIC.length] != VERSION) {
+                return null;
+            }
+            Header header = new Header(bytes);
+            if (header.chunkSize <= 0 || header.length < 0) {
+                return null;
+            }
+            if (bytes.length > HEADER_LENGTH && bytes.length != header.containerLength()) {
+                // 传入的是完整容器时长度必须吻合；只有头部时用于随机访问
+                return null;
+            }
+            return header;
+        }
+
+        long containerLength() {
+            return HEADER_LENGTH + length + (long) chunks * TAG_LENGTH;
+        }
+
+        long chunkOffset(int index) {
+            return HEADER_LENGTH + (long) index * (chunkSize + TAG_LENGTH);
+        }
+
+        int chunkLength(int index) {
+            return (int) Math.min(chunkSize, length - (long) index * chunkSize);
+        }
+
+        byte[] nonce() {
+            return Arrays.copyOfRange(bytes, HEADER_LENGTH - NONCE_LENGTH, HEADER_LENGTH);
+        }
+
+        /**
+         * @return 本容器的子密钥，失败时返回 null
+         */
+        byte[] subkey(byte[] key) {
+            try {
+                return KeyUtils.deriveHkdf(key, nonce(), SUBKEY_INFO, key.length);
+            } catch (GeneralSecurityException e) {
+                e.printStackTrace();
+            }
+            return null;
+        }
+
+        byte[] iv(int index) {
+            byte[] iv = new byte[IV_LENGTH];
+            iv[8] = (byte) (index >>> 24);
+            iv[9] = (byte) (index >>> 16);
+            iv[10] = (byte) (index >>> 8);
+            iv[11] = (byte) index;
+            return iv;
+        }
+    }
+
+    /**
+     * 把 ForkJoin 任务中的加解密异常带回调用线程
+     */
+    private static final class ChunkException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        ChunkException(GeneralSecurityException cause) {
+            super(cause);
+        }
+    }
+
+    /**
+     * 处理 [from, to) 范围内的块，范围较大时对半拆分
+     */
+    private static final class ChunkTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int mode;
+        private final byte[] key;
+        private final Header header;
+        private final byte[] input;
+        private final byte[] output;
+        private final int from;
+        private final int to;
+
+        ChunkTask(int mode, byte[] key, Header header, byte[] input, byte[] output, int from, int to) {
+            this.mode = mode;
+            this.key = key;
+            this.header = header;
+            this.input = input;
+            this.output = output;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1 && (long) (to - from) * header.chunkSize > MIN_TASK_BYTES) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ChunkTask(mode, key, header, input, output, from, middle),
+                        new ChunkTask(mode, key, header, input, output, middle, to));
+                return;
+            }
+            try {
+                for (int i = from; i < to; i++) {
+                    process(i);
+                }
+            } catch (GeneralSecurityException e) {
+                throw new ChunkException(e);
+            }
+        }
+
+        private void process(int index) throws GeneralSecurityException {
+            int plainLength = header.chunkLength(index);
+            int sealedOffset = (int) header.chunkOffset(index);
+            int plainOffset = index * header.chunkSize;
+            Cipher cipher = ENGINE.cipher(mode, key, new GCMParameterSpec(TAG_LENGTH * 8, header.iv(index)));
+            cipher.updateAAD(header.bytes, 0, HEADER_LENGTH);
+            if (mode == Cipher.ENCRYPT_MODE) {
+                cipher.doFinal(input, plainOffset, plainLength, output, sealedOffset);
+            } else {
+                cipher.doFinal(input, sealedOffset, plainLength + TAG_LENGTH, output, plainOffset);
+            }
+        }
+    }
+
+}
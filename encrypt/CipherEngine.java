@@ -0,0 +1,271 @@
+/**
+ * Copyright 2016 smartbetter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.smartbetter.utilslibrary.encrypt;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.GeneralSecurityException;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * 按 transformation 复用 Cipher 实例.
+ * <p>
+ * 每个线程对每种 transformation 只调用一次 Cipher.getInstance。对不需要 IV 的模式（ECB），
+ * 如果密钥和加解密方向与上一次相同，doFinal 之后 Cipher 已回到 init 之后的状态，
+ * 直接复用而不再 init；需要 IV 的模式每次都用新参数 init。
+ * <pre>
+ * CipherEngine engine = CipherEngine.get("AES/ECB/PKCS5Padding", "AES");
+ * byte[] out = engine.doFinal(Cipher.ENCRYPT_MODE, key, data);
+ * </pre>
+ * Cipher 不是线程安全的，{@link #cipher(int, byte[], AlgorithmParameterSpec)} 返回的实例只能在当前线程使用。
+ */
+public final class CipherEngine {
+
+    private static final int STREAM_BUFFER_SIZE = 8192;
+    private static final int CHANNEL_BUFFER_SIZE = 64 * 1024;
+
+    private static final ConcurrentHashMap<String, CipherEngine> sEngines =
+            new ConcurrentHashMap<String, CipherEngine>();
+
+    /**
+     * 当前线程缓存的 Cipher 及其最近一次 init 的参数
+     */
+    private static final class Slot {
+        final Cipher cipher;
+        byte[] key;
+        SecretKeySpec keySpec;
+        int mode;
+        /**
+         * 上一次操作是否以 doFinal 正常结束，否则 Cipher 的状态未知，必须重新 init
+         */
+        boolean reusable;
+        /**
+         * {@link #transform(int, byte[], AlgorithmParameterSpec, ReadableByteChannel, WritableByteChannel)}
+         * 使用的直接缓冲区，按需分配后一直复用
+         */
+        ByteBuffer channelIn;
+        ByteBuffer channelOut;
+
+        Slot(Cipher cipher) {
+            this.cipher = cipher;
+        }
+    }
+
+    private final String transformation;
+    private final String algorithm;
+    private final ThreadLocal<Slot> slots = new ThreadLocal<Slot>();
+
+    private CipherEngine(String transformation, String algorithm) {
+        this.transformation = transformation;
+        this.algorithm = algorithm;
+    }
+
+    /**
+     * @param transformation 如 "AES/GCM/NoPadding"
+     * @param algorithm      密钥算法，如 "AES"、"DESede"
+     * @return 同一 transformation 始终返回同一个对象
+     */
+    public static CipherEngine get(String transformation, String algorithm) {
+        String id = transformation + '|' + algorithm;
+        CipherEngine engine = sEngines.get(id);
+        if (engine == null) {
+            engine = new CipherEngine(transformation, algorithm);
+            CipherEngine raced = sEngines.putIfAbsent(id, engine);
+            if (raced != null) {
+                engine = raced;
+            }
+        }
+        return engine;
+    }
+
+    public String getTransformation() {
+        return transformation;
+    }
+
+    /**
+     * 获取当前线程已 init 的 Cipher，用于 update() 分段处理。
+     * 调用方必须以 doFinal 结束，且不能跨线程使用。
+     *
+     * @param mode   Cipher.ENCRYPT_MODE 或 Cipher.DECRYPT_MODE
+     * @param key    原始密钥
+     * @param params IV 等参数，不需要时传 null
+     * @return
+     * @throws GeneralSecurityException
+     */
+    public Cipher cipher(int mode, byte[] key, AlgorithmParameterSpec params) throws GeneralSecurityException {
+        return prepare(mode, key, params).cipher;
+    }
+
+    private Slot prepare(int mode, byte[] key, AlgorithmParameterSpec params) throws GeneralSecurityException {
+        Slot slot = slots.get();
+        if (slot == null) {
+            slot = new Slot(Cipher.getInstance(transformation));
+            slots.set(slot);
+        }
+        boolean reuse = params == null && slot.reusable && slot.mode == mode && Arrays.equals(slot.key, key);
+        // 操作正常结束后才会重新置为 true，中途抛出异常或交给调用方分段处理时下次一定重新 init
+        slot.reusable = false;
+        if (reuse) {
+            return slot;
+        }
+        if (!Arrays.equals(slot.key, key)) {
+            slot.key = key.clone();
+            slot.keySpec = new SecretKeySpec(key, algorithm);
+        }
+        slot.mode = mode;
+        if (params != null) {
+            slot.cipher.init(mode, slot.keySpec, params);
+        } else {
+            slot.cipher.init(mode, slot.keySpec);
+        }
+        return slot;
+    }
+
+    /**
+     * 一次性加密或解密
+     *
+     * @param mode
+     * @param key
+     * @param data
+     * @return
+     * @throws GeneralSecurityException
+     */
+    public byte[] doFinal(int mode, byte[] key, byte[] data) throws GeneralSecurityException {
+        return doFinal(mode, key, null, data, 0, data.length);
+    }
+
+    public byte[] doFinal(int mode, byte[] key, AlgorithmParameterSpec params,
+                          byte[] data, int offset, int length) throws GeneralSecurityException {
+        Slot slot = prepare(mode, key, params);
+        byte[] result = slot.cipher.doFinal(data, offset, length);
+        slot.reusable = true;
+        return result;
+    }
+
+    /**
+     * 在 ByteBuffer 之间加密或解密，不复制到中间数组。input 的剩余部分全部处理，
+     * 结果从 output 的 position 开始写入
+     *
+     * @return 写入 output 的字节数
+     * @throws javax.crypto.ShortBufferException output 剩余空间不足 {@link #getOutputSize} 时
+     */
+    public int doFinal(int mode, byte[] key, AlgorithmParameterSpec params,
+                       ByteBuffer input, ByteBuffer output) throws GeneralSecurityException {
+        Slot slot = prepare(mode, key, params);
+        int written = slot.cipher.doFinal(input, output);
+        slot.reusable = true;
+        return written;
+    }
+
+    /**
+     * @return 处理 inputLength 字节所需的最大输出长度
+     */
+    public int getOutputSize(int mode, byte[] key, AlgorithmParameterSpec params, int inputLength)
+            throws GeneralSecurityException {
+        return prepare(mode, key, params).cipher.getOutputSize(inputLength);
+    }
+
+    /**
+     * 用 update() 分段处理整个输入流，内存占用与数据大小无关。不关闭两个流
+     *
+     * @return 写入 out 的字节数
+     */
+    public long transform(int mode, byte[] key, AlgorithmParameterSpec params,
+                          InputStream in, OutputStream out) throws GeneralSecurityException, IOException {
+        Slot slot = prepare(mode, key, params);
+        Cipher cipher = slot.cipher;
+        byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+        byte[] output = new byte[cipher.getOutputSize(STREAM_BUFFER_SIZE)];
+        long total = 0;
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            output = ensureCapacity(output, cipher.getOutputSize(read));
+            int length = cipher.update(buffer, 0, read, output);
+            out.write(output, 0, length);
+            total += length;
+        }
+        // GCM 解密时所有明文都在 doFinal 中输出
+        output = ensureCapacity(output, cipher.getOutputSize(0));
+        int length = cipher.doFinal(output, 0);
+        out.write(output, 0, length);
+        total += length;
+        slot.reusable = true;
+        return total;
+    }
+
+    /**
+     * 用 update() 在两个通道之间分段处理，读写都使用当前线程复用的直接缓冲区，
+     * 内存占用固定，数据不经过 Java 堆。不关闭两个通道
+     *
+     * @return 写入 out 的字节数
+     */
+    public long transform(int mode, byte[] key, AlgorithmParameterSpec params,
+                          ReadableByteChannel in, WritableByteChannel out) throws GeneralSecurityException, IOException {
+        Slot slot = prepare(mode, key, params);
+        Cipher cipher = slot.cipher;
+        if (slot.channelIn == null) {
+            slot.channelIn = ByteBuffer.allocateDirect(CHANNEL_BUFFER_SIZE);
+            slot.channelOut = ByteBuffer.allocateDirect(cipher.getOutputSize(CHANNEL_BUFFER_SIZE));
+        }
+        ByteBuffer input = slot.channelIn;
+        ByteBuffer output = slot.channelOut;
+        input.clear();
+        long total = 0;
+        while (in.read(input) != -1) {
+            input.flip();
+            output = ensureCapacity(output, cipher.getOutputSize(input.remaining()));
+            output.clear();
+            cipher.update(input, output);
+            total += drain(output, out);
+            input.clear();
+        }
+        input.flip();
+        output = ensureCapacity(output, cipher.getOutputSize(input.remaining()));
+        output.clear();
+        cipher.doFinal(input, output);
+        total += drain(output, out);
+        slot.channelOut = output;
+        slot.reusable = true;
+        return total;
+    }
+
+    private static int drain(ByteBuffer output, WritableByteChannel out) throws IOException {
+        output.flip();
+        int length = output.remaining();
+        while (output.hasRemaining()) {
+            out.write(output);
+        }
+        return length;
+    }
+
+    private static ByteBuffer ensureCapacity(ByteBuffer buffer, int size) {
+        return buffer.capacity() >= size ? buffer : ByteBuffer.allocateDirect(size);
+    }
+
+    private static byte[] ensureCapacity(byte[] buffer, int size) {
+        return buffer.length >= size ? buffer : new byte[size];
+    }
+
+}
@@ -15,16 +15,9 @@
  */
 package net.smartbetter.utilslibrary.encrypt;
 
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
+import java.security.GeneralSecurityException;
 
-import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
-import javax.crypto.IllegalBlockSizeException;
-import javax.crypto.KeyGenerator;
-import javax.crypto.NoSuchPaddingException;
-import javax.crypto.SecretKey;
-import javax.crypto.spec.SecretKeySpec;
 
 /**
  * DES对称加密
@@ -32,6 +25,11 @@ import javax.crypto.spec.SecretKeySpec;
  */
 public class DESUtils {
 
+    /**
+     * 按线程复用 Cipher，见 {@link CipherEngine}
+     */
+    private static final CipherEngine ENGINE = CipherEngine.get("DES/ECB/PKCS5Padding", "DES");
+
     private DESUtils() {
         throw new UnsupportedOperationException("cannot be instantiated");
     }
@@ -42,15 +40,7 @@ public class DESUtils {
      * @return
      */
     public static byte[] initKey56() {
-        KeyGenerator keyGen = null;
-        try {
-            keyGen = KeyGenerator.getInstance("DES");
-            keyGen.init(56);
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
-        }
-        SecretKey secretKey = keyGen.generateKey();
-        return secretKey.getEncoded();
+        return KeyUtils.generateKey("DES", 56);
     }
 
     /**
@@ -60,15 +50,7 @@ public class DESUtils {
      * @return
      */
     public static byte[] initKey(int keysize) {
-        KeyGenerator keyGen = null;
-        try {
-            keyGen = KeyGenerator.getInstance("DES");
-            keyGen.init(keysize);
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
-        }
-        SecretKey secretKey = keyGen.generateKey();
-        return secretKey.getEncoded();
+        return KeyUtils.generateKey("DES", keysize);
     }
 
     /**
@@ -79,21 +61,9 @@ public class DESUtils {
      * @return
      */
     public static byte[] encrypt(byte[] data, byte[] key) {
-        SecretKey secretKey = new SecretKeySpec(key, "DES");
         try {
-            Cipher cipher = Cipher.getInstance("DES/ECB/PKCS5Padding");
-            cipher.init(Cipher.ENCRYPT_MODE, secretKey);
-            byte[] cipherBytes = cipher.doFinal(data);
-            return cipherBytes;
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
-        } catch (NoSuchPaddingException e) {
-            e.printStackTrace();
-        } catch (InvalidKeyException e) {
-            e.printStackTrace();
-        } catch (IllegalBlockSizeException e) {
-            e.printStackTrace();
-        } catch (BadPaddingException e) {
+            return ENGINE.doFinal(Cipher.ENCRYPT_MODE, key, data);
+        } catch (GeneralSecurityException e) {
             e.printStackTrace();
         }
         return null;
@@ -107,21 +77,9 @@ public class DESUtils {
      * @return
      */
     public static byte[] decrypt(byte[] data, byte[] key) {
-        SecretKey secretKey = new SecretKeySpec(key, "DES");
         try {
-            Cipher cipher = Cipher.getInstance("DES/ECB/PKCS5Padding");
-            cipher.init(Cipher.DECRYPT_MODE, secretKey);
-            byte[] plainBytes = cipher.doFinal(data);
-            return plainBytes;
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
-        } catch (NoSuchPaddingException e) {
-            e.printStackTrace();
-        } catch (InvalidKeyException e) {
-            e.printStackTrace();
-        } catch (IllegalBlockSizeException e) {
-            e.printStackTrace();
-        } catch (BadPaddingException e) {
+            return ENGINE.doFinal(Cipher.DECRYPT_MODE, key, data);
+        } catch (GeneralSecurityException e) {
             e.printStackTrace();
         }
         return null;
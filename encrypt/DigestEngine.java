@@ -0,0 +1,193 @@
+/**
+ * Copyright 2016 smartbetter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.smartbetter.utilslibrary.encrypt;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * MD5Utils、SHA512Utils 共用的摘要实现.
+ * <p>
+ * 每个线程对每种算法只调用一次 MessageDigest.getInstance；文件通过 FileChannel 分段映射到内存后计算，
+ * 不经过 Java 堆上的缓冲区；十六进制由 {@link HexCodec} 查表生成。
+ * 抛出异常的 digest 方法供包内使用，hex、tryDigest 与工具类的对外约定一致：出错时打印堆栈并返回 null。
+ */
+final class DigestEngine {
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int STREAM_BUFFER_SIZE = 8192;
+    /**
+     * 每次映射的最大长度，避免大文件一次占用过多地址空间
+     */
+    private static final long MAP_WINDOW = 32L * 1024 * 1024;
+
+    private final String algorithm;
+    private final ThreadLocal<MessageDigest> digests = new ThreadLocal<MessageDigest>();
+
+    DigestEngine(String algorithm) {
+        this.algorithm = algorithm;
+    }
+
+    /**
+     * @return 当前线程已 reset 的 MessageDigest
+     */
+    MessageDigest digest() throws NoSuchAlgorithmException {
+        MessageDigest digest = digests.get();
+        if (digest == null) {
+            digest = MessageDigest.getInstance(algorithm);
+            digests.set(digest);
+        } else {
+            digest.reset();
+        }
+        return digest;
+    }
+
+    byte[] digest(byte[] data) throws NoSuchAlgorithmException {
+        MessageDigest digest = digest();
+        digest.update(data);
+        return digest.digest();
+    }
+
+    /**
+     * 计算 position 到 limit 之间的数据，调用后 buffer 的 position 不变
+     */
+    byte[] digest(ByteBuffer data) throws NoSuchAlgorithmException {
+        MessageDigest digest = digest();
+        digest.update(data.duplicate());
+        return digest.digest();
+    }
+
+    /**
+     * 读取到流结束，不关闭流
+     */
+    byte[] digest(InputStream in) throws NoSuchAlgorithmException, IOException {
+        MessageDigest digest = digest();
+        byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            digest.update(buffer, 0, read);
+        }
+        return digest.digest();
+    }
+
+    /**
+     * 通过内存映射计算整个通道的内容，与通道当前 position 无关，不关闭通道
+     */
+    byte[] digest(FileChannel channel) throws NoSuchAlgorithmException, IOException {
+        MessageDigest digest = digest();
+        long size = channel.size();
+        for (long position = 0; position < size; position += MAP_WINDOW) {
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                    Math.min(MAP_WINDOW, size - position));
+            digest.update(window);
+        }
+        return digest.digest();
+    }
+
+    byte[] digest(File file) throws NoSuchAlgorithmException, IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            return digest(in.getChannel());
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * 字符串按 UTF-8 编码
+     *
+     * @return 小写十六进制摘要，str 为空时返回 null，不支持该算法时返回 ""
+     */
+    String hex(String str) {
+        if (str == null || str.length() == 0) {
+            return null;
+        }
+        try {
+            return HexCodec.encode(digest(str.getBytes(UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            e.printStackTrace();
+        }
+        return "";
+    }
+
+    byte[] tryDigest(byte[] data) {
+        try {
+            return digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    byte[] tryDigest(ByteBuffer data) {
+        try {
+            return digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    byte[] tryDigest(InputStream in) {
+        try {
+            return digest(in);
+        } catch (NoSuchAlgorithmException e) {
+            e.printStackTrace();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    byte[] tryDigest(FileChannel channel) {
+        try {
+            return digest(channel);
+        } catch (NoSuchAlgorithmException e) {
+            e.printStackTrace();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    byte[] tryDigest(File file) {
+        try {
+            return digest(file);
+        } catch (NoSuchAlgorithmException e) {
+            e.printStackTrace();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * @return 小写十六进制，digest 为 null 时返回 null
+     */
+    static String toHex(byte[] digest) {
+        return digest != null ? HexCodec.encode(digest) : null;
+    }
+
+}
@@ -0,0 +1,260 @@
+/**
+ * Copyright 2016 smartbetter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.smartbetter.utilslibrary.encrypt;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Cipher;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * 自描述的加密信封.
+ * <p>
+ * 格式（多字节整数均为大端）：
+ * <pre>
+ * magic "EV" | version:u8 | algorithm:u8 | ivLength:u8 | keyIdLength:u8 | iv | keyId | payloadLength:u32
+ * 密文(payloadLength) | tag(16)
+ * </pre>
+ * payloadLength 之前的部分是头部，整体作为 AES-GCM 的附加认证数据，改动其中任何字段
+ * （包括 keyId）都会导致解密失败。{@link #seal} 直接写入调用方提供的 ByteBuffer，
+ * {@link #parse} 只解析头部，IV、keyId 和密文都是原缓冲区的 slice，不复制数据，
+ * 适合直接对接 FileChannel 和网络缓冲区。
+ */
+public final class Envelope {
+
+    public static final int VERSION = 1;
+    /**
+     * AES/GCM/NoPadding，12 字节 IV，16 字节 tag
+     */
+    public static final int ALGORITHM_AES_GCM = 1;
+
+    private static final byte MAGIC_0 = 'E';
+    private static final byte MAGIC_1 = 'V';
+    private static final int FIXED_HEADER_LENGTH = 2 + 1 + 1 + 1 + 1 + 4;
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_LENGTH = 16;
+
+    private static final CipherEngine ENGINE = CipherEngine.get("AES/GCM/NoPadding", "AES");
+
+    private final int version;
+    private final int algorithm;
+    private final ByteBuffer header;
+    private final ByteBuffer iv;
+    private final ByteBuffer keyId;
+    private final ByteBuffer ciphertext;
+
+    private Envelope(int version, int algorithm, ByteBuffer header, ByteBuffer iv, ByteBuffer keyId,
+                     ByteBuffer ciphertext) {
+        this.version = version;
+        this.algorithm = algorithm;
+        this.header = header;
+        this.iv = iv;
+        this.keyId = keyId;
+        this.ciphertext = ciphertext;
+    }
+
+    /**
+     * @param plainLength 明文字节数
+     * @param keyIdLength keyId 字节数
+     * @return 信封的总长度，用于预先分配缓冲区
+     */
+    public static int sealedSize(int plainLength, int keyIdLength) {
+        return FIXED_HEADER_LENGTH + IV_LENGTH + keyIdLength + plainLength + TAG_LENGTH;
+    }
+
+    /**
+     * 加密 plaintext 的剩余部分，把完整信封写到 out 的当前位置。
+     * 成功后 plaintext 的 position 到达 limit，out 的 position 前进写入的字节数
+     *
+     * @param key       16/24/32 字节 AES 密钥
+     * @param keyId     标识所用密钥，便于轮换，最多 255 字节，可为 null
+     * @param plaintext
+     * @param out       剩余空间至少 {@link #sealedSize(int, int)}
+     * @return 写入的字节数
+     * @throws ShortBufferException out 空间不足时，此时两个缓冲区都不变
+     * @throws GeneralSecurityException
+     */
+    public static int seal(byte[] key, byte[] keyId, ByteBuffer plaintext, ByteBuffer out)
+            throws GeneralSecurityException {
+        int keyIdLength = keyId != null ? keyId.length : 0;
+        if (keyIdLength > 255) {
+            throw new IllegalArgumentException("keyId longer than 255 bytes");
+        }
+        int size = sealedSize(plaintext.remaining(), keyIdLength);
+        if (out.remaining() < size) {
+            throw new ShortBufferException("need " + size + " bytes, " + out.remaining() + " remaining");
+        }
+        byte[] iv = KeyUtils.randomBytes(IV_LENGTH);
+        int start = out.position();
+        out.put(MAGIC_0).put(MAGIC_1).put((byte) VERSION).put((byte) ALGORITHM_AES_GCM)
+                .put((byte) IV_LENGTH).put((byte) keyIdLength).put(iv);
+        if (keyId != null) {
+            out.put(keyId);
+        }
+        putInt(out, plaintext.remaining());
+        ByteBuffer header = out.duplicate();
+        header.limit(out.position());
+        header.position(start);
+        try {
+            Cipher cipher = ENGINE.cipher(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH * 8, iv));
+            cipher.updateAAD(header);
+            cipher.doFinal(plaintext, out);
+        } catch (GeneralSecurityException e) {
+            out.position(start);
+            throw e;
+        }
+        return out.position() - start;
+    }
+
+    /**
+     * 解析 in 当前位置的信封，不复制负载。成功后 in 的 position 移到信封之后，
+     * 可以连续解析同一缓冲区中的多个信封
+     *
+     * @param in
+     * @return 剩余数据不足一个完整信封时返回 null，position 不变
+     * @throws IllegalArgumentException 不是信封或版本、算法不支持时
+     */
+    public static Envelope parse(ByteBuffer in) {
+        int start = in.position();
+        if (in.remaining() < FIXED_HEADER_LENGTH) {
+            return null;
+        }
+        if (in.get(start) != MAGIC_0 || in.get(start + 1) != MAGIC_1) {
+            throw new IllegalArgumentException("not an envelope");
+        }
+        int version = in.get(start + 2) & 0xff;
+        int algorithm = in.get(start + 3) & 0xff;
+        if (version != VERSION) {
+            throw new IllegalArgumentException("unsupported envelope version " + version);
+        }
+        if (algorithm != ALGORITHM_AES_GCM) {
+            throw new IllegalArgumentException("unsupported algorithm " + algorithm);
+        }
+        int ivLength = in.get(start + 4) & 0xff;
+        int keyIdLength = in.get(start + 5) & 0xff;
+        if (ivLength != IV_LENGTH) {
+            throw new IllegalArgumentException("unexpected iv length " + ivLength);
+        }
+        int headerLength = FIXED_HEADER_LENGTH + ivLength + keyIdLength;
+        if (in.remaining() < headerLength) {
+            return null;
+        }
+        long payloadLength = getInt(in, start + headerLength - 4) & 0xffffffffL;
+        long total = headerLength + payloadLength + TAG_LENGTH;
+        if (in.remaining() < total) {
+            return null;
+        }
+        int ivStart = start + 6;
+        Envelope envelope = new Envelope(version, algorithm,
+                slice(in, start, headerLength),
+                slice(in, ivStart, ivLength),
+                slice(in, ivStart + ivLength, keyIdLength),
+                slice(in, start + headerLength, (int) (payloadLength + TAG_LENGTH)));
+        in.position(start + (int) total);
+        return envelope;
+    }
+
+    /**
+     * 解密负载，写入 out 的当前位置，out 的 position 前进 {@link #getPayloadLength()}
+     *
+     * @param key
+     * @param out 剩余空间至少 {@link #getPayloadLength()}
+     * @return 写入的字节数
+     * @throws javax.crypto.AEADBadTagException 密钥不对或数据被篡改时
+     * @throws GeneralSecurityException
+     */
+    public int open(byte[] key, ByteBuffer out) throws GeneralSecurityException {
+        if (out.remaining() < getPayloadLength()) {
+            throw new ShortBufferException("need " + getPayloadLength() + " bytes, " + out.remaining() + " remaining");
+        }
+        byte[] ivBytes = new byte[iv.remaining()];
+        iv.duplicate().get(ivBytes);
+        Cipher cipher = ENGINE.cipher(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH * 8, ivBytes));
+        cipher.updateAAD(header.duplicate());
+        return cipher.doFinal(ciphertext.duplicate(), out);
+    }
+
+    /**
+     * @return 解密后的新数组
+     */
+    public byte[] open(byte[] key) throws GeneralSecurityException {
+        byte[] plain = new byte[getPayloadLength()];
+        open(key, ByteBuffer.wrap(plain));
+        return plain;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public int getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * @return 只读 slice
+     */
+    public ByteBuffer getKeyId() {
+        return keyId.asReadOnlyBuffer();
+    }
+
+    /**
+     * @return 只读 slice
+     */
+    public ByteBuffer getIv() {
+        return iv.asReadOnlyBuffer();
+    }
+
+    /**
+     * @return 密文和 tag 的只读 slice
+     */
+    public ByteBuffer getCiphertext() {
+        return ciphertext.asReadOnlyBuffer();
+    }
+
+    public int getPayloadLength() {
+        return ciphertext.remaining() - TAG_LENGTH;
+    }
+
+    /**
+     * @return 整个信封的字节数
+     */
+    public int getSealedLength() {
+        return header.remaining() + ciphertext.remaining();
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int position, int length) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.limit(position + length);
+        slice.position(position);
+        return slice.slice();
+    }
+
+    /**
+     * 按大端写入，与缓冲区的 ByteOrder 无关
+     */
+    private static void putInt(ByteBuffer buffer, int value) {
+        buffer.put((byte) (value >>> 24)).put((byte) (value >>> 16)).put((byte) (value >>> 8)).put((byte) value);
+    }
+
+    private static int getInt(ByteBuffer buffer, int index) {
+        return (buffer.get(index) & 0xff) << 24 | (buffer.get(index + 1) & 0xff) << 16
+                | (buffer.get(index + 2) & 0xff) << 8 | (buffer.get(index + 3) & 0xff);
+    }
+
+}
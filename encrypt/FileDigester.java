@@ -0,0 +1,328 @@
+/**
+ * Copyright 2016 smartbetter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.smartbetter.utilslibrary.encrypt;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 批量并行计算文件摘要，用于校验大量下载文件.
+ * <pre>
+ * FileDigester digester = new FileDigester("SHA-256", 4, new File(context.getFilesDir(), "digest.cache"));
+ * digester.digestAll(files, new FileDigester.Callback() {
+ *     public void onDigest(File file, byte[] digest) { ... }
+ * });
+ * digester.saveCache();
+ * </pre>
+ * 文件在固定大小的线程池中通过内存映射读取计算，结果按完成顺序回调。
+ * 摘要按 路径、大小、修改时间 缓存并可保存到磁盘，三者都没变的文件不会重新计算。
+ */
+public class FileDigester {
+
+    private static final int CACHE_MAGIC = 0x46444331; // "FDC1"
+
+    /**
+     * 每个文件完成时在调用 digestAll 的线程中回调
+     */
+    public interface Callback {
+        /**
+         * @param file
+         * @param digest 摘要，读取失败时为 null
+         */
+        void onDigest(File file, byte[] digest);
+    }
+
+    private static final class Entry {
+        final long size;
+        final long lastModified;
+        final byte[] digest;
+
+        Entry(long size, long lastModified, byte[] digest) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.digest = digest;
+        }
+    }
+
+    private final String algorithm;
+    private final DigestEngine engine;
+    private final ExecutorService executor;
+    private final File cacheFile;
+    private final ConcurrentHashMap<String, Entry> cache = new ConcurrentHashMap<String, Entry>();
+    private volatile boolean cacheDirty;
+
+    /**
+     * @param algorithm 如 "MD5"、"SHA-256"、"SHA-512"
+     * @param threads   并行计算的线程数
+     * @param cacheFile 缓存文件，null 表示只在内存中缓存
+     * @throws NoSuchAlgorithmException 不支持该算法时
+     */
+    public FileDigester(String algorithm, int threads, File cacheFile) throws NoSuchAlgorithmException {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive");
+        }
+        this.algorithm = algorithm;
+        this.engine = new DigestEngine(algorithm);
+        // 尽早发现不支持的算法
+        engine.digest();
+        this.cacheFile = cacheFile;
+        final AtomicInteger count = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "FileDigester-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        pool.allowCoreThreadTimeOut(true);
+        this.executor = pool;
+        if (cacheFile != null) {
+            loadCache();
+        }
+    }
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * 计算所有文件的摘要并等待完成
+     *
+     * @param files
+     * @return 按完成顺序排列的结果，读取失败的文件对应 null
+     */
+    public Map<File, byte[]> digestAll(Collection<File> files) {
+        final Map<File, byte[]> results = new LinkedHashMap<File, byte[]>();
+        digestAll(files, new Callback() {
+            @Override
+            public void onDigest(File file, byte[] digest) {
+                results.put(file, digest);
+            }
+        });
+        return results;
+    }
+
+    /**
+     * 计算所有文件的摘要，每个文件完成时回调，全部完成后返回。缓存命中的文件最先回调。
+     * 调用线程被中断时取消剩余任务并返回
+     *
+     * @param files
+     * @param callback
+     */
+    public void digestAll(Collection<File> files, Callback callback) {
+        ExecutorCompletionService<Object[]> completion = new ExecutorCompletionService<Object[]>(executor);
+        Map<Future<Object[]>, File> pending = new HashMap<Future<Object[]>, File>();
+        for (final File file : files) {
+            final long size = file.length();
+            final long lastModified = file.lastModified();
+            byte[] cached = cached(file, size, lastModified);
+            if (cached != null) {
+                callback.onDigest(file, cached);
+                continue;
+            }
+            pending.put(completion.submit(new Callable<Object[]>() {
+                @Override
+                public Object[] call() {
+                    return new Object[]{file, compute(file, size, lastModified)};
+                }
+            }), file);
+        }
+        try {
+            for (int i = 0; i < pending.size(); i++) {
+                Future<Object[]> future = completion.take();
+                File file;
+                byte[] digest;
+                try {
+                    Object[] result = future.get();
+                    file = (File) result[0];
+                    digest = (byte[]) result[1];
+                } catch (ExecutionException e) {
+                    // compute 只处理了 IOException，其它异常只影响这一个文件
+                    e.printStackTrace();
+                    file = pending.get(future);
+                    digest = null;
+                }
+                callback.onDigest(file, digest);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            for (Future<Object[]> future : pending.keySet()) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * 计算单个文件的摘要，优先使用缓存
+     *
+     * @return 读取失败时返回 null
+     */
+    public byte[] digest(File file) {
+        long size = file.length();
+        long lastModified = file.lastModified();
+        byte[] cached = cached(file, size, lastModified);
+        return cached != null ? cached : compute(file, size, lastModified);
+    }
+
+    private byte[] cached(File file, long size, long lastModified) {
+        Entry entry = cache.get(file.getAbsolutePath());
+        if (entry != null && entry.size == size && entry.lastModified == lastModified) {
+            return entry.digest.clone();
+        }
+        return null;
+    }
+
+    private byte[] compute(File file, long size, long lastModified) {
+        try {
+            byte[] digest = engine.digest(file);
+            // 计算期间文件被修改时不缓存
+            if (file.length() == size && file.lastModified() == lastModified) {
+                cache.put(file.getAbsolutePath(), new Entry(size, lastModified, digest.clone()));
+                cacheDirty = true;
+            }
+            return digest;
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (NoSuchAlgorithmException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * 清除某个文件的缓存
+     */
+    public void invalidate(File file) {
+        if (cache.remove(file.getAbsolutePath()) != null) {
+            cacheDirty = true;
+        }
+    }
+
+    private void loadCache() {
+        if (!cacheFile.isFile()) {
+            return;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)));
+            if (in.readInt() != CACHE_MAGIC || !algorithm.equals(in.readUTF())) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                long size = in.readLong();
+                long lastModified = in.readLong();
+                byte[] digest = new byte[in.readUnsignedByte()];
+                in.readFully(digest);
+                cache.put(path, new Entry(size, lastModified, digest));
+            }
+        } catch (IOException e) {
+            // 缓存损坏时丢弃，重新计算即可
+            e.printStackTrace();
+            cache.clear();
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * 把缓存写入磁盘，先写临时文件再替换，写到一半时进程退出也不会损坏已有缓存
+     *
+     * @return 是否成功，没有修改或没有指定缓存文件时直接返回 true
+     */
+    public boolean saveCache() {
+        if (cacheFile == null || !cacheDirty) {
+            return true;
+        }
+        cacheDirty = false;
+        File temp = new File(cacheFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            FileOutputStream fileOut = new FileOutputStream(temp);
+            out = new DataOutputStream(new BufferedOutputStream(fileOut));
+            Map<String, Entry> snapshot = new LinkedHashMap<String, Entry>(cache);
+            out.writeInt(CACHE_MAGIC);
+            out.writeUTF(algorithm);
+            out.writeInt(snapshot.size());
+            for (Map.Entry<String, Entry> item : snapshot.entrySet()) {
+                Entry entry = item.getValue();
+                out.writeUTF(item.getKey());
+                out.writeLong(entry.size);
+                out.writeLong(entry.lastModified);
+                out.writeByte(entry.digest.length);
+                out.write(entry.digest);
+            }
+            out.flush();
+            fileOut.getFD().sync();
+            out.close();
+            out = null;
+            if (temp.renameTo(cacheFile)) {
+                return true;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            closeQuietly(out);
+        }
+        temp.delete();
+        cacheDirty = true;
+        return false;
+    }
+
+    /**
+     * 停止线程池，空闲线程本身也会在 30 秒后退出
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,182 @@
+/**
+ * Copyright 2016 smartbetter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.smartbetter.utilslibrary.encrypt;
+
+/**
+ * 查表实现的十六进制编解码.
+ * <p>
+ * 编码每个字节查一次表得到两个字符，解码每个字符查一次表得到半字节，不调用
+ * Integer.toHexString、String.indexOf，也不拼接字符串。带偏移量的方法直接读写调用方提供的数组，
+ * 循环中不分配任何对象。
+ */
+public final class HexCodec {
+
+    private static final char[] LOWER = buildTable("0123456789abcdef");
+    private static final char[] UPPER = buildTable("0123456789ABCDEF");
+
+    /**
+     * 字符到半字节的映射，非十六进制字符为 -1，大小写都接受
+     */
+    private static final byte[] DIGITS = new byte[128];
+
+    static {
+        for (int i = 0; i < DIGITS.length; i++) {
+            DIGITS[i] = -1;
+        }
+        for (int i = 0; i < 10; i++) {
+            DIGITS['0' + i] = (byte) i;
+        }
+        for (int i = 0; i < 6; i++) {
+            DIGITS['a' + i] = (byte) (10 + i);
+            DIGITS['A' + i] = (byte) (10 + i);
+        }
+    }
+
+    private HexCodec() {
+        throw new UnsupportedOperationException("cannot be instantiated");
+    }
+
+    /**
+     * @return 长度 512 的表，下标 2 * b 和 2 * b + 1 为字节 b 的两个字符
+     */
+    private static char[] buildTable(String digits) {
+        char[] table = new char[512];
+        for (int b = 0; b < 256; b++) {
+            table[b * 2] = digits.charAt(b >>> 4);
+            table[b * 2 + 1] = digits.charAt(b & 0x0f);
+        }
+        return table;
+    }
+
+    /**
+     * @return 小写十六进制
+     */
+    public static String encode(byte[] data) {
+        return encode(data, false);
+    }
+
+    /**
+     * @return 大写十六进制
+     */
+    public static String encodeUpperCase(byte[] data) {
+        return encode(data, true);
+    }
+
+    private static String encode(byte[] data, boolean upperCase) {
+        char[] chars = new char[data.length * 2];
+        encode(data, 0, data.length, chars, 0, upperCase);
+        return new String(chars);
+    }
+
+    /**
+     * 编码到调用方提供的数组
+     *
+     * @param src       源数据
+     * @param srcOffset
+     * @param length    编码的字节数
+     * @param dst       目标数组，从 dstOffset 起至少需要 2 * length 个字符
+     * @param dstOffset
+     * @param upperCase 是否使用大写
+     * @return 写入的字符数
+     * @throws IndexOutOfBoundsException 偏移量或长度超出数组范围时，此时不写入任何字符
+     */
+    public static int encode(byte[] src, int srcOffset, int length, char[] dst, int dstOffset, boolean upperCase) {
+        checkBounds(src.length, srcOffset, length, "src");
+        if (length > (dst.length - Math.max(dstOffset, 0)) / 2) {
+            throw new IndexOutOfBoundsException("dst too small");
+        }
+        checkBounds(dst.length, dstOffset, length * 2, "dst");
+        char[] table = upperCase ? UPPER : LOWER;
+        int j = dstOffset;
+        for (int i = srcOffset, end = srcOffset + length; i < end; i++) {
+            int index = (src[i] & 0xff) << 1;
+            dst[j++] = table[index];
+            dst[j++] = table[index + 1];
+        }
+        return length * 2;
+    }
+
+    /**
+     * @param hex 偶数长度，大小写均可
+     * @return 解码结果
+     * @throws IllegalArgumentException 长度为奇数或包含非十六进制字符时
+     */
+    public static byte[] decode(CharSequence hex) {
+        if ((hex.length() & 1) != 0) {
+            throw new IllegalArgumentException("odd hex length: " + hex.length());
+        }
+        byte[] data = new byte[hex.length() / 2];
+        decode(hex, 0, hex.length(), data, 0);
+        return data;
+    }
+
+    /**
+     * 解码到调用方提供的数组
+     *
+     * @param src       十六进制字符
+     * @param srcOffset
+     * @param length    字符数，必须为偶数
+     * @param dst       目标数组，从 dstOffset 起至少需要 length / 2 个字节
+     * @param dstOffset
+     * @return 写入的字节数
+     * @throws IllegalArgumentException 长度为奇数或包含非十六进制字符时
+     * @throws IndexOutOfBoundsException 偏移量或长度超出范围时
+     */
+    public static int decode(CharSequence src, int srcOffset, int length, byte[] dst, int dstOffset) {
+        if ((length & 1) != 0) {
+            throw new IllegalArgumentException("odd hex length: " + length);
+        }
+        checkBounds(src.length(), srcOffset, length, "src");
+        checkBounds(dst.length, dstOffset, length / 2, "dst");
+        int j = dstOffset;
+        for (int i = srcOffset, end = srcOffset + length; i < end; i += 2) {
+            dst[j++] = (byte) (digit(src.charAt(i), i) << 4 | digit(src.charAt(i + 1), i + 1));
+        }
+        return length / 2;
+    }
+
+    /**
+     * 与 {@link #decode(CharSequence, int, int, byte[], int)} 相同，源为 char[]
+     */
+    public static int decode(char[] src, int srcOffset, int length, byte[] dst, int dstOffset) {
+        if ((length & 1) != 0) {
+            throw new IllegalArgumentException("odd hex length: " + length);
+        }
+        checkBounds(src.length, srcOffset, length, "src");
+        checkBounds(dst.length, dstOffset, length / 2, "dst");
+        int j = dstOffset;
+        for (int i = srcOffset, end = srcOffset + length; i < end; i += 2) {
+            dst[j++] = (byte) (digit(src[i], i) << 4 | digit(src[i + 1], i + 1));
+        }
+        return length / 2;
+    }
+
+    private static void checkBounds(int arrayLength, int offset, int length, String name) {
+        if (offset < 0 || length < 0 || offset > arrayLength - length) {
+            throw new IndexOutOfBoundsException(name + " offset " + offset + ", length " + length
+                    + ", array length " + arrayLength);
+        }
+    }
+
+    private static int digit(char c, int index) {
+        int digit = c < 128 ? DIGITS[c] : -1;
+        if (digit < 0) {
+            throw new IllegalArgumentException("illegal hex character '" + c + "' at " + index);
+        }
+        return digit;
+    }
+
+}
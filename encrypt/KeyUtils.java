@@ -0,0 +1,370 @@
+/**
+ * Copyright 2016 smartbetter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.smartbetter.utilslibrary.encrypt;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.Mac;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * 密钥生成与派生.
+ * <p>
+ * 每个线程对每种算法和长度只创建一次 KeyGenerator，并与本线程的 SecureRandom 一起复用，
+ * 批量生成密钥时不再反复查找 Provider。PBKDF2、HKDF 派生结果放在 LRU 缓存中，
+ * 相同的口令、盐和参数不会重复计算。缓存的键是这些输入在进程启动时随机生成的密钥下的 HMAC-SHA256，
+ * 不保存口令本身，也不能离线用字典对照缓存的键猜测口令。但完整的堆转储中同时有这个随机密钥和派生出的密钥，
+ * 不能接受时用 {@link #setDerivedKeyCacheSize(int)} 关闭缓存。
+ */
+public class KeyUtils {
+
+    public static final String PBKDF2_SHA256 = "PBKDF2WithHmacSHA256";
+    public static final String PBKDF2_SHA1 = "PBKDF2WithHmacSHA1";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String HKDF_MAC = "HmacSHA256";
+    private static final int HKDF_HASH_LENGTH = 32;
+
+    /**
+     * 密钥生成和派生的统计回调，在调用线程中执行，应尽快返回。
+     * 例如 count * 1e9 / nanos 即为每秒生成的密钥数
+     */
+    public interface Metrics {
+        /**
+         * @param algorithm 如 "AES"
+         * @param count     本次生成的密钥数
+         * @param nanos     耗时
+         */
+        void onKeysGenerated(String algorithm, int count, long nanos);
+
+        /**
+         * @param algorithm 如 "PBKDF2WithHmacSHA256"、"HKDF-SHA256"
+         * @param cacheHit  是否直接取自缓存
+         * @param nanos     耗时
+         */
+        void onKeyDerived(String algorithm, boolean cacheHit, long nanos);
+    }
+
+    private static final ThreadLocal<SecureRandom> sRandom = new ThreadLocal<SecureRandom>() {
+        @Override
+        protected SecureRandom initialValue() {
+            return new SecureRandom();
+        }
+    };
+    private static final ThreadLocal<HashMap<String, KeyGenerator>> sGenerators =
+            new ThreadLocal<HashMap<String, KeyGenerator>>() {
+                @Override
+                protected HashMap<String, KeyGenerator> initialValue() {
+                    return new HashMap<String, KeyGenerator>();
+                }
+            };
+    private static final ThreadLocal<Mac> sHkdfMac = new ThreadLocal<Mac>();
+    /**
+     * 计算缓存键的 HMAC 密钥，每个进程随机生成
+     */
+    private static final byte[] CACHE_KEY_SECRET = randomBytes(HKDF_HASH_LENGTH);
+    private static final ThreadLocal<Mac> sCacheKeyMac = new ThreadLocal<Mac>();
+
+    private static final Object sCacheLock = new Object();
+    private static int sCacheSize = 64;
+    private static final LinkedHashMap<String, byte[]> sDerivedKeys =
+            new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+                    return size() > sCacheSize;
+                }
+            };
+
+    private static volatile Metrics sMetrics;
+
+    private KeyUtils() {
+        throw new UnsupportedOperationException("cannot be instantiated");
+    }
+
+    /**
+     * 设置统计回调，null 表示关闭
+     */
+    public static void setMetrics(Metrics metrics) {
+        sMetrics = metrics;
+    }
+
+    /**
+     * 生成随机密钥
+     *
+     * @param algorithm 如 "AES"、"DES"、"DESede"
+     * @param keySize   位数
+     * @return 失败时返回 null
+     */
+    public static byte[] generateKey(String algorithm, int keySize) {
+        byte[][] keys = generateKeys(algorithm, keySize, 1);
+        return keys != null ? keys[0] : null;
+    }
+
+    /**
+     * 批量生成随机密钥
+     *
+     * @param algorithm 如 "AES"、"DES"、"DESede"
+     * @param keySize   位数
+     * @param count     个数
+     * @return 失败时返回 null
+     */
+    public static byte[][] generateKeys(String algorithm, int keySize, int count) {
+        long start = System.nanoTime();
+        try {
+            KeyGenerator generator = generator(algorithm, keySize);
+            byte[][] keys = new byte[count][];
+            for (int i = 0; i < count; i++) {
+                keys[i] = generator.generateKey().getEncoded();
+            }
+            Metrics metrics = sMetrics;
+            if (metrics != null) {
+                metrics.onKeysGenerated(algorithm, count, System.nanoTime() - start);
+            }
+            return keys;
+        } catch (NoSuchAlgorithmException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    private static KeyGenerator generator(String algorithm, int keySize) throws NoSuchAlgorithmException {
+        HashMap<String, KeyGenerator> generators = sGenerators.get();
+        String id = algorithm + '/' + keySize;
+        KeyGenerator generator = generators.get(id);
+        if (generator == null) {
+            generator = KeyGenerator.getInstance(algorithm);
+            generator.init(keySize, sRandom.get());
+            generators.put(id, generator);
+        }
+        return generator;
+    }
+
+    /**
+     * @param length 字节数
+     * @return 当前线程 SecureRandom 生成的随机字节，可用作盐或 IV
+     */
+    public static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        sRandom.get().nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * 使用 PBKDF2WithHmacSHA256 由口令派生密钥
+     *
+     * @param password
+     * @param salt
+     * @param iterations 迭代次数
+     * @param keyLength  位数
+     * @return 失败时返回 null
+     */
+    public static byte[] pbkdf2(char[] password, byte[] salt, int iterations, int keyLength) {
+        return pbkdf2(PBKDF2_SHA256, password, salt, iterations, keyLength);
+    }
+
+    /**
+     * 由口令派生密钥，结果会被缓存
+     *
+     * @param algorithm  {@link #PBKDF2_SHA256}，Android 8.0 以下只有 {@link #PBKDF2_SHA1}
+     * @param password
+     * @param salt
+     * @param iterations 迭代次数
+     * @param keyLength  位数
+     * @return 失败时返回 null
+     */
+    public static byte[] pbkdf2(String algorithm, char[] password, byte[] salt, int iterations, int keyLength) {
+        long start = System.nanoTime();
+        // 不经过 String，用完即清零，避免口令副本留在堆上
+        ByteBuffer encoded = UTF_8.encode(CharBuffer.wrap(password));
+        byte[] passwordBytes = new byte[encoded.remaining()];
+        encoded.get(passwordBytes);
+        String cacheKey = cacheKey(algorithm, passwordBytes, salt, null, iterations, keyLength);
+        Arrays.fill(passwordBytes, (byte) 0);
+        if (encoded.hasArray()) {
+            Arrays.fill(encoded.array(), (byte) 0);
+        }
+        byte[] key = cached(cacheKey, algorithm, start);
+        if (key != null) {
+            return key;
+        }
+        PBEKeySpec spec = new PBEKeySpec(password, salt, iterations, keyLength);
+        try {
+            key = SecretKeyFactory.getInstance(algorithm).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            spec.clearPassword();
+        }
+        return store(cacheKey, key, algorithm, start);
+    }
+
+    /**
+     * HKDF-SHA256（RFC 5869），由已有密钥材料派生子密钥，结果会被缓存
+     *
+     * @param ikm    输入密钥材料
+     * @param salt   可为 null
+     * @param info   上下文信息，可为 null
+     * @param length 输出字节数，最多 255 * 32
+     * @return 失败时返回 null
+     */
+    public static byte[] hkdf(byte[] ikm, byte[] salt, byte[] info, int length) {
+        if (length <= 0 || length > 255 * HKDF_HASH_LENGTH) {
+            throw new IllegalArgumentException("length must be in 1.." + 255 * HKDF_HASH_LENGTH);
+        }
+        long start = System.nanoTime();
+        String algorithm = "HKDF-SHA256";
+        String cacheKey = cacheKey(algorithm, ikm, salt, info, 0, length);
+        byte[] key = cached(cacheKey, algorithm, start);
+        if (key != null) {
+            return key;
+        }
+        try {
+            key = deriveHkdf(ikm, salt, info, length);
+        } catch (GeneralSecurityException e) {
+            e.printStackTrace();
+            return null;
+        }
+        return store(cacheKey, key, algorithm, start);
+    }
+
+    /**
+     * 不经过缓存的 HKDF-SHA256，供每次派生结果都不同、缓存无意义的场景使用
+     */
+    static byte[] deriveHkdf(byte[] ikm, byte[] salt, byte[] info, int length) throws GeneralSecurityException {
+        Mac mac = sHkdfMac.get();
+        if (mac == null) {
+            mac = Mac.getInstance(HKDF_MAC);
+            sHkdfMac.set(mac);
+        }
+        // extract
+        byte[] saltBytes = salt != null && salt.length > 0 ? salt : new byte[HKDF_HASH_LENGTH];
+        mac.init(new SecretKeySpec(saltBytes, HKDF_MAC));
+        byte[] prk = mac.doFinal(ikm);
+        // expand
+        mac.init(new SecretKeySpec(prk, HKDF_MAC));
+        byte[] key = new byte[length];
+        byte[] block = new byte[0];
+        for (int i = 1, offset = 0; offset < length; i++) {
+            mac.update(block);
+            if (info != null) {
+                mac.update(info);
+            }
+            mac.update((byte) i);
+            block = mac.doFinal();
+            int n = Math.min(block.length, length - offset);
+            System.arraycopy(block, 0, key, offset, n);
+            offset += n;
+        }
+        return key;
+    }
+
+    /**
+     * 设置派生密钥缓存的容量，0 表示不缓存
+     */
+    public static void setDerivedKeyCacheSize(int size) {
+        synchronized (sCacheLock) {
+            sCacheSize = Math.max(0, size);
+            while (sDerivedKeys.size() > sCacheSize) {
+                sDerivedKeys.remove(sDerivedKeys.keySet().iterator().next());
+            }
+        }
+    }
+
+    /**
+     * 清空派生密钥缓存，例如用户退出登录时
+     */
+    public static void clearDerivedKeyCache() {
+        synchronized (sCacheLock) {
+            sDerivedKeys.clear();
+        }
+    }
+
+    private static String cacheKey(String algorithm, byte[] secret, byte[] salt, byte[] info,
+                                   int iterations, int length) {
+        try {
+            Mac mac = sCacheKeyMac.get();
+            if (mac == null) {
+                mac = Mac.getInstance(HKDF_MAC);
+                mac.init(new SecretKeySpec(CACHE_KEY_SECRET, HKDF_MAC));
+                sCacheKeyMac.set(mac);
+            }
+            mac.update(algorithm.getBytes(UTF_8));
+            update(mac, secret);
+            update(mac, salt);
+            update(mac, info);
+            mac.update(new byte[]{(byte) (iterations >>> 24), (byte) (iterations >>> 16),
+                    (byte) (iterations >>> 8), (byte) iterations, (byte) (length >>> 24),
+                    (byte) (length >>> 16), (byte) (length >>> 8), (byte) length});
+            return HexCodec.encode(mac.doFinal());
+        } catch (GeneralSecurityException e) {
+            // 所有平台都支持 HmacSHA256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 带长度前缀写入，避免不同字段的拼接产生相同输入
+     */
+    private static void update(Mac mac, byte[] field) {
+        int length = field != null ? field.length : -1;
+        mac.update(new byte[]{(byte) (length >>> 24), (byte) (length >>> 16), (byte) (length >>> 8), (byte) length});
+        if (field != null) {
+            mac.update(field);
+        }
+    }
+
+    private static byte[] cached(String cacheKey, String algorithm, long start) {
+        byte[] key;
+        synchronized (sCacheLock) {
+            key = sDerivedKeys.get(cacheKey);
+        }
+        if (key == null) {
+            return null;
+        }
+        Metrics metrics = sMetrics;
+        if (metrics != null) {
+            metrics.onKeyDerived(algorithm, true, System.nanoTime() - start);
+        }
+        return key.clone();
+    }
+
+    private static byte[] store(String cacheKey, byte[] key, String algorithm, long start) {
+        synchronized (sCacheLock) {
+            if (sCacheSize > 0) {
+                sDerivedKeys.put(cacheKey, key.clone());
+            }
+        }
+        Metrics metrics = sMetrics;
+        if (metrics != null) {
+            metrics.onKeyDerived(algorithm, false, System.nanoTime() - start);
+        }
+        return key;
+    }
+
+}
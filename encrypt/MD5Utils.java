@@ -15,8 +15,10 @@
  */
 package net.smartbetter.utilslibrary.encrypt;
 
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * MD5加密 不可逆
@@ -24,62 +26,114 @@ import java.security.NoSuchAlgorithmException;
  */
 public class MD5Utils {
 
+    private static final DigestEngine ENGINE = new DigestEngine("MD5");
+
     private MD5Utils() {
         throw new UnsupportedOperationException("cannot be instantiated");
     }
 
     /**
      * MD5加密
-     * StringBuilder不支持并发操作，线性不安全的，不适合多线程中使用。但其在单线程中的性能比StringBuffer高。
+     * 字符串按 UTF-8 编码，可以在多线程中使用。
      *
      * @param str
      * @return
      */
     public static String encryptMD5ForBuilder(String str) {
-        if (str == null || str.length() == 0) {
-            return null;
-        }
-        StringBuilder builder = new StringBuilder();
-        try {
-            MessageDigest digest = MessageDigest.getInstance("MD5");
-            digest.update(str.getBytes());
-            byte[] cipher = digest.digest();
-
-            for (byte b : cipher) {
-                String hexStr = Integer.toHexString(b & 0xff);
-                builder.append(hexStr.length() == 1 ? "0" + hexStr : hexStr);
-            }
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
-        }
-        return builder.toString();
+        return ENGINE.hex(str);
     }
 
     /**
      * MD5加密
-     * StringBuffer支持并发操作，线性安全的，适合多线程中使用。
+     * 与 {@link #encryptMD5ForBuilder(String)} 相同，保留以兼容旧代码。
      *
      * @param str
      * @return
      */
     public static String encryptMD5ForBuffer(String str) {
-        if (str == null || str.length() == 0) {
-            return null;
-        }
-        StringBuffer buffer = new StringBuffer();
-        try {
-            MessageDigest digest = MessageDigest.getInstance("MD5");
-            digest.update(str.getBytes());
-            byte[] cipher = digest.digest();
-
-            for (byte b : cipher) {
-                String hexStr = Integer.toHexString(b & 0xff);
-                buffer.append(hexStr.length() == 1 ? "0" + hexStr : hexStr);
-            }
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
-        }
-        return buffer.toString();
+        return encryptMD5ForBuilder(str);
+    }
+
+    /**
+     * MD5 摘要
+     *
+     * @param data
+     * @return 原始摘要字节
+     */
+    public static byte[] digest(byte[] data) {
+        return ENGINE.tryDigest(data);
+    }
+
+    /**
+     * MD5 摘要，计算 position 到 limit 之间的数据，不改变 position
+     *
+     * @param data
+     * @return 原始摘要字节
+     */
+    public static byte[] digest(ByteBuffer data) {
+        return ENGINE.tryDigest(data);
+    }
+
+    /**
+     * MD5 摘要，读取到流结束，不关闭流
+     *
+     * @param in
+     * @return 原始摘要字节，读取失败时返回 null
+     */
+    public static byte[] digest(InputStream in) {
+        return ENGINE.tryDigest(in);
+    }
+
+    /**
+     * MD5 摘要，通过内存映射读取整个文件
+     *
+     * @param channel 从头计算，不关闭
+     * @return 原始摘要字节，读取失败时返回 null
+     */
+    public static byte[] digest(FileChannel channel) {
+        return ENGINE.tryDigest(channel);
+    }
+
+    /**
+     * MD5 摘要，通过内存映射读取整个文件
+     *
+     * @param file
+     * @return 原始摘要字节，读取失败时返回 null
+     */
+    public static byte[] digest(File file) {
+        return ENGINE.tryDigest(file);
+    }
+
+    /**
+     * @param file
+     * @return 小写十六进制摘要，读取失败时返回 null
+     */
+    public static String encryptMD5(File file) {
+        return DigestEngine.toHex(digest(file));
+    }
+
+    /**
+     * @param in 读取到流结束，不关闭
+     * @return 小写十六进制摘要，读取失败时返回 null
+     */
+    public static String encryptMD5(InputStream in) {
+        return DigestEngine.toHex(digest(in));
+    }
+
+    /**
+     * @param data 不改变 position
+     * @return 小写十六进制摘要
+     */
+    public static String encryptMD5(ByteBuffer data) {
+        return DigestEngine.toHex(digest(data));
+    }
+
+    /**
+     * @param channel 从头计算，不关闭
+     * @return 小写十六进制摘要，读取失败时返回 null
+     */
+    public static String encryptMD5(FileChannel channel) {
+        return DigestEngine.toHex(digest(channel));
     }
 
 }
@@ -0,0 +1,317 @@
+/**
+ * Copyright 2016 smartbetter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.smartbetter.utilslibrary.encrypt;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * 分块 Merkle 树摘要，文件局部修改或追加后只需重新计算变化的块.
+ * <p>
+ * 文件按固定大小分块，各块并行计算摘要作为叶子，相邻两个节点的摘要再计算出父节点，直到根节点。
+ * 叶子为 H(0x00 || 块内容)，中间节点为 H(0x01 || 左 || 右)，落单的节点直接作为上一层节点。
+ * 整棵树保存在内存中，{@link #update(FileChannel, long, long)} 只重新计算被修改的块
+ * 以及它们到根节点路径上的节点，代价与修改量成正比。
+ * <pre>
+ * MerkleDigest tree = MerkleDigest.build(file, "SHA-512", MerkleDigest.DEFAULT_BLOCK_SIZE);
+ * ... 在 offset 处写入 length 字节或追加数据 ...
+ * tree.update(file, offset, length);
+ * byte[] root = tree.getRoot();
+ * </pre>
+ * 不同块大小或算法得到的根节点不同，与整个文件的普通摘要也不同。
+ */
+public class MerkleDigest {
+
+    public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+
+    private static final byte LEAF = 0x00;
+    private static final byte NODE = 0x01;
+    /**
+     * 每个任务至少处理的块数
+     */
+    private static final int MIN_TASK_BLOCKS = 4;
+
+    private final String algorithm;
+    private final DigestEngine engine;
+    private final int blockSize;
+    private final ForkJoinPool pool;
+    /**
+     * levels.get(0) 为叶子，最后一层只有根节点
+     */
+    private List<byte[][]> levels = new ArrayList<byte[][]>();
+    private long length;
+
+    /**
+     * 不指定线程池时使用，首次使用时才创建；ForkJoinPool.commonPool() 需要 API 24
+     */
+    private static final class DefaultPool {
+        static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    private MerkleDigest(String algorithm, int blockSize, ForkJoinPool pool) {
+        this.algorithm = algorithm;
+        this.engine = new DigestEngine(algorithm);
+        this.blockSize = blockSize;
+        this.pool = pool;
+    }
+
+    /**
+     * 在内部的 ForkJoinPool 上计算整个文件
+     *
+     * @param file
+     * @param algorithm 如 "SHA-512"、"MD5"
+     * @param blockSize 块大小
+     * @return
+     * @throws IOException
+     * @throws NoSuchAlgorithmException
+     */
+    public static MerkleDigest build(File file, String algorithm, int blockSize)
+            throws IOException, NoSuchAlgorithmException {
+        return build(file, algorithm, blockSize, DefaultPool.POOL);
+    }
+
+    public static MerkleDigest build(File file, String algorithm, int blockSize, ForkJoinPool pool)
+            throws IOException, NoSuchAlgorithmException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            return build(raf.getChannel(), algorithm, blockSize, pool);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * @param channel 从头计算，不关闭
+     */
+    public static MerkleDigest build(FileChannel channel, String algorithm, int blockSize, ForkJoinPool pool)
+            throws IOException, NoSuchAlgorithmException {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("blockSize must be positive");
+        }
+        MerkleDigest tree = new MerkleDigest(algorithm, blockSize, pool);
+        tree.engine.digest();
+        tree.update(channel, 0, channel.size());
+        return tree;
+    }
+
+    /**
+     * 文件中 [offset, offset + length) 被修改后调用；文件长度变化（追加或截断）时也会重新计算受影响的块。
+     * 只有追加时 offset 传原长度、length 传 0 即可
+     *
+     * @param file
+     * @param offset 修改的起始位置
+     * @param length 修改的字节数
+     * @throws IOException
+     */
+    public void update(File file, long offset, long length) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            update(raf.getChannel(), offset, length);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * 见 {@link #update(File, long, long)}
+     */
+    public synchronized void update(FileChannel channel, long offset, long length) throws IOException {
+        long newLength = channel.size();
+        int oldBlocks = levels.isEmpty() ? 0 : levels.get(0).length;
+        int newBlocks = blockCount(newLength);
+        boolean[] dirty = new boolean[newBlocks];
+        if (length > 0 && offset < newLength) {
+            int first = (int) (offset / blockSize);
+            int last = (int) ((Math.min(offset + length, newLength) - 1) / blockSize);
+            Arrays.fill(dirty, first, last + 1, true);
+        }
+        if (newLength != this.length || oldBlocks == 0) {
+            // 原来的最后一块可能不完整，以及所有新增的块
+            int from = Math.max(0, Math.min(oldBlocks, newBlocks) - 1);
+            Arrays.fill(dirty, from, newBlocks, true);
+        }
+        // 在副本上计算，读取失败时原来的树保持不变
+        byte[][] leaves = Arrays.copyOf(levels.isEmpty() ? new byte[0][] : levels.get(0), newBlocks);
+        try {
+            pool.invoke(new LeafTask(channel, newLength, leaves, dirty, 0, newBlocks));
+        } catch (LeafException e) {
+            throw (IOException) e.getCause();
+        }
+        this.length = newLength;
+        rebuild(leaves, dirty);
+    }
+
+    /**
+     * 由叶子向上重新计算被标记的节点。块数变化时沿用旧节点，新增位置为 null 会被计算，
+     * 子节点有变化的位置已被标记
+     */
+    private void rebuild(byte[][] leaves, boolean[] dirty) {
+        List<byte[][]> next = new ArrayList<byte[][]>();
+        next.add(leaves);
+        byte[][] level = leaves;
+        int depth = 0;
+        while (level.length > 1) {
+            depth++;
+            int size = (level.length + 1) / 2;
+            byte[][] parents = depth < levels.size() ? Arrays.copyOf(levels.get(depth), size) : new byte[size][];
+            boolean[] parentDirty = new boolean[size];
+            for (int i = 0; i < size; i++) {
+                int left = i * 2;
+                boolean changed = parents[i] == null || dirty[left] || (left + 1 < level.length && dirty[left + 1]);
+                if (!changed) {
+                    continue;
+                }
+                parentDirty[i] = true;
+                parents[i] = left + 1 < level.length ? node(level[left], level[left + 1]) : level[left];
+            }
+            next.add(parents);
+            level = parents;
+            dirty = parentDirty;
+        }
+        levels = next;
+    }
+
+    private byte[] node(byte[] left, byte[] right) {
+        try {
+            MessageDigest digest = engine.digest();
+            digest.update(NODE);
+            digest.update(left);
+            digest.update(right);
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            // 构造时已经确认支持该算法
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private int blockCount(long length) {
+        // 空文件也有一个空块
+        return length == 0 ? 1 : (int) ((length + blockSize - 1) / blockSize);
+    }
+
+    /**
+     * @return 根节点摘要
+     */
+    public synchronized byte[] getRoot() {
+        return levels.get(levels.size() - 1)[0].clone();
+    }
+
+    /**
+     * @return 根节点摘要的小写十六进制
+     */
+    public String getRootHex() {
+        return HexCodec.encode(getRoot());
+    }
+
+    /**
+     * @param index 块序号
+     * @return 该块的叶子摘要，可用于定位两个版本间哪些块不同
+     */
+    public synchronized byte[] getBlockDigest(int index) {
+        return levels.get(0)[index].clone();
+    }
+
+    public synchronized int getBlockCount() {
+        return levels.get(0).length;
+    }
+
+    public synchronized long getLength() {
+        return length;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    private static final class LeafException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        LeafException(IOException cause) {
+            super(cause);
+        }
+    }
+
+    /**
+     * 并行计算 [from, to) 中被标记的叶子
+     */
+    private final class LeafTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel channel;
+        private final long fileLength;
+        private final byte[][] leaves;
+        private final boolean[] dirty;
+        private final int from;
+        private final int to;
+
+        LeafTask(FileChannel channel, long fileLength, byte[][] leaves, boolean[] dirty, int from, int to) {
+            this.channel = channel;
+            this.fileLength = fileLength;
+            this.leaves = leaves;
+            this.dirty = dirty;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > MIN_TASK_BLOCKS) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new LeafTask(channel, fileLength, leaves, dirty, from, middle),
+                        new LeafTask(channel, fileLength, leaves, dirty, middle, to));
+                return;
+            }
+            try {
+                for (int i = from; i < to; i++) {
+                    if (dirty[i]) {
+                        leaves[i] = leaf(i);
+                    }
+                }
+            } catch (IOException e) {
+                throw new LeafException(e);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private byte[] leaf(int index) throws IOException, NoSuchAlgorithmException {
+            long position = (long) index * blockSize;
+            long size = Math.max(0, Math.min(blockSize, fileLength - position));
+            MessageDigest digest = engine.digest();
+            digest.update(LEAF);
+            if (size > 0) {
+                MappedByteBuffer block = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+                digest.update(block);
+            }
+            return digest.digest();
+        }
+    }
+
+}
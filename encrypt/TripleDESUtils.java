@@ -15,16 +15,9 @@
  */
 package net.smartbetter.utilslibrary.encrypt;
 
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
+import java.security.GeneralSecurityException;
 
-import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
-import javax.crypto.IllegalBlockSizeException;
-import javax.crypto.KeyGenerator;
-import javax.crypto.NoSuchPaddingException;
-import javax.crypto.SecretKey;
-import javax.crypto.spec.SecretKeySpec;
 
 /**
  * 3DES对称加密
@@ -32,6 +25,11 @@ import javax.crypto.spec.SecretKeySpec;
  */
 public class TripleDESUtils {
 
+    /**
+     * 按线程复用 Cipher，见 {@link CipherEngine}
+     */
+    private static final CipherEngine ENGINE = CipherEngine.get("DESede/ECB/PKCS5Padding", "DESede");
+
     private TripleDESUtils() {
         throw new UnsupportedOperationException("cannot be instantiated");
     }
@@ -42,15 +40,7 @@ public class TripleDESUtils {
      * @return
      */
     public static byte[] initKey168() {
-        KeyGenerator keyGen = null;
-        try {
-            keyGen = KeyGenerator.getInstance("DESede");
-            keyGen.init(168);
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
-        }
-        SecretKey secretKey = keyGen.generateKey();
-        return secretKey.getEncoded();
+        return KeyUtils.generateKey("DESede", 168);
     }
 
     /**
@@ -59,15 +49,7 @@ public class TripleDESUtils {
      * @return
      */
     public static byte[] initKey(int keysize) {
-        KeyGenerator keyGen = null;
-        try {
-            keyGen = KeyGenerator.getInstance("DESede");
-            keyGen.init(keysize);  //112 168
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
-        }
-        SecretKey secretKey = keyGen.generateKey();
-        return secretKey.getEncoded();
+        return KeyUtils.generateKey("DESede", keysize);  //112 168
     }
 
     /**
@@ -78,21 +60,9 @@ public class TripleDESUtils {
      * @return
      */
     public static byte[] encrypt(byte[] data, byte[] key) {
-        SecretKey secretKey = new SecretKeySpec(key, "DESede");
         try {
-            Cipher cipher = Cipher.getInstance("DESede/ECB/PKCS5Padding");
-            cipher.init(Cipher.ENCRYPT_MODE, secretKey);
-            byte[] cipherBytes = cipher.doFinal(data);
-            return cipherBytes;
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
-        } catch (NoSuchPaddingException e) {
-            e.printStackTrace();
-        } catch (InvalidKeyException e) {
-            e.printStackTrace();
-        } catch (IllegalBlockSizeException e) {
-            e.printStackTrace();
-        } catch (BadPaddingException e) {
+            return ENGINE.doFinal(Cipher.ENCRYPT_MODE, key, data);
+        } catch (GeneralSecurityException e) {
             e.printStackTrace();
         }
         return null;
@@ -106,21 +76,9 @@ public class TripleDESUtils {
      * @return
      */
     public static byte[] decrypt(byte[] data, byte[] key) {
-        SecretKey secretKey = new SecretKeySpec(key, "DESede");
         try {
-            Cipher cipher = Cipher.getInstance("DESede/ECB/PKCS5Padding");
-            cipher.init(Cipher.DECRYPT_MODE, secretKey);
-            byte[] plainBytes = cipher.doFinal(data);
-            return plainBytes;
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
-        } catch (NoSuchPaddingException e) {
-            e.printStackTrace();
-        } catch (InvalidKeyException e) {
-            e.printStackTrace();
-        } catch (IllegalBlockSizeException e) {
-            e.printStackTrace();
-        } catch (BadPaddingException e) {
+            return ENGINE.doFinal(Cipher.DECRYPT_MODE, key, data);
+        } catch (GeneralSecurityException e) {
             e.printStackTrace();
         }
         return null;
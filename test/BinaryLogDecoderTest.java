@@ -0,0 +1,95 @@
+package com.redli.tmvpsimple.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Self-checking test for {@link BinaryLogEncoder} and {@link BinaryLogDecoder}:
+ * a clean segment decodes completely, and a segment torn or corrupted in the
+ * middle of an entry decodes up to the entry before it and no further.
+ */
+public class BinaryLogDecoderTest {
+
+    private static final int RECORDS = 20;
+
+    public static void main(String[] args) throws IOException {
+        ByteBuffer clean = ByteBuffer.allocate(8192);
+        int[] ends = write(clean);
+        int used = clean.position();
+
+        checkDecode(copy(clean, clean.capacity()), true, RECORDS, "clean segment");
+        checkDecode(copy(clean, used), true, RECORDS, "segment filled exactly");
+
+        // the tail of the last record never reached the disk: zero fill behind it
+        ByteBuffer zeroed = copy(clean, clean.capacity());
+        for (int i = ends[RECORDS - 2] + 3; i < used; i++) {
+            zeroed.put(i, (byte) 0);
+        }
+        checkDecode(zeroed, false, RECORDS - 1, "zeroed tail");
+
+        // the file itself ends inside the last record
+        checkDecode(copy(clean, used - 2), false, RECORDS - 1, "truncated file");
+
+        // a flipped bit in the middle of record 10
+        ByteBuffer flipped = copy(clean, clean.capacity());
+        int offset = (ends[9] + ends[10]) / 2;
+        flipped.put(offset, (byte) (flipped.get(offset) ^ 0x10));
+        checkDecode(flipped, false, 10, "corrupt record");
+
+        // the length of record 10 claims more bytes than the segment holds
+        ByteBuffer longLength = copy(clean, clean.capacity());
+        longLength.put(ends[9] + 1, (byte) 0x7F);
+        checkDecode(longLength, false, 10, "bad length");
+
+        System.out.println("BinaryLogDecoderTest: OK");
+    }
+
+    /**
+     * @return the segment position after each record
+     */
+    private static int[] write(ByteBuffer segment) {
+        BinaryLogEncoder encoder = new BinaryLogEncoder();
+        long time = 1500000000000L;
+        check(encoder.beginSegment(segment, time), "header must fit");
+        int[] ends = new int[RECORDS];
+        for (int i = 0; i < RECORDS; i++) {
+            String callSite = i % 3 == 0 ? "Foo.bar(Foo.java:" + i + ")" : null;
+            check(encoder.encode(segment, time + i * 7, 3 + i % 4, "tag" + i % 2, "message 中 " + i, callSite),
+                    "record " + i + " must fit");
+            ends[i] = segment.position();
+        }
+        return ends;
+    }
+
+    private static ByteBuffer copy(ByteBuffer segment, int length) {
+        ByteBuffer copy = ByteBuffer.allocate(length);
+        copy.put(segment.array(), 0, length);
+        copy.clear();
+        return copy;
+    }
+
+    private static void checkDecode(ByteBuffer segment, boolean clean, int records, String name)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes, true, "UTF-8");
+        boolean result = BinaryLogDecoder.decode(segment, out);
+        String[] lines = bytes.toString("UTF-8").split("\n");
+        int decoded = bytes.size() == 0 ? 0 : lines.length;
+        check(result == clean, name + ": decode returned " + result);
+        check(decoded == records, name + ": decoded " + decoded + " records, expected " + records);
+        for (int i = 0; i < decoded; i++) {
+            check(lines[i].contains("/tag" + i % 2 + ": message 中 " + i), name + ": bad line " + lines[i]);
+            check(lines[i].contains("Foo.java:") == (i % 3 == 0), name + ": bad call site in " + lines[i]);
+        }
+    }
+
+    static void check(boolean condition, String message) {
+        if (!condition) {
+            System.err.println("FAILED: " + message);
+            System.exit(1);
+        }
+    }
+
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright 2016 smartbetter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.smartbetter.utilslibrary.encrypt;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * ChunkedAESUtils 自检测试：各种长度整体和逐块解密后不变；块内容、头部、块顺序被改动或截断时
+ * 解密失败；每个容器的块用 HKDF(key, nonce) 派生的子密钥加密，IV 为块序号.
+ */
+public class ChunkedAESUtilsTest {
+
+    private static final int HEADER_LENGTH = 29;
+    private static final int CHUNK_SIZE = 1000;
+
+    public static void main(String[] args) throws Exception {
+        byte[] key = AESUtils.initKey(128);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        Random random = new Random(16);
+        for (int length : new int[]{0, 1, CHUNK_SIZE - 1, CHUNK_SIZE, CHUNK_SIZE + 1, 10 * CHUNK_SIZE + 7}) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+            byte[] container = ChunkedAESUtils.encrypt(data, key, CHUNK_SIZE, pool);
+            int chunks = ChunkedAESUtils.getChunkCount(container);
+            check(chunks == Math.max(1, (length + CHUNK_SIZE - 1) / CHUNK_SIZE), "chunk count for " + length);
+            check(container.length == HEADER_LENGTH + length + chunks * 16, "container length for " + length);
+            check(ChunkedAESUtils.getPlainLength(container) == length, "plain length for " + length);
+            check(Arrays.equals(ChunkedAESUtils.decrypt(container, key, pool), data), "round trip of " + length);
+            for (int i = 0; i < chunks; i++) {
+                byte[] expected = Arrays.copyOfRange(data, i * CHUNK_SIZE, Math.min(length, (i + 1) * CHUNK_SIZE));
+                check(Arrays.equals(ChunkedAESUtils.decryptChunk(container, key, i), expected),
+                        "chunk " + i + " of " + length);
+            }
+            check(ChunkedAESUtils.decryptChunk(container, key, chunks) == null, "chunk index past the end");
+        }
+
+        byte[] data = new byte[3 * CHUNK_SIZE];
+        random.nextBytes(data);
+        byte[] container = ChunkedAESUtils.encrypt(data, key, CHUNK_SIZE, pool);
+        byte[] again = ChunkedAESUtils.encrypt(data, key, CHUNK_SIZE, pool);
+        check(!Arrays.equals(Arrays.copyOfRange(container, HEADER_LENGTH - 12, HEADER_LENGTH),
+                Arrays.copyOfRange(again, HEADER_LENGTH - 12, HEADER_LENGTH)), "nonce must be random");
+        checkSubkey(container, key, data);
+
+        byte[] wrongKey = key.clone();
+        wrongKey[0] ^= 1;
+        check(ChunkedAESUtils.decrypt(container, wrongKey, pool) == null, "wrong key must fail");
+
+        byte[] flipped = container.clone();
+        flipped[HEADER_LENGTH + CHUNK_SIZE + 16 + 5] ^= 1;
+        check(ChunkedAESUtils.decrypt(flipped, key, pool) == null, "flipped ciphertext must fail");
+        check(ChunkedAESUtils.decryptChunk(flipped, key, 0) != null, "other chunks stay readable");
+        check(ChunkedAESUtils.decryptChunk(flipped, key, 1) == null, "flipped chunk must fail");
+
+        byte[] nonce = container.clone();
+        nonce[HEADER_LENGTH - 1] ^= 1;
+        check(ChunkedAESUtils.decrypt(nonce, key, pool) == null, "changed nonce must fail");
+
+        byte[] swapped = container.clone();
+        int sealed = CHUNK_SIZE + 16;
+        System.arraycopy(container, HEADER_LENGTH, swapped, HEADER_LENGTH + sealed, sealed);
+        System.arraycopy(container, HEADER_LENGTH + sealed, swapped, HEADER_LENGTH, sealed);
+        check(ChunkedAESUtils.decrypt(swapped, key, pool) == null, "swapped chunks must fail");
+
+        byte[] truncated = Arrays.copyOf(container, HEADER_LENGTH + 2 * sealed);
+        ByteBuffer.wrap(truncated).putLong(9, 2 * CHUNK_SIZE);
+        check(ChunkedAESUtils.decrypt(truncated, key, pool) == null, "truncation must fail");
+
+        byte[] version1 = container.clone();
+        version1[4] = 1;
+        check(ChunkedAESUtils.decrypt(version1, key, pool) == null, "version 1 containers are rejected");
+
+        pool.shutdown();
+        System.out.println("ChunkedAESUtilsTest: OK");
+    }
+
+    /**
+     * 按类说明中的格式，不经过 ChunkedAESUtils 解出第 1 块
+     */
+    private static void checkSubkey(byte[] container, byte[] key, byte[] data) throws Exception {
+        byte[] nonce = Arrays.copyOfRange(container, HEADER_LENGTH - 12, HEADER_LENGTH);
+        byte[] subkey = KeyUtils.hkdf(key, nonce, "ACG chunk key".getBytes("UTF-8"), key.length);
+        byte[] iv = new byte[12];
+        iv[11] = 1;
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(subkey, "AES"), new GCMParameterSpec(128, iv));
+        cipher.updateAAD(container, 0, HEADER_LENGTH);
+        byte[] plain = cipher.doFinal(container, HEADER_LENGTH + CHUNK_SIZE + 16, CHUNK_SIZE + 16);
+        check(Arrays.equals(plain, Arrays.copyOfRange(data, CHUNK_SIZE, 2 * CHUNK_SIZE)),
+                "chunk 1 must be sealed under HKDF(key, nonce) with the index as IV");
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            System.out.println("FAILED: " + message);
+            System.exit(1);
+        }
+    }
+
+}
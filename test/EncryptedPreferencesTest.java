@@ -0,0 +1,216 @@
+/**
+ * Copyright 2016 smartbetter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.smartbetter.utilslibrary;
+
+import android.content.SharedPreferences;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * EncryptedPreferences 自检测试：commit() 写入失败时内存中的数据不变；apply() 立即可读，
+ * 后台写入的密文重新打开后能读回；apply() 之后的 commit() 不会被较旧的后台写入覆盖.
+ */
+public class EncryptedPreferencesTest {
+
+    private static final byte[] KEY = new byte[16];
+
+    public static void main(String[] args) throws Exception {
+        FakePreferences delegate = new FakePreferences();
+        EncryptedPreferences prefs = new EncryptedPreferences(delegate, KEY, "test");
+        check(prefs.edit().putString("a", "1").putInt("n", 1).commit(), "first commit");
+
+        delegate.failCommits = true;
+        check(!prefs.edit().putString("a", "2").remove("n").commit(), "commit must report the failure");
+        check("1".equals(prefs.getString("a", null)) && prefs.getInt("n", 0) == 1,
+                "a failed commit must not change the data in memory");
+        delegate.failCommits = false;
+        checkReopened(delegate, "1", 1);
+
+        for (int i = 2; i <= 100; i++) {
+            prefs.edit().putInt("n", i).apply();
+            check(prefs.getInt("n", 0) == i, "apply() must be visible at once");
+        }
+        waitForWriter(delegate, "1", 100);
+
+        prefs.edit().putInt("n", 101).apply();
+        check(prefs.edit().putString("a", "3").commit(), "commit after apply");
+        // 给后台线程时间，确认它不会用旧快照覆盖 commit() 的结果
+        Thread.sleep(200);
+        checkReopened(delegate, "3", 101);
+        System.out.println("EncryptedPreferencesTest: OK");
+    }
+
+    private static void waitForWriter(FakePreferences delegate, String a, int n) throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            EncryptedPreferences reopened = new EncryptedPreferences(delegate, KEY, "test");
+            if (reopened.getInt("n", 0) == n) {
+                checkReopened(delegate, a, n);
+                return;
+            }
+            Thread.sleep(20);
+        }
+        check(false, "the background write never reached the delegate");
+    }
+
+    private static void checkReopened(FakePreferences delegate, String a, int n) {
+        EncryptedPreferences reopened = new EncryptedPreferences(delegate, KEY, "test");
+        check(!reopened.isUnreadable(), "stored data must decrypt");
+        check(a.equals(reopened.getString("a", null)), "reopened a = " + reopened.getString("a", null));
+        check(reopened.getInt("n", 0) == n, "reopened n = " + reopened.getInt("n", 0));
+    }
+
+    static void check(boolean condition, String message) {
+        if (!condition) {
+            System.err.println("FAILED: " + message);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * 只保存字符串的内存实现，可以让 commit() 失败
+     */
+    private static final class FakePreferences implements SharedPreferences {
+
+        private final Map<String, String> values = new HashMap<String, String>();
+        volatile boolean failCommits;
+
+        @Override
+        public synchronized Map<String, ?> getAll() {
+            return new HashMap<String, String>(values);
+        }
+
+        @Override
+        public synchronized String getString(String key, String defValue) {
+            String value = values.get(key);
+            return value != null ? value : defValue;
+        }
+
+        @Override
+        public Set<String> getStringSet(String key, Set<String> defValues) {
+            return defValues;
+        }
+
+        @Override
+        public int getInt(String key, int defValue) {
+            return defValue;
+        }
+
+        @Override
+        public long getLong(String key, long defValue) {
+            return defValue;
+        }
+
+        @Override
+        public float getFloat(String key, float defValue) {
+            return defValue;
+        }
+
+        @Override
+        public boolean getBoolean(String key, boolean defValue) {
+            return defValue;
+        }
+
+        @Override
+        public synchronized boolean contains(String key) {
+            return values.containsKey(key);
+        }
+
+        @Override
+        public Editor edit() {
+            return new FakeEditor();
+        }
+
+        @Override
+        public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        }
+
+        @Override
+        public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        }
+
+        private final class FakeEditor implements Editor {
+
+            private final Map<String, String> changes = new HashMap<String, String>();
+
+            @Override
+            public Editor putString(String key, String value) {
+                changes.put(key, value);
+                return this;
+            }
+
+            @Override
+            public Editor putStringSet(String key, Set<String> values) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public Editor putInt(String key, int value) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public Editor putLong(String key, long value) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public Editor putFloat(String key, float value) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public Editor putBoolean(String key, boolean value) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public Editor remove(String key) {
+                changes.put(key, null);
+                return this;
+            }
+
+            @Override
+            public Editor clear() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public boolean commit() {
+                if (failCommits) {
+                    return false;
+                }
+                apply();
+                return true;
+            }
+
+            @Override
+            public void apply() {
+                synchronized (FakePreferences.this) {
+                    for (Map.Entry<String, String> entry : changes.entrySet()) {
+                        if (entry.getValue() == null) {
+                            values.remove(entry.getKey());
+                        } else {
+                            values.put(entry.getKey(), entry.getValue());
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,190 @@
+/**
+ * Copyright 2016 smartbetter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.smartbetter.utilslibrary.encrypt;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * HexCodec 自检测试：各种长度与偏移量的编解码往返；奇数长度、非十六进制字符、非 ASCII 字符
+ * 和越界的偏移量都会抛出异常，越界时不写入目标数组。MD5Utils、SHA512Utils 的十六进制输出与标准测试向量一致.
+ */
+public class HexCodecTest {
+
+    public static void main(String[] args) {
+        roundTrip();
+        rejectsBadInput();
+        checksBounds();
+        digests();
+        System.out.println("HexCodecTest: OK");
+    }
+
+    private static void roundTrip() {
+        Random random = new Random(18);
+        for (int length = 0; length < 300; length += 1 + length / 4) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+            String lower = HexCodec.encode(data);
+            String upper = HexCodec.encodeUpperCase(data);
+            check(lower.length() == 2 * length, "encoded length of " + length);
+            check(lower.equals(legacyEncode(data)), "lower case output of " + length);
+            check(upper.equals(lower.toUpperCase()), "upper case output of " + length);
+            check(Arrays.equals(HexCodec.decode(lower), data), "round trip of " + length);
+            check(Arrays.equals(HexCodec.decode(upper), data), "upper case round trip of " + length);
+
+            char[] chars = new char[2 * length + 5];
+            Arrays.fill(chars, '#');
+            check(HexCodec.encode(data, 0, length, chars, 3, false) == 2 * length, "chars written");
+            check(chars[2] == '#' && chars[2 * length + 3] == '#', "encode must stay inside its range");
+            check(new String(chars, 3, 2 * length).equals(lower), "encode at an offset");
+            byte[] bytes = new byte[length + 4];
+            check(HexCodec.decode(chars, 3, 2 * length, bytes, 2) == length, "bytes written from char[]");
+            check(Arrays.equals(Arrays.copyOfRange(bytes, 2, 2 + length), data), "char[] decode at an offset");
+            Arrays.fill(bytes, (byte) 0);
+            check(HexCodec.decode("xx" + upper + "yy", 2, 2 * length, bytes, 1) == length, "bytes written");
+            check(Arrays.equals(Arrays.copyOfRange(bytes, 1, 1 + length), data), "CharSequence decode at an offset");
+        }
+        byte[] all = new byte[256];
+        for (int i = 0; i < all.length; i++) {
+            all[i] = (byte) i;
+        }
+        check(Arrays.equals(HexCodec.decode(HexCodec.encode(all)), all), "every byte value");
+    }
+
+    private static void rejectsBadInput() {
+        for (final String hex : new String[]{"0", "abc", "00112"}) {
+            checkThrows(IllegalArgumentException.class, new Call() {
+                @Override
+                public void run() {
+                    HexCodec.decode(hex);
+                }
+            }, "odd length " + hex);
+        }
+        // 非 ASCII 的数字和全角字符不能当作十六进制，Character.digit 会接受其中一些
+        String[] illegal = {"0g", "zz", " 0", "0-", "+1", "\u0660\u0661", "\uff10\uff11", "\u00e90", "0\uffff"};
+        for (final String hex : illegal) {
+            checkThrows(IllegalArgumentException.class, new Call() {
+                @Override
+                public void run() {
+                    HexCodec.decode(hex);
+                }
+            }, "non-hex " + hex);
+            final char[] chars = hex.toCharArray();
+            checkThrows(IllegalArgumentException.class, new Call() {
+                @Override
+                public void run() {
+                    HexCodec.decode(chars, 0, chars.length, new byte[1], 0);
+                }
+            }, "non-hex char[] " + hex);
+        }
+    }
+
+    private static void checksBounds() {
+        final byte[] src = new byte[4];
+        final char[] dst = new char[8];
+        int[][] encodeCases = {
+                // srcOffset, length, dstOffset
+                {-1, 1, 0}, {0, -1, 0}, {3, 2, 0}, {5, 0, 0}, {0, 4, 1}, {0, 1, -1}, {0, 1, 7},
+                {0, Integer.MAX_VALUE, 0}, {1, Integer.MAX_VALUE, 0}, {0, 1, Integer.MAX_VALUE},
+        };
+        for (final int[] c : encodeCases) {
+            Arrays.fill(dst, '#');
+            checkThrows(IndexOutOfBoundsException.class, new Call() {
+                @Override
+                public void run() {
+                    HexCodec.encode(src, c[0], c[1], dst, c[2], false);
+                }
+            }, "encode " + Arrays.toString(c));
+            for (char ch : dst) {
+                check(ch == '#', "failed encode must not write " + Arrays.toString(c));
+            }
+        }
+        final String hex = "00112233";
+        final byte[] bytes = new byte[4];
+        int[][] decodeCases = {
+                // srcOffset, length, dstOffset
+                {-2, 2, 0}, {0, -2, 0}, {6, 4, 0}, {10, 0, 0}, {0, 8, 1}, {0, 2, -1}, {0, 2, 4},
+                {2, Integer.MAX_VALUE - 1, 0}, {0, 2, Integer.MAX_VALUE},
+        };
+        for (final int[] c : decodeCases) {
+            checkThrows(IndexOutOfBoundsException.class, new Call() {
+                @Override
+                public void run() {
+                    HexCodec.decode(hex, c[0], c[1], bytes, c[2]);
+                }
+            }, "decode " + Arrays.toString(c));
+            checkThrows(IndexOutOfBoundsException.class, new Call() {
+                @Override
+                public void run() {
+                    HexCodec.decode(hex.toCharArray(), c[0], c[1], bytes, c[2]);
+                }
+            }, "char[] decode " + Arrays.toString(c));
+        }
+        check(HexCodec.encode(src, 4, 0, dst, 8, false) == 0, "empty range at the end is allowed");
+        check(HexCodec.decode(hex, 8, 0, bytes, 4) == 0, "empty decode at the end is allowed");
+    }
+
+    private static void digests() {
+        check("900150983cd24fb0d6963f7d28e17f72".equals(MD5Utils.encryptMD5ForBuilder("abc")), "MD5 of abc");
+        check(MD5Utils.encryptMD5ForBuffer("abc").equals(MD5Utils.encryptMD5ForBuilder("abc")), "MD5 ForBuffer");
+        check(("ddaf35a193617abacc417349ae20413112e6fa4e89a97ea20a9eeee64b55d39a"
+                + "2192992a274fc1a836ba3c23a3feebbd454d4423643ce80e2a9ac94fa54ca49f")
+                .equals(SHA512Utils.encryptSHAForBuilder("abc")), "SHA-512 of abc");
+        check(SHA512Utils.encryptSHAForBuffer("abc").equals(SHA512Utils.encryptSHAForBuilder("abc")),
+                "SHA-512 ForBuffer");
+        check(MD5Utils.encryptMD5ForBuilder("") == null && SHA512Utils.encryptSHAForBuffer(null) == null,
+                "empty input returns null");
+        check(HexCodec.encode(MD5Utils.digest("abc".getBytes())).equals(MD5Utils.encryptMD5ForBuilder("abc")),
+                "digest and hex agree");
+    }
+
+    /**
+     * 改动前 StringUtils.bytes2HexString 的实现
+     */
+    private static String legacyEncode(byte[] b) {
+        StringBuilder sb = new StringBuilder();
+        for (byte value : b) {
+            String hv = Integer.toHexString(value & 0xFF);
+            if (hv.length() < 2) {
+                sb.append(0);
+            }
+            sb.append(hv);
+        }
+        return sb.toString();
+    }
+
+    private interface Call {
+        void run();
+    }
+
+    private static void checkThrows(Class<? extends Exception> expected, Call call, String message) {
+        try {
+            call.run();
+        } catch (Exception e) {
+            check(expected.isInstance(e), message + ": threw " + e);
+            return;
+        }
+        check(false, message + ": no exception");
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            System.out.println("FAILED: " + message);
+            System.exit(1);
+        }
+    }
+
+}
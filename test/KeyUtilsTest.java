@@ -0,0 +1,93 @@
+/**
+ * Copyright 2016 smartbetter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.smartbetter.utilslibrary.encrypt;
+
+import java.util.Arrays;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * KeyUtils 自检测试：HKDF 符合 RFC 5869 测试向量，PBKDF2 与 JDK 实现一致；
+ * 相同输入第二次取自缓存，任一输入不同或关闭缓存时重新计算.
+ */
+public class KeyUtilsTest {
+
+    private static int sHits;
+    private static int sMisses;
+
+    public static void main(String[] args) throws Exception {
+        KeyUtils.setMetrics(new KeyUtils.Metrics() {
+            @Override
+            public void onKeysGenerated(String algorithm, int count, long nanos) {
+            }
+
+            @Override
+            public void onKeyDerived(String algorithm, boolean cacheHit, long nanos) {
+                if (cacheHit) {
+                    sHits++;
+                } else {
+                    sMisses++;
+                }
+            }
+        });
+
+        // RFC 5869 A.1
+        byte[] ikm = new byte[22];
+        Arrays.fill(ikm, (byte) 0x0b);
+        byte[] okm = KeyUtils.hkdf(ikm, HexCodec.decode("000102030405060708090a0b0c"),
+                HexCodec.decode("f0f1f2f3f4f5f6f7f8f9"), 42);
+        check(HexCodec.encode(okm).equals("3cb25f25faacd57a90434f64d0362f2a2d2d0a90cf1a5a4c5db02d56ecc4c5bf"
+                + "34007208d5b887185865"), "RFC 5869 test case 1");
+
+        char[] password = "correct horse".toCharArray();
+        byte[] salt = KeyUtils.randomBytes(16);
+        SecretKeyFactory factory = SecretKeyFactory.getInstance(KeyUtils.PBKDF2_SHA256);
+        byte[] expected = factory.generateSecret(new PBEKeySpec(password, salt, 1000, 256)).getEncoded();
+        resetCounts();
+        check(Arrays.equals(KeyUtils.pbkdf2(password, salt, 1000, 256), expected), "PBKDF2 result");
+        check(Arrays.equals(KeyUtils.pbkdf2(password, salt, 1000, 256), expected), "cached PBKDF2 result");
+        check(sMisses == 1 && sHits == 1, "second derivation must hit the cache");
+
+        resetCounts();
+        KeyUtils.pbkdf2("correct horsf".toCharArray(), salt, 1000, 256);
+        KeyUtils.pbkdf2(password, KeyUtils.randomBytes(16), 1000, 256);
+        KeyUtils.pbkdf2(password, salt, 1001, 256);
+        KeyUtils.pbkdf2(password, salt, 1000, 128);
+        check(sMisses == 4 && sHits == 0, "any changed input must miss the cache");
+        check(Arrays.equals(password, "correct horse".toCharArray()), "password must not be cleared");
+
+        KeyUtils.setDerivedKeyCacheSize(0);
+        resetCounts();
+        KeyUtils.pbkdf2(password, salt, 1000, 256);
+        check(sMisses == 1 && sHits == 0, "disabled cache must not be used");
+        KeyUtils.setMetrics(null);
+        System.out.println("KeyUtilsTest: OK");
+    }
+
+    private static void resetCounts() {
+        sHits = 0;
+        sMisses = 0;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            System.out.println("FAILED: " + message);
+            System.exit(1);
+        }
+    }
+
+}
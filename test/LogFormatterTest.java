@@ -0,0 +1,95 @@
+package com.redli.tmvpsimple.util;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Self-checking test for {@link LogFormatter}: placeholder handling, an
+ * argument that formats another message from its toString(), and the
+ * allocation per message, measured with HotSpot's per-thread allocation
+ * counter (skipped on other VMs).
+ */
+public class LogFormatterTest {
+
+    private static final int ITERATIONS = 200000;
+
+    public static void main(String[] args) {
+        placeholders();
+        reentrant();
+        allocation();
+        System.out.println("LogFormatterTest: OK");
+    }
+
+    private static void placeholders() {
+        check("a 1 b".equals(LogFormatter.format("a {} b", 1)), "one long");
+        check("x=1.5".equals(LogFormatter.format("x={}", 1.5)), "one double");
+        check("true".equals(LogFormatter.format("{}", true)), "one boolean");
+        check("1-2".equals(LogFormatter.format("{}-{}", 1, 2L)), "two longs");
+        check("a,null,c".equals(LogFormatter.format("{},{},{}", "a", null, "c")), "three objects");
+        check("1 {}".equals(LogFormatter.format("{} {}", 1)), "missing argument keeps the placeholder");
+        check("only".equals(LogFormatter.format("only", 1, 2L)), "extra arguments are ignored");
+        check("format == null".equals(LogFormatter.format(null, 1)), "null template");
+    }
+
+    private static void reentrant() {
+        Object nested = new Object() {
+            @Override
+            public String toString() {
+                return LogFormatter.format("inner {}", 7);
+            }
+        };
+        String result = LogFormatter.format("outer {} and {}", nested, "tail");
+        check("outer inner 7 and tail".equals(result), "nested format clobbered the outer one: " + result);
+        check("after 3".equals(LogFormatter.format("after {}", 3)), "builder not released after nesting");
+
+        Object failing = new Object() {
+            @Override
+            public String toString() {
+                throw new IllegalStateException("toString failed");
+            }
+        };
+        try {
+            LogFormatter.format("{} {}", failing, "x");
+            check(false, "exception from toString() must propagate");
+        } catch (IllegalStateException expected) {
+            // the builder must still be released
+        }
+        check("after 4".equals(LogFormatter.format("after {}", 4)), "builder not released after an exception");
+    }
+
+    /**
+     * Only the resulting String may be allocated: its object and its backing
+     * array, so well under 100 bytes for these short messages.
+     */
+    private static void allocation() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            System.out.println("LogFormatterTest: allocation check skipped, no allocation counter");
+            return;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        long threadId = Thread.currentThread().getId();
+        String value = "value";
+        long sink = 0;
+        // warm up so the JIT has compiled the loop before it is measured
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += LogFormatter.format("count {} of {}", i, 1000000L).length();
+            sink += LogFormatter.format("key {} is {}", value, value).length();
+        }
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink += LogFormatter.format("count {} of {}", i, 1000000L).length();
+            sink += LogFormatter.format("key {} is {}", value, value).length();
+        }
+        long perMessage = (threads.getThreadAllocatedBytes(threadId) - before) / (2L * ITERATIONS);
+        System.out.println("LogFormatterTest: " + perMessage + " bytes allocated per message (" + sink + ")");
+        check(perMessage < 100, perMessage + " bytes allocated per message, expected only the String");
+    }
+
+    static void check(boolean condition, String message) {
+        if (!condition) {
+            System.err.println("FAILED: " + message);
+            System.exit(1);
+        }
+    }
+
+}
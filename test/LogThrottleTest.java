@@ -0,0 +1,61 @@
+package com.redli.tmvpsimple.util;
+
+import java.util.ArrayList;
+
+/**
+ * Self-checking test for {@link LogThrottle} sampling through
+ * {@link LogUtils#printMyLog(Object)}: sampled-out messages are not written
+ * and are reported as suppressed by the next message that gets through.
+ */
+public class LogThrottleTest {
+
+    private static final int MESSAGES = 10000;
+
+    public static void main(String[] args) {
+        final ArrayList<String> lines = new ArrayList<String>();
+        LogSink sink = new LogSink() {
+            @Override
+            public void write(long timeMillis, int priority, String tag, String msg, String callSite) {
+                lines.add(msg);
+            }
+
+            @Override
+            public void flush() {
+            }
+        };
+        LogUtils.addSink(sink);
+        try {
+            LogThrottle.setSampleRate(100);
+            for (int i = 0; i < MESSAGES; i++) {
+                LogUtils.printMyLog("sampled");
+            }
+            LogThrottle.setSampleRate(1);
+            LogUtils.printMyLog("last");
+        } finally {
+            LogUtils.removeSink(sink);
+        }
+
+        long written = 0;
+        long reported = 0;
+        for (String line : lines) {
+            if ("sampled".equals(line)) {
+                written++;
+            } else if (line.endsWith(" messages suppressed")) {
+                reported += Long.parseLong(line.substring(0, line.indexOf(' ')));
+            }
+        }
+        check(written > 0 && written < MESSAGES / 20, written + " of " + MESSAGES + " messages kept at 1 in 100");
+        check(written + reported == MESSAGES, "kept " + written + " + suppressed " + reported
+                + " must add up to " + MESSAGES);
+        check("last".equals(lines.get(lines.size() - 1)), "the message after sampling must be written");
+        System.out.println("LogThrottleTest: OK");
+    }
+
+    static void check(boolean condition, String message) {
+        if (!condition) {
+            System.err.println("FAILED: " + message);
+            System.exit(1);
+        }
+    }
+
+}
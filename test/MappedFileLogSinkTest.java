@@ -0,0 +1,84 @@
+package com.redli.tmvpsimple.util;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Self-checking test for {@link MappedFileLogSink}, run as a plain main with
+ * the Android stubs or on a device; exits non-zero on the first failure.
+ */
+public class MappedFileLogSinkTest {
+
+    private static final int SEGMENT_SIZE = 4096;
+
+    public static void main(String[] args) throws IOException {
+        oversizeRecordKeepsSegment(null);
+        oversizeRecordKeepsSegment(new BinaryLogEncoder());
+        fullSegmentRotates(new BinaryLogEncoder());
+        System.out.println("MappedFileLogSinkTest: OK");
+    }
+
+    private static void oversizeRecordKeepsSegment(MappedFileLogSink.Encoder encoder) throws IOException {
+        File dir = tempDir();
+        MappedFileLogSink sink = encoder == null
+                ? new MappedFileLogSink(dir, SEGMENT_SIZE, 0, SEGMENT_SIZE * 8)
+                : new MappedFileLogSink(dir, SEGMENT_SIZE, 0, SEGMENT_SIZE * 8, encoder);
+        long time = 1000000L;
+        sink.write(time, 3, "tag", "small", null);
+        sink.write(time, 3, "tag", repeat('x', SEGMENT_SIZE * 2), "Foo.bar(Foo.java:1)");
+        sink.write(time, 3, "tag", "small again", null);
+        sink.flush();
+        check(sink.listSegments().length == 1, "oversize record must not rotate, got "
+                + sink.listSegments().length + " segments");
+        check(sink.getDroppedRecords() == 1, "oversize record must be counted as dropped");
+        delete(dir);
+    }
+
+    private static void fullSegmentRotates(MappedFileLogSink.Encoder encoder) throws IOException {
+        File dir = tempDir();
+        MappedFileLogSink sink = new MappedFileLogSink(dir, SEGMENT_SIZE, 0, SEGMENT_SIZE * 8, encoder);
+        String msg = repeat('y', SEGMENT_SIZE / 3);
+        for (int i = 0; i < 4; i++) {
+            sink.write(1000000L + i, 4, "tag", msg, null);
+        }
+        sink.flush();
+        check(sink.listSegments().length == 2, "a full segment must rotate, got "
+                + sink.listSegments().length + " segments");
+        check(sink.getDroppedRecords() == 0, "records that fit a fresh segment must not be dropped");
+        delete(dir);
+    }
+
+    static File tempDir() throws IOException {
+        File dir = File.createTempFile("logsink", "");
+        if (!dir.delete() || !dir.mkdirs()) {
+            throw new IOException("cannot create " + dir);
+        }
+        return dir;
+    }
+
+    static void delete(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    static String repeat(char c, int count) {
+        StringBuilder builder = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+
+    static void check(boolean condition, String message) {
+        if (!condition) {
+            System.err.println("FAILED: " + message);
+            System.exit(1);
+        }
+    }
+
+}
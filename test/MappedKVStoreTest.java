@@ -0,0 +1,113 @@
+/**
+ * Copyright 2016 smartbetter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.smartbetter.utilslibrary;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashSet;
+
+/**
+ * MappedKVStore 自检测试：各类型的值重新打开后不变；最后一次提交写了一半（位翻转或尾部清零）时，
+ * 重新打开得到之前一次提交的状态。同一文件在进程内只打开一次，所以重新打开时先复制一份.
+ */
+public class MappedKVStoreTest {
+
+    public static void main(String[] args) throws IOException {
+        File dir = File.createTempFile("kvtest", "");
+        check(dir.delete() && dir.mkdirs(), "cannot create " + dir);
+        try {
+            MappedKVStore store = MappedKVStore.open(dir, "store");
+            check(store.edit().putString("s", "值 value").putInt("i", -7).putLong("l", Long.MIN_VALUE)
+                    .putFloat("f", 1.5f).putBoolean("b", true)
+                    .putStringSet("set", new HashSet<String>(Arrays.asList("a", "b"))).commit(), "first commit");
+            check(store.edit().remove("b").commit(), "remove commit");
+            byte[] before = read(new File(dir, "store.kv"));
+
+            check(store.edit().putString("x", "last").commit(), "last commit");
+            byte[] after = read(new File(dir, "store.kv"));
+            check(before.length == after.length, "file must not grow for this test");
+            int lastRecord = 0;
+            while (before[lastRecord] == after[lastRecord]) {
+                lastRecord++;
+            }
+
+            MappedKVStore reopened = MappedKVStore.open(dir, copy(dir, after, "complete"));
+            checkFirstCommits(reopened);
+            check("last".equals(reopened.getString("x", null)), "last commit lost on reopen");
+
+            byte[] flipped = after.clone();
+            flipped[lastRecord + 3] ^= 0x40;
+            MappedKVStore corrupt = MappedKVStore.open(dir, copy(dir, flipped, "flipped"));
+            checkFirstCommits(corrupt);
+            check(!corrupt.contains("x"), "a corrupt record must be dropped");
+
+            byte[] torn = after.clone();
+            Arrays.fill(torn, lastRecord + 3, torn.length, (byte) 0);
+            MappedKVStore truncated = MappedKVStore.open(dir, copy(dir, torn, "torn"));
+            checkFirstCommits(truncated);
+            check(!truncated.contains("x"), "a torn record must be dropped");
+        } finally {
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            dir.delete();
+        }
+        System.out.println("MappedKVStoreTest: OK");
+    }
+
+    private static void checkFirstCommits(MappedKVStore store) {
+        check("值 value".equals(store.getString("s", null)), "string");
+        check(store.getInt("i", 0) == -7, "int");
+        check(store.getLong("l", 0) == Long.MIN_VALUE, "long");
+        check(store.getFloat("f", 0) == 1.5f, "float");
+        check(!store.contains("b"), "removed key");
+        check(new HashSet<String>(Arrays.asList("a", "b")).equals(store.getStringSet("set", null)), "string set");
+    }
+
+    private static byte[] read(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            byte[] bytes = new byte[(int) raf.length()];
+            raf.readFully(bytes);
+            return bytes;
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static String copy(File dir, byte[] bytes, String name) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(new File(dir, name + ".kv"), "rw");
+        try {
+            raf.write(bytes);
+        } finally {
+            raf.close();
+        }
+        return name;
+    }
+
+    static void check(boolean condition, String message) {
+        if (!condition) {
+            System.err.println("FAILED: " + message);
+            System.exit(1);
+        }
+    }
+
+}
@@ -0,0 +1,246 @@
+/**
+ * Copyright 2016 smartbetter
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.smartbetter.utilslibrary;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+/**
+ * StringUtils 中逐字符扫描的校验与正则版本的差分模糊测试，随机种子固定，失败时打印输入：
+ * <ul>
+ * <li>isMobile 与 MOBILE_VALIDATOR（TELREGEX），isIPv4 与 IP_VALIDATOR（IPREGEX）</li>
+ * <li>isIPv6 与按 RFC 3986 IPv6address 语法拼出的正则，IPv4 部分沿用 IPREGEX</li>
+ * <li>isIDCard18 与正则加 Calendar 检查日期、按 2^(17-i) mod 11 计算校验码的参考实现</li>
+ * </ul>
+ * 另有一组 IPv6 边界用例直接给出期望值.
+ */
+public class StringValidatorFuzzTest {
+
+    private static final int ROUNDS = 200000;
+
+    private static final Pattern IPV6 = Pattern.compile(ipv6Regex());
+    private static final Pattern ID18 = Pattern.compile("\\d{17}[\\dXx]");
+
+    public static void main(String[] args) {
+        Random random = new Random(25);
+        ipv6EdgeCases();
+        for (int i = 0; i < ROUNDS; i++) {
+            String mobile = i % 2 == 0 ? mobileLike(random) : noise(random, "0123456789 +-", 14);
+            check(StringUtils.isMobile(mobile) == StringUtils.MOBILE_VALIDATOR.matches(mobile), "isMobile", mobile);
+
+            String ipv4 = i % 2 == 0 ? ipv4Like(random) : noise(random, "0123456789.", 18);
+            check(StringUtils.isIPv4(ipv4) == StringUtils.IP_VALIDATOR.matches(ipv4), "isIPv4", ipv4);
+
+            String ipv6 = i % 2 == 0 ? ipv6Like(random) : noise(random, "0123456789abcdefABCDEFg:.", 24);
+            check(StringUtils.isIPv6(ipv6) == IPV6.matcher(ipv6).matches(), "isIPv6", ipv6);
+
+            String id = idLike(random);
+            check(StringUtils.isIDCard18(id) == isIDCard18Reference(id), "isIDCard18", id);
+        }
+        System.out.println("StringValidatorFuzzTest: OK");
+    }
+
+    private static void ipv6EdgeCases() {
+        String[] valid = {"::", "1::", "::1", "::ffff:1.2.3.4", "1:2:3:4:5:6:7::", "::2:3:4:5:6:7:8",
+                "1:2:3:4:5:6:7:8", "1:2:3:4:5:6:1.2.3.4", "1::1.2.3.4", "fe80::1", "FFFF::abcd:0"};
+        String[] invalid = {"", ":", ":::", "1:::2", "1::2::3", ":1::", "1:", "::1:", "1:2:3:4:5:6:7:8::",
+                "1:2:3:4:5:6:7:8:9", "1:2:3:4:5:6:7", "12345::", "::ffff:256.1.1.1", "::1.2.3",
+                "1:2:3:4:5:6:7:1.2.3.4", "::1.2.3.4:5", "::a.2.3.4", "[::1]", "fe80::1%eth0", "g::"};
+        for (String ip : valid) {
+            check(StringUtils.isIPv6(ip), "isIPv6 must accept", ip);
+            check(IPV6.matcher(ip).matches(), "reference must accept", ip);
+        }
+        for (String ip : invalid) {
+            check(!StringUtils.isIPv6(ip), "isIPv6 must reject", ip);
+            check(!IPV6.matcher(ip).matches(), "reference must reject", ip);
+        }
+    }
+
+    /**
+     * RFC 3986 第 3.2.2 节的 IPv6address
+     */
+    private static String ipv6Regex() {
+        String h16 = "[0-9A-Fa-f]{1,4}";
+        String ls32 = "(?:" + h16 + ":" + h16 + "|" + StringUtils.IP_VALIDATOR.getPattern().pattern() + ")";
+        StringBuilder regex = new StringBuilder("(?:");
+        regex.append(repeat(h16 + ":", 6)).append(ls32);
+        regex.append("|::").append(repeat(h16 + ":", 5)).append(ls32);
+        for (int before = 0; before <= 6; before++) {
+            regex.append("|(?:").append(upTo(h16 + ":", before)).append(h16).append(")?::");
+            int after = 4 - before;
+            if (after >= 0) {
+                regex.append(repeat(h16 + ":", after)).append(ls32);
+            } else if (before == 5) {
+                regex.append(h16);
+            }
+        }
+        return regex.append(')').toString();
+    }
+
+    private static String repeat(String part, int count) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.append(part);
+        }
+        return builder.toString();
+    }
+
+    private static String upTo(String part, int max) {
+        return max <= 0 ? "" : "(?:" + part + "){0," + max + "}";
+    }
+
+    private static boolean isIDCard18Reference(String id) {
+        if (!ID18.matcher(id).matches()) {
+            return false;
+        }
+        Calendar calendar = new GregorianCalendar();
+        calendar.setLenient(false);
+        calendar.clear();
+        calendar.set(Integer.parseInt(id.substring(6, 10)), Integer.parseInt(id.substring(10, 12)) - 1,
+                Integer.parseInt(id.substring(12, 14)));
+        try {
+            calendar.getTimeInMillis();
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        int sum = 0;
+        for (int i = 0; i < 17; i++) {
+            sum += (id.charAt(i) - '0') * ((1 << (17 - i)) % 11);
+        }
+        int check = (12 - sum % 11) % 11;
+        char last = Character.toUpperCase(id.charAt(17));
+        return check == 10 ? last == 'X' : last == '0' + check;
+    }
+
+    private static String mobileLike(Random random) {
+        StringBuilder builder = new StringBuilder();
+        builder.append(random.nextInt(8) == 0 ? "2" : "1");
+        builder.append((char) ('0' + random.nextInt(10)));
+        int length = 9 + random.nextInt(3) - 1;
+        for (int i = 0; i < length; i++) {
+            builder.append(random.nextInt(30) == 0 ? 'a' : (char) ('0' + random.nextInt(10)));
+        }
+        return builder.toString();
+    }
+
+    private static String ipv4Like(Random random) {
+        StringBuilder builder = new StringBuilder();
+        int parts = 3 + random.nextInt(3);
+        for (int i = 0; i < parts; i++) {
+            if (i > 0) {
+                builder.append(random.nextInt(20) == 0 ? ".." : ".");
+            }
+            builder.append(octet(random));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 0~299，有时带前导 0，有时多一位
+     */
+    private static String octet(Random random) {
+        String octet = Integer.toString(random.nextInt(300));
+        switch (random.nextInt(6)) {
+            case 0:
+                return "0" + octet;
+            case 1:
+                return "00" + octet;
+            case 2:
+                return octet + random.nextInt(10);
+            default:
+                return octet;
+        }
+    }
+
+    /**
+     * 1~9 组，可能有一处或两处 "::"、末尾的 IPv4、超长的组和单个 ':'
+     */
+    private static String ipv6Like(Random random) {
+        StringBuilder builder = new StringBuilder();
+        int groups = 1 + random.nextInt(9);
+        int compressAt = random.nextInt(3) == 0 ? -1 : random.nextInt(groups + 1);
+        int secondCompress = random.nextInt(20) == 0 ? random.nextInt(groups + 1) : -1;
+        boolean ipv4Tail = random.nextInt(4) == 0;
+        for (int i = 0; i < groups; i++) {
+            if (i == compressAt || i == secondCompress) {
+                builder.append("::");
+            } else if (i > 0) {
+                builder.append(':');
+            }
+            if (i == groups - 1 && ipv4Tail) {
+                builder.append(ipv4Like(random));
+            } else {
+                int digits = random.nextInt(15) == 0 ? 5 : 1 + random.nextInt(4);
+                for (int j = 0; j < digits; j++) {
+                    builder.append("0123456789abcdefABCDEF".charAt(random.nextInt(22)));
+                }
+            }
+        }
+        if (compressAt == groups || secondCompress == groups) {
+            builder.append("::");
+        } else if (random.nextInt(30) == 0) {
+            builder.append(':');
+        }
+        if (random.nextInt(30) == 0) {
+            builder.insert(0, ':');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 多数是日期合法的 17 位数字加一位随机校验码，约十分之一的校验码正确
+     */
+    private static String idLike(Random random) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 6; i++) {
+            builder.append((char) ('0' + random.nextInt(10)));
+        }
+        builder.append(1900 + random.nextInt(130));
+        builder.append(pad2(random.nextInt(14)));
+        builder.append(pad2(random.nextInt(33)));
+        for (int i = 0; i < 3; i++) {
+            builder.append((char) ('0' + random.nextInt(10)));
+        }
+        builder.append("0123456789Xxa".charAt(random.nextInt(13)));
+        if (random.nextInt(20) == 0) {
+            builder.setLength(builder.length() - 1 - random.nextInt(2));
+        }
+        return builder.toString();
+    }
+
+    private static String pad2(int value) {
+        return value < 10 ? "0" + value : Integer.toString(value);
+    }
+
+    private static String noise(Random random, String alphabet, int maxLength) {
+        int length = random.nextInt(maxLength + 1);
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return builder.toString();
+    }
+
+    private static void check(boolean condition, String message, String input) {
+        if (!condition) {
+            System.out.println("FAILED: " + message + " \"" + input + "\"");
+            System.exit(1);
+        }
+    }
+
+}